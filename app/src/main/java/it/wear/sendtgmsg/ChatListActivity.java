@@ -17,20 +17,17 @@ import androidx.wear.widget.WearableRecyclerView;
 import org.drinkless.td.libcore.telegram.TdApi;
 
 import java.util.ArrayList;
-import java.util.NavigableSet;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import it.tdlight.client.GenericResultHandler;
 import it.tdlight.client.GenericUpdateHandler;
 import it.tdlight.client.Result;
 import it.tdlight.client.SimpleTelegramClient;
+import it.tdlight.common.state.ClientState;
 
 public class ChatListActivity extends Activity {
 
-    private static final ConcurrentMap<Long, TdApi.Chat> chats = new ConcurrentHashMap<>();
-    private static final NavigableSet<OrderedChat> mainChatList = new TreeSet<>();
+    private static final ClientState state = ClientState.create();
+    private static final TdApi.ChatList MAIN_CHAT_LIST = new TdApi.ChatListMain();
     private static final int MESSAGE_INPUT_RESULT = 1000;
     private static final String BUNDLE_INPUT = "message_text";
     private int messageIndex = 0;
@@ -38,46 +35,16 @@ public class ChatListActivity extends Activity {
     private final ArrayList<ChatItem> chatItems = new ArrayList<>();
     private ChatListAdapter chatAdapter = null;
 
-    static class OrderedChat implements Comparable<OrderedChat> {
-        final long chatId;
-        final TdApi.ChatPosition position;
-
-        OrderedChat(long chatId, TdApi.ChatPosition position) {
-            this.chatId = chatId;
-            this.position = position;
-        }
-
-        @Override
-        public int compareTo(OrderedChat o) {
-            if (this.position.order != o.position.order) {
-                return o.position.order < this.position.order ? -1 : 1;
-            }
-            if (this.chatId != o.chatId) {
-                return o.chatId < this.chatId ? -1 : 1;
-            }
-            return 0;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            OrderedChat o = (OrderedChat) obj;
-            return this.chatId == o.chatId && this.position.order == o.position.order;
-        }
-    }
-
     protected void updateDataModel() {
-        if (mainChatList.size() < 1) return;
+        if (state.getChatIds(MAIN_CHAT_LIST).length < 1) return;
 
         chatItems.clear();
         int limit = 10;
-        synchronized (mainChatList) {
-            java.util.Iterator<OrderedChat> iter = mainChatList.iterator();
-            for (int i = 0; i < limit && i < mainChatList.size(); i++) {
-                long chatId = iter.next().chatId;
-                TdApi.Chat chat = chats.get(chatId);
-                if (chat != null) {
-                    chatItems.add(new ChatItem(chat.title, chatId));
-                }
+        for (long chatId : state.getChatIds(MAIN_CHAT_LIST)) {
+            if (chatItems.size() >= limit) break;
+            TdApi.Chat chat = state.getChat(chatId);
+            if (chat != null && isListed(chat)) {
+                chatItems.add(new ChatItem(chat.title, chatId));
             }
         }
         if (chatAdapter != null) {
@@ -138,82 +105,12 @@ public class ChatListActivity extends Activity {
         cli.addUpdatesHandler(new GenericUpdateHandler<TdApi.Update>() {
             @Override
             public void onUpdate(TdApi.Update update) {
+                state.onResult(update);
                 switch (update.getConstructor()) {
-                    case TdApi.UpdateUser.CONSTRUCTOR: {
-                        // New user
-                        //TdApi.UpdateUser updateUser = (TdApi.UpdateUser) update;
-                        //users.put(updateUser.user.id, updateUser.user);
-                        break;
-                    }
-                    case TdApi.UpdateNewChat.CONSTRUCTOR: {
-                        // New chat
-                        TdApi.UpdateNewChat updateNewChat = (TdApi.UpdateNewChat) update;
-                        TdApi.Chat chat = updateNewChat.chat;
-                        synchronized (chat) {
-                            int type = chat.type.getConstructor();
-                            if (type == TdApi.ChatTypePrivate.CONSTRUCTOR || type == TdApi.ChatTypeBasicGroup.CONSTRUCTOR) {
-                                if (chat.title.length() > 0) {
-                                    chats.put(chat.id, chat);
-
-                                    TdApi.ChatPosition[] positions = chat.positions;
-                                    chat.positions = new TdApi.ChatPosition[0];
-                                    setChatPositions(chat, positions);
-                                }
-                            }
-                        }
-                        break;
-                    }
-                    case TdApi.UpdateChatTitle.CONSTRUCTOR: {
-                        // New chat title
-                        TdApi.UpdateChatTitle updateChat = (TdApi.UpdateChatTitle) update;
-                        TdApi.Chat chat = chats.get(updateChat.chatId);
-                        synchronized (chat) {
-                            chat.title = updateChat.title;
-                        }
-                        break;
-                    }
-                    case TdApi.UpdateChatPosition.CONSTRUCTOR: {
-                        // Update in the chat position
-                        TdApi.UpdateChatPosition updateChat = (TdApi.UpdateChatPosition) update;
-                        if (updateChat.position.list.getConstructor() != TdApi.ChatListMain.CONSTRUCTOR) {
-                            break;
-                        }
-
-                        TdApi.Chat chat = chats.get(updateChat.chatId);
-                        if (chat == null) break;
-                        synchronized (chat) {
-                            int i;
-                            for (i = 0; i < chat.positions.length; i++) {
-                                if (chat.positions[i].list.getConstructor() == TdApi.ChatListMain.CONSTRUCTOR) {
-                                    break;
-                                }
-                            }
-                            TdApi.ChatPosition[] new_positions = new TdApi.ChatPosition[chat.positions.length + (updateChat.position.order == 0 ? 0 : 1) - (i < chat.positions.length ? 1 : 0)];
-                            int pos = 0;
-                            if (updateChat.position.order != 0) {
-                                new_positions[pos++] = updateChat.position;
-                            }
-                            for (int j = 0; j < chat.positions.length; j++) {
-                                if (j != i) {
-                                    new_positions[pos++] = chat.positions[j];
-                                }
-                            }
-                            assert pos == new_positions.length;
-
-                            setChatPositions(chat, new_positions);
-                            updateDataModel();
-                        }
-                        break;
-                    }
+                    case TdApi.UpdateChatPosition.CONSTRUCTOR:
                     case TdApi.UpdateChatLastMessage.CONSTRUCTOR: {
-                        // Update in the chat position (due to last message)
-                        TdApi.UpdateChatLastMessage updateChat = (TdApi.UpdateChatLastMessage) update;
-                        TdApi.Chat chat = chats.get(updateChat.chatId);
-                        if (chat == null) break;
-                        synchronized (chat) {
-                            setChatPositions(chat, updateChat.positions);
-                            updateDataModel();
-                        }
+                        // Update in the chat position
+                        updateDataModel();
                         break;
                     }
                     case TdApi.UpdateMessageSendSucceeded.CONSTRUCTOR: {
@@ -262,8 +159,8 @@ public class ChatListActivity extends Activity {
         if (event.getRepeatCount() == 0) {
             if (keyCode == KeyEvent.KEYCODE_STEM_1 || keyCode == 4) {
                 // Do stuff
-                Toast.makeText(this, String.format("Tentativo di ricaricamento (%d)", mainChatList.size()), Toast.LENGTH_SHORT).show();
-                if (mainChatList.size() > 0) {
+                Toast.makeText(this, String.format("Tentativo di ricaricamento (%d)", state.getChatIds(MAIN_CHAT_LIST).length), Toast.LENGTH_SHORT).show();
+                if (state.getChatIds(MAIN_CHAT_LIST).length > 0) {
                     updateDataModel();
                 }
                 return true;
@@ -276,31 +173,14 @@ public class ChatListActivity extends Activity {
     protected void onResume() {
         super.onResume();
 
-        if (mainChatList.size() > 0) {
+        if (state.getChatIds(MAIN_CHAT_LIST).length > 0) {
             updateDataModel();
         }
     }
 
-    private static void setChatPositions(TdApi.Chat chat, TdApi.ChatPosition[] positions) {
-        synchronized (mainChatList) {
-            synchronized (chat) {
-                for (TdApi.ChatPosition position : chat.positions) {
-                    if (position.list.getConstructor() == TdApi.ChatListMain.CONSTRUCTOR) {
-                        boolean isRemoved = mainChatList.remove(new OrderedChat(chat.id, position));
-                        assert isRemoved;
-                    }
-                }
-
-                chat.positions = positions;
-
-                for (TdApi.ChatPosition position : chat.positions) {
-                    if (position.list.getConstructor() == TdApi.ChatListMain.CONSTRUCTOR) {
-                        boolean isAdded = mainChatList.add(new OrderedChat(chat.id, position));
-                        assert isAdded;
-                    }
-                }
-            }
-        }
+    private static boolean isListed(TdApi.Chat chat) {
+        int type = chat.type.getConstructor();
+        return (type == TdApi.ChatTypePrivate.CONSTRUCTOR || type == TdApi.ChatTypeBasicGroup.CONSTRUCTOR)
+                && chat.title.length() > 0;
     }
-
-}
\ No newline at end of file
+}
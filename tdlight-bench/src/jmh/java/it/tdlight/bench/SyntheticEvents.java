@@ -0,0 +1,182 @@
+package it.tdlight.bench;
+
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.util.Random;
+
+/**
+ * Synthetic TDLib events for the benchmarks, generated from a fixed seed so every run sees the same batches.
+ * <p>
+ * The mix of updates follows the traffic of an account that is a member of a few busy groups: mostly user statuses,
+ * new messages and the chat updates that they trigger, then chat actions, interaction info and read receipts.
+ */
+public final class SyntheticEvents {
+
+	private static final int CHATS = 50;
+	private static final int USERS = 500;
+
+	private SyntheticEvents() {
+	}
+
+	/**
+	 * @return an array of updates with a realistic mix of types
+	 */
+	public static TdApi.Object[] updates(int count, long seed) {
+		Random random = new Random(seed);
+		TdApi.Object[] updates = new TdApi.Object[count];
+		for (int i = 0; i < count; i++) {
+			updates[i] = update(random, i);
+		}
+		return updates;
+	}
+
+	/**
+	 * Fill the arrays with a batch of events: one response every responsesRatio events, the rest are updates.
+	 * The response ids start from 1.
+	 */
+	public static void batch(long[] eventIds, TdApi.Object[] events, int count, int responsesRatio, long seed) {
+		Random random = new Random(seed);
+		long nextQueryId = 1;
+		for (int i = 0; i < count; i++) {
+			if (i % responsesRatio == 0) {
+				eventIds[i] = nextQueryId++;
+				events[i] = response(random);
+			} else {
+				eventIds[i] = 0;
+				events[i] = update(random, i);
+			}
+		}
+	}
+
+	public static TdApi.Message textMessage(long chatId, long messageId, int senderUserId, String text) {
+		TdApi.Message message = new TdApi.Message();
+		message.id = messageId;
+		message.chatId = chatId;
+		message.sender = new TdApi.MessageSenderUser(senderUserId);
+		message.date = (int) (messageId / 1000);
+		message.authorSignature = "";
+		message.content = new TdApi.MessageText(new TdApi.FormattedText(text, new TdApi.TextEntity[0]), null);
+		return message;
+	}
+
+	public static TdApi.Message photoMessage(long chatId, long messageId, int senderUserId) {
+		TdApi.Message message = textMessage(chatId, messageId, senderUserId, "");
+		message.content = new TdApi.MessagePhoto(new TdApi.Photo(false, null, new TdApi.PhotoSize[0]),
+				new TdApi.FormattedText("", new TdApi.TextEntity[0]),
+				false
+		);
+		return message;
+	}
+
+	/**
+	 * @return a message with every nested object set: formatted text, forward and reply info, inline keyboard
+	 */
+	public static TdApi.Message largeMessage(long chatId, long messageId, int senderUserId) {
+		StringBuilder text = new StringBuilder();
+		TdApi.TextEntity[] entities = new TdApi.TextEntity[16];
+		for (int i = 0; i < entities.length; i++) {
+			entities[i] = new TdApi.TextEntity(text.length(), 8, i % 2 == 0
+					? new TdApi.TextEntityTypeBold()
+					: new TdApi.TextEntityTypeTextUrl("https://example.com/" + i));
+			text.append("entity").append(i).append(" and some text around it ");
+		}
+		TdApi.Message message = textMessage(chatId, messageId, senderUserId, text.toString());
+		((TdApi.MessageText) message.content).text.entities = entities;
+		message.forwardInfo = new TdApi.MessageForwardInfo(new TdApi.MessageForwardOriginChannel(chatId - 1, 42, "author"),
+				message.date - 60,
+				"",
+				chatId - 1,
+				42
+		);
+		TdApi.MessageSender[] repliers = new TdApi.MessageSender[3];
+		for (int i = 0; i < repliers.length; i++) {
+			repliers[i] = new TdApi.MessageSenderUser(senderUserId + i + 1);
+		}
+		message.interactionInfo = new TdApi.MessageInteractionInfo(1500, 12,
+				new TdApi.MessageReplyInfo(37, repliers, messageId - 1, messageId - 1, messageId + 37)
+		);
+		TdApi.InlineKeyboardButton[][] rows = new TdApi.InlineKeyboardButton[3][];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = new TdApi.InlineKeyboardButton[3];
+			for (int j = 0; j < rows[i].length; j++) {
+				rows[i][j] = new TdApi.InlineKeyboardButton("button " + i + j,
+						new TdApi.InlineKeyboardButtonTypeCallback(new byte[] {(byte) i, (byte) j, 1, 2, 3, 4, 5, 6})
+				);
+			}
+		}
+		message.replyMarkup = new TdApi.ReplyMarkupInlineKeyboard(rows);
+		return message;
+	}
+
+	/**
+	 * @return a chat with every nested object set: photo, last message, positions, notification settings and draft
+	 */
+	public static TdApi.Chat largeChat(long chatId) {
+		TdApi.Chat chat = new TdApi.Chat();
+		chat.id = chatId;
+		chat.type = new TdApi.ChatTypeSupergroup((int) -(chatId + 1000000000000L), false);
+		chat.title = "Busy group " + chatId;
+		chat.photo = new TdApi.ChatPhotoInfo(file(1), file(2), false);
+		chat.permissions = new TdApi.ChatPermissions(true, true, true, true, true, false, true, false);
+		chat.lastMessage = largeMessage(chatId, 1L << 40, 1);
+		chat.positions = new TdApi.ChatPosition[] {
+				new TdApi.ChatPosition(new TdApi.ChatListMain(), 1L << 50, false, null),
+				new TdApi.ChatPosition(new TdApi.ChatListFilter(3), 1L << 50, true, null)
+		};
+		chat.unreadCount = 120;
+		chat.lastReadInboxMessageId = (1L << 40) - 120;
+		chat.lastReadOutboxMessageId = (1L << 40) - 200;
+		chat.notificationSettings = new TdApi.ChatNotificationSettings(true, 0, true, "default", true, true, true,
+				false, true, false
+		);
+		chat.draftMessage = new TdApi.DraftMessage(0, 1600000000,
+				new TdApi.InputMessageText(new TdApi.FormattedText("draft", new TdApi.TextEntity[0]), false, false)
+		);
+		chat.clientData = "";
+		return chat;
+	}
+
+	private static TdApi.File file(int id) {
+		return new TdApi.File(id, 16384, 16384,
+				new TdApi.LocalFile("/data/files/photo" + id + ".jpg", true, true, false, true, 0, 16384, 16384),
+				new TdApi.RemoteFile("AQADBAADr6cxG" + id, "AQADr6cxG" + id, false, true, 16384)
+		);
+	}
+
+	private static TdApi.Object update(Random random, int index) {
+		long chatId = -1000000000L - random.nextInt(CHATS);
+		int userId = 1 + random.nextInt(USERS);
+		long messageId = (index + 1L) << 20;
+		int kind = random.nextInt(100);
+		if (kind < 30) {
+			return new TdApi.UpdateUserStatus(userId, new TdApi.UserStatusOnline(index));
+		} else if (kind < 50) {
+			return new TdApi.UpdateNewMessage(textMessage(chatId, messageId, userId, "message " + index));
+		} else if (kind < 62) {
+			return new TdApi.UpdateChatLastMessage(chatId,
+					textMessage(chatId, messageId, userId, "message " + index),
+					new TdApi.ChatPosition[0]
+			);
+		} else if (kind < 74) {
+			return new TdApi.UpdateUserChatAction(chatId, 0, userId, new TdApi.ChatActionTyping());
+		} else if (kind < 84) {
+			return new TdApi.UpdateMessageInteractionInfo(chatId, messageId, null);
+		} else if (kind < 94) {
+			return new TdApi.UpdateChatReadInbox(chatId, messageId, random.nextInt(100));
+		} else {
+			return new TdApi.UpdateChatPosition(chatId,
+					new TdApi.ChatPosition(new TdApi.ChatListMain(), index, false, null)
+			);
+		}
+	}
+
+	private static TdApi.Object response(Random random) {
+		int kind = random.nextInt(10);
+		if (kind < 6) {
+			return new TdApi.Ok();
+		} else if (kind < 9) {
+			return textMessage(-1000000000L - random.nextInt(CHATS), random.nextInt(1 << 20), 1, "sent");
+		} else {
+			return new TdApi.Error(400, "Bad Request");
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package it.tdlight.client;
+
+import it.tdlight.bench.SyntheticEvents;
+import it.tdlight.common.ExceptionHandler;
+import it.tdlight.common.ResultHandler;
+import it.tdlight.common.TelegramClient;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link CommandsHandler#onUpdate} over the new messages of a group with a bot: mostly media and plain text, some
+ * commands for this bot and some commands for other bots. Each operation handles a batch of {@link #BATCH_SIZE}
+ * messages, the requests sent by the handler are consumed by a fake client.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CommandsHandlerBenchmark {
+
+	private static final int BATCH_SIZE = 1000;
+	private static final String BOT_USERNAME = "benchbot";
+
+	private TdApi.UpdateNewMessage[] updates;
+	private CommandsHandler commandsHandler;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		Random random = new Random(42);
+		this.updates = new TdApi.UpdateNewMessage[BATCH_SIZE];
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			long chatId = -1000000000L - random.nextInt(10);
+			int userId = 1 + random.nextInt(100);
+			int kind = random.nextInt(100);
+			TdApi.Message message;
+			if (kind < 40) {
+				message = SyntheticEvents.photoMessage(chatId, i, userId);
+			} else if (kind < 85) {
+				message = SyntheticEvents.textMessage(chatId, i, userId, "just a normal message number " + i);
+			} else if (kind < 95) {
+				message = SyntheticEvents.textMessage(chatId, i, userId, "/start@" + BOT_USERNAME + " argument " + i);
+			} else {
+				message = SyntheticEvents.textMessage(chatId, i, userId, "/start@otherbot argument " + i);
+			}
+			updates[i] = new TdApi.UpdateNewMessage(message);
+		}
+
+		Map<String, Set<CommandHandler>> commandHandlers = new ConcurrentHashMap<>();
+		commandHandlers.put("start", Collections.singleton((chat, commandSender, arguments) -> blackhole.consume(arguments)));
+		TdApi.User me = new TdApi.User();
+		me.username = BOT_USERNAME;
+		this.commandsHandler = new CommandsHandler(new FakeTelegramClient(blackhole),
+				commandHandlers,
+				new AtomicReference<>(me)
+		);
+	}
+
+	@Benchmark
+	public void onUpdate() {
+		for (TdApi.UpdateNewMessage update : updates) {
+			commandsHandler.onUpdate(update);
+		}
+	}
+
+	private static final class FakeTelegramClient implements TelegramClient {
+
+		private final Blackhole blackhole;
+
+		private FakeTelegramClient(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public void send(TdApi.Function query, ResultHandler resultHandler, ExceptionHandler exceptionHandler) {
+			blackhole.consume(query);
+		}
+
+		@Override
+		public void send(TdApi.Function query,
+				ResultHandler resultHandler,
+				ExceptionHandler exceptionHandler,
+				Duration timeout) {
+			blackhole.consume(query);
+		}
+	}
+}
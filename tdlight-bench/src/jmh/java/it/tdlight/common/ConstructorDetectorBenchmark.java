@@ -0,0 +1,55 @@
+package it.tdlight.common;
+
+import it.tdlight.bench.SyntheticEvents;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lookups of {@link ConstructorDetector}, over the classes and constructors of a realistic mix of updates.
+ * Each operation looks up a batch of {@link #BATCH_SIZE} classes or constructors.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConstructorDetectorBenchmark {
+
+	private static final int BATCH_SIZE = 1000;
+
+	private Class<? extends TdApi.Object>[] classes;
+	private int[] constructors;
+
+	@Setup
+	public void setup() {
+		TdApi.Object[] updates = SyntheticEvents.updates(BATCH_SIZE, 42);
+		@SuppressWarnings("unchecked")
+		Class<? extends TdApi.Object>[] classes = (Class<? extends TdApi.Object>[]) new Class<?>[BATCH_SIZE];
+		this.classes = classes;
+		this.constructors = new int[BATCH_SIZE];
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			classes[i] = updates[i].getClass();
+			constructors[i] = updates[i].getConstructor();
+		}
+	}
+
+	@Benchmark
+	public void getConstructor(Blackhole blackhole) {
+		for (Class<? extends TdApi.Object> clazz : classes) {
+			blackhole.consume(ConstructorDetector.getConstructor(clazz));
+		}
+	}
+
+	@Benchmark
+	public void getClass(Blackhole blackhole) {
+		for (int constructor : constructors) {
+			blackhole.consume(ConstructorDetector.getClass(constructor));
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package it.tdlight.common;
+
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cold start cost of the constructor table: every fork measures a single call in a fresh JVM, and reports the number
+ * of classes loaded by that call.
+ * <p>
+ * {@link #initStart()} loads the native library, so tdjni must be in {@code java.library.path}. The other benchmarks
+ * compare the generated table with the reflective table that was built by {@code ConstructorDetector.init()} before.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(20)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class InitStartupBenchmark {
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class LoadedClasses {
+
+		private final ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+		private long loadedBefore;
+		public long loadedClasses;
+
+		@Setup(Level.Iteration)
+		public void before() {
+			loadedBefore = classLoading.getTotalLoadedClassCount();
+		}
+
+		@TearDown(Level.Iteration)
+		public void after() {
+			loadedClasses = classLoading.getTotalLoadedClassCount() - loadedBefore;
+		}
+	}
+
+	@Benchmark
+	public void initStart(LoadedClasses loadedClasses) throws Throwable {
+		Init.start();
+	}
+
+	@Benchmark
+	public Class<?> generatedTable(LoadedClasses loadedClasses) {
+		ConstructorRegistry.getConstructor(TdApi.UpdateNewMessage.class);
+		return ConstructorRegistry.getClass(TdApi.UpdateAuthorizationState.CONSTRUCTOR);
+	}
+
+	@Benchmark
+	@SuppressWarnings("rawtypes")
+	public Class<?> reflectiveTable(LoadedClasses loadedClasses) throws IllegalAccessException {
+		ConcurrentHashMap<Integer, Class> constructorHashMap = new ConcurrentHashMap<>();
+		ConcurrentHashMap<Class, Integer> constructorHashMapInverse = new ConcurrentHashMap<>();
+		for (Class apiClass : TdApi.class.getDeclaredClasses()) {
+			Field constructorField;
+			try {
+				constructorField = apiClass.getDeclaredField("CONSTRUCTOR");
+			} catch (NoSuchFieldException e) {
+				continue;
+			}
+			int constructor = constructorField.getInt(null);
+			constructorHashMap.put(constructor, apiClass);
+			constructorHashMapInverse.put(apiClass, constructor);
+		}
+		constructorHashMapInverse.get(TdApi.UpdateNewMessage.class);
+		return constructorHashMap.get(TdApi.UpdateAuthorizationState.CONSTRUCTOR);
+	}
+}
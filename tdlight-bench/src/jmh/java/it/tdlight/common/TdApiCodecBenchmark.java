@@ -0,0 +1,82 @@
+package it.tdlight.common;
+
+import it.tdlight.bench.SyntheticEvents;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link TdApiCodec} over a large chat, a large message and a batch of {@link #BATCH_SIZE} updates with a realistic
+ * mix of types, written to and read from heap and direct buffers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TdApiCodecBenchmark {
+
+	private static final int BATCH_SIZE = 100;
+
+	@Param({"chat", "message", "updates"})
+	public String type;
+
+	@Param({"heap", "direct"})
+	public String buffer;
+
+	private final TdApiCodec codec = new TdApiCodec();
+	private TdApi.Object[] objects;
+	private ByteBuffer writeBuffer;
+	private ByteBuffer readBuffer;
+
+	@Setup
+	public void setup() {
+		switch (type) {
+			case "chat":
+				this.objects = new TdApi.Object[] {SyntheticEvents.largeChat(-1000000001L)};
+				break;
+			case "message":
+				this.objects = new TdApi.Object[] {SyntheticEvents.largeMessage(-1000000001L, 1L << 40, 1)};
+				break;
+			default:
+				this.objects = SyntheticEvents.updates(BATCH_SIZE, 42);
+				break;
+		}
+		this.writeBuffer = buffer.equals("heap") ? ByteBuffer.allocate(1 << 20) : ByteBuffer.allocateDirect(1 << 20);
+		write();
+		this.readBuffer = writeBuffer.duplicate();
+		readBuffer.flip();
+		for (TdApi.Object object : objects) {
+			if (!TdApiEquality.equals(object, codec.read(readBuffer))) {
+				throw new IllegalStateException("The decoded object is different from the encoded one");
+			}
+		}
+	}
+
+	@Benchmark
+	public ByteBuffer write() {
+		ByteBuffer buffer = writeBuffer;
+		buffer.clear();
+		for (TdApi.Object object : objects) {
+			codec.write(buffer, object);
+		}
+		return buffer;
+	}
+
+	@Benchmark
+	public TdApi.Object read() {
+		ByteBuffer buffer = readBuffer;
+		buffer.rewind();
+		TdApi.Object last = null;
+		for (int i = 0; i < objects.length; i++) {
+			last = codec.read(buffer);
+		}
+		return last;
+	}
+}
@@ -0,0 +1,58 @@
+package it.tdlight.common;
+
+import it.tdlight.bench.SyntheticEvents;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * {@link TdApiEquality} and {@link TdApiCopy} over large objects: a chat with its last message, and a message with
+ * formatted text, forward and reply info and an inline keyboard. The objects are compared with a deep copy, so every
+ * field is visited.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TdApiObjectsBenchmark {
+
+	@Param({"chat", "message"})
+	public String type;
+
+	private TdApi.Object object;
+	private TdApi.Object copy;
+
+	@Setup
+	public void setup() {
+		if (type.equals("chat")) {
+			this.object = SyntheticEvents.largeChat(-1000000001L);
+		} else {
+			this.object = SyntheticEvents.largeMessage(-1000000001L, 1L << 40, 1);
+		}
+		this.copy = TdApiCopy.copy(object);
+		if (!TdApiEquality.equals(object, copy)) {
+			throw new IllegalStateException("The copy is different from the object");
+		}
+	}
+
+	@Benchmark
+	public boolean structuralEquals() {
+		return TdApiEquality.equals(object, copy);
+	}
+
+	@Benchmark
+	public int structuralHashCode() {
+		return TdApiEquality.hashCode(object);
+	}
+
+	@Benchmark
+	public TdApi.Object deepCopy() {
+		return TdApiCopy.copy(object);
+	}
+}
@@ -0,0 +1,87 @@
+package it.tdlight.common.capture;
+
+import it.tdlight.bench.SyntheticEvents;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost per event of the {@link EventsRecorder} on the receiving thread, with batches of {@link #BATCH_SIZE} updates of
+ * a realistic mix of types and the segments rotating, and of the {@link EventsLogReader} used by the replay.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventsLogBenchmark {
+
+	private static final int BATCH_SIZE = 100;
+	private static final long SEGMENT_SIZE = 16 << 20;
+	private static final int MAX_SEGMENTS = 4;
+
+	private final int[] clientIds = new int[BATCH_SIZE];
+	private final long[] eventIds = new long[BATCH_SIZE];
+	private TdApi.Object[] events;
+	private Path recordDirectory;
+	private Path readDirectory;
+	private EventsRecorder recorder;
+	private EventsLogReader reader;
+
+	@Setup
+	public void setup() throws IOException {
+		this.events = SyntheticEvents.updates(BATCH_SIZE, 42);
+		Arrays.fill(clientIds, 1);
+		this.recordDirectory = Files.createTempDirectory("tdlight-record");
+		this.recorder = EventsRecorder.create(recordDirectory, SEGMENT_SIZE, MAX_SEGMENTS);
+		this.readDirectory = Files.createTempDirectory("tdlight-read");
+		try (EventsRecorder readRecorder = EventsRecorder.create(readDirectory, SEGMENT_SIZE, 0)) {
+			for (int i = 0; i < 1000; i++) {
+				readRecorder.record(clientIds, eventIds, events, BATCH_SIZE);
+			}
+		}
+		this.reader = EventsLogReader.open(readDirectory);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		recorder.close();
+		delete(recordDirectory);
+		delete(readDirectory);
+	}
+
+	private static void delete(Path directory) throws IOException {
+		List<Path> segments = EventsLog.listSegments(directory);
+		for (Path segment : segments) {
+			Files.delete(segment);
+		}
+		Files.delete(directory);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void record() {
+		recorder.record(clientIds, eventIds, events, BATCH_SIZE);
+	}
+
+	@Benchmark
+	public void read(Blackhole blackhole) throws IOException {
+		if (!reader.next()) {
+			this.reader = EventsLogReader.open(readDirectory);
+			reader.next();
+		}
+		blackhole.consume(reader.getEvent());
+	}
+}
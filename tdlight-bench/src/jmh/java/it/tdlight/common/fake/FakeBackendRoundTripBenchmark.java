@@ -0,0 +1,69 @@
+package it.tdlight.common.fake;
+
+import it.tdlight.bench.SyntheticEvents;
+import it.tdlight.common.ResultHandler;
+import it.tdlight.common.internal.CommonClientManager;
+import it.tdlight.common.internal.InternalClient;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Requests sent through the whole Java stack, client, client manager, response receiver and dispatcher, on the
+ * {@link FakeClientBackend} instead of TDLib. Every operation sends {@link #REQUESTS} requests without waiting, then
+ * waits for all the responses, while each client receives {@link #updatesPerSecond} synthetic updates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FakeBackendRoundTripBenchmark {
+
+	private static final int REQUESTS = 100;
+
+	@Param({"0", "10000"})
+	public double updatesPerSecond;
+
+	private FakeClientBackend backend;
+	private InternalClient client;
+	private final LongAdder updates = new LongAdder();
+
+	@Setup(Level.Trial)
+	public void setup() {
+		this.backend = FakeClientBackend.create();
+		TdApi.Message message = SyntheticEvents.textMessage(1, 1, 1, "sent");
+		backend.setHandler(TdApi.SendMessage.class, (clientId, function) -> message);
+		TdApi.Object[] syntheticUpdates = SyntheticEvents.updates(1024, 42);
+		backend.setUpdates(updatesPerSecond, (clientId, sequence) -> syntheticUpdates[(int) (sequence & 1023)]);
+		CommonClientManager.setBackend(backend);
+		this.client = (InternalClient) CommonClientManager.create("bench");
+		client.initialize((ResultHandler) update -> updates.increment(), null, null);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		backend.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(REQUESTS)
+	public void sendMessages() throws InterruptedException {
+		CountDownLatch responses = new CountDownLatch(REQUESTS);
+		ResultHandler resultHandler = result -> responses.countDown();
+		for (int i = 0; i < REQUESTS; i++) {
+			client.send(new TdApi.SendMessage(1, 0, 0, null, null, null), resultHandler, null);
+		}
+		responses.await();
+	}
+}
@@ -0,0 +1,106 @@
+package it.tdlight.common.internal;
+
+import it.tdlight.bench.SyntheticEvents;
+import it.tdlight.common.ResultHandler;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Split of a mixed batch of responses and updates in {@link InternalClient#handleEvents}, compared with the previous
+ * implementation that removed every response from a copy of the batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HandleEventsBenchmark {
+
+	/**
+	 * One response every RESPONSES_RATIO events, the rest are updates
+	 */
+	private static final int RESPONSES_RATIO = 4;
+
+	@Param({"10", "100", "1000"})
+	public int batchSize;
+
+	private long[] eventIds;
+	private TdApi.Object[] events;
+	private InternalClient client;
+	private PendingRequests pendingRequests;
+	private Handler responseHandler;
+	private Blackhole blackhole;
+
+	@Setup
+	public void setup(Blackhole blackhole) throws ReflectiveOperationException {
+		this.blackhole = blackhole;
+		this.eventIds = new long[batchSize];
+		this.events = new TdApi.Object[batchSize];
+		SyntheticEvents.batch(eventIds, events, batchSize, RESPONSES_RATIO, 42);
+		ResultHandler resultHandler = blackhole::consume;
+		this.responseHandler = new Handler(resultHandler, null);
+
+		// The client is not initialized, the native library is not needed
+		this.client = new InternalClient(null);
+		setField(client, "updatesHandler", new MultiHandler(updates -> blackhole.consume(updates.size()), null));
+		this.pendingRequests = (PendingRequests) getField(client, "handlers");
+	}
+
+	@Benchmark
+	public void singlePassSplit() {
+		addPendingRequests();
+		client.handleEvents(false, eventIds, events, 0, batchSize);
+	}
+
+	@Benchmark
+	public void removeFromCopySplit() {
+		addPendingRequests();
+		LongArrayList idsToFilter = new LongArrayList(eventIds, 0, batchSize);
+		ObjectArrayList<TdApi.Object> eventsToFilter = new ObjectArrayList<>(events, 0, batchSize);
+
+		for (int i = batchSize - 1; i >= 0; i--) {
+			if (eventIds[i] != 0) {
+				idsToFilter.removeLong(i);
+				eventsToFilter.remove(i);
+
+				Handler handler = pendingRequests.remove(eventIds[i]);
+				handler.getResultHandler().onResult(events[i]);
+			}
+		}
+
+		consumeUpdates(eventsToFilter);
+	}
+
+	private void consumeUpdates(List<TdApi.Object> updates) {
+		blackhole.consume(updates.size());
+	}
+
+	private void addPendingRequests() {
+		for (int i = 0; i < batchSize; i += RESPONSES_RATIO) {
+			pendingRequests.put(eventIds[i], responseHandler);
+		}
+	}
+
+	private static void setField(Object instance, String name, Object value) throws ReflectiveOperationException {
+		Field field = instance.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(instance, value);
+	}
+
+	private static Object getField(Object instance, String name) throws ReflectiveOperationException {
+		Field field = instance.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(instance);
+	}
+}
@@ -0,0 +1,51 @@
+package it.tdlight.common.internal;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * {@link InternalClientManager#getNextQueryId()}, called once for every request sent by every client, alone and with
+ * four threads sending at the same time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueryIdBenchmark {
+
+	private InternalClientManager clientManager;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		// The constructor loads the native library and starts the receiver thread, skip it
+		Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+		Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+		unsafeField.setAccessible(true);
+		Object unsafe = unsafeField.get(null);
+		this.clientManager = (InternalClientManager) unsafeClass
+				.getMethod("allocateInstance", Class.class)
+				.invoke(unsafe, InternalClientManager.class);
+		Field currentQueryId = InternalClientManager.class.getDeclaredField("currentQueryId");
+		currentQueryId.setAccessible(true);
+		currentQueryId.set(clientManager, new AtomicLong());
+	}
+
+	@Benchmark
+	public long uncontended() {
+		return clientManager.getNextQueryId();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public long contended() {
+		return clientManager.getNextQueryId();
+	}
+}
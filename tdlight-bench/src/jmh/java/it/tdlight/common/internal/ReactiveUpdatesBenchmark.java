@@ -0,0 +1,110 @@
+package it.tdlight.common.internal;
+
+import it.tdlight.bench.SyntheticEvents;
+import it.tdlight.common.ReactiveItem;
+import it.tdlight.common.SubscriptionSettings;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Updates of a batch received from TDLib passed by {@link InternalReactiveClient} to a subscriber of
+ * {@link InternalReactiveClient#updates}, one item at a time, and to a subscriber of
+ * {@link InternalReactiveClient#updateBatches}, one batch at a time.
+ * <p>
+ * With {@code demand} "unbounded" the subscribers request everything once, with "one" they request the next item or
+ * batch after each one, like a subscriber that processes them one by one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReactiveUpdatesBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int batchSize;
+
+	@Param({"unbounded", "one"})
+	public String demand;
+
+	private long[] eventIds;
+	private TdApi.Object[] events;
+	private InternalReactiveClient itemsClient;
+	private InternalReactiveClient batchesClient;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		this.eventIds = new long[batchSize];
+		this.events = SyntheticEvents.updates(batchSize, 42);
+		boolean unbounded = "unbounded".equals(demand);
+
+		// The clients are not registered, the native library is not needed
+		this.itemsClient = new InternalReactiveClient(null);
+		itemsClient.updates(SubscriptionSettings.create()).subscribe(new ConsumingSubscriber<>(blackhole, unbounded));
+		this.batchesClient = new InternalReactiveClient(null);
+		batchesClient.updateBatches(SubscriptionSettings.create()).subscribe(new ConsumingSubscriber<>(blackhole, unbounded));
+	}
+
+	@Benchmark
+	public void items() {
+		itemsClient.handleEvents(false, eventIds, events, 0, batchSize);
+	}
+
+	@Benchmark
+	public void batches() {
+		batchesClient.handleEvents(false, eventIds, events, 0, batchSize);
+	}
+
+	@SuppressWarnings("ReactiveStreamsSubscriberImplementation")
+	private static final class ConsumingSubscriber<T> implements Subscriber<T> {
+
+		private final Blackhole blackhole;
+		private final boolean unbounded;
+		private Subscription subscription;
+
+		private ConsumingSubscriber(Blackhole blackhole, boolean unbounded) {
+			this.blackhole = blackhole;
+			this.unbounded = unbounded;
+		}
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(unbounded ? Long.MAX_VALUE : 1);
+		}
+
+		@Override
+		public void onNext(T item) {
+			if (item instanceof ReactiveItem) {
+				blackhole.consume(((ReactiveItem) item).getUpdate());
+			} else {
+				List<?> updates = (List<?>) item;
+				for (int i = 0; i < updates.size(); i++) {
+					blackhole.consume(updates.get(i));
+				}
+			}
+			if (!unbounded) {
+				subscription.request(1);
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			throw new IllegalStateException(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package it.tdlight.common.internal;
+
+import it.tdlight.bench.SyntheticEvents;
+import it.tdlight.common.EventsHandler;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Grouping by client of the batches received by the {@link ResponseReceiver}, with the optimized dispatcher and with
+ * the previous stream-based one, which is still selectable with {@code tdlight.dispatcher.use_optimized_dispatcher}.
+ * {@code priority_lanes} is the optimized dispatcher that also splits the events of each client by priority.
+ * <p>
+ * The events of a batch belong to {@link #clients} clients, in runs of random length like the real TDLib output.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResponseReceiverBenchmark {
+
+	private static final int RESPONSES_RATIO = 4;
+	private static final int MAX_RUN_LENGTH = 8;
+
+	@Param({"10", "100", "1000"})
+	public int batchSize;
+
+	@Param({"1", "10", "100"})
+	public int clients;
+
+	private int[] clientIds;
+	private long[] eventIds;
+	private TdApi.Object[] events;
+	private ClientEventsDispatcher dispatcher;
+	private ClientEventsDispatcher priorityLanesDispatcher;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		this.clientIds = new int[batchSize];
+		this.eventIds = new long[batchSize];
+		this.events = new TdApi.Object[batchSize];
+		SyntheticEvents.batch(eventIds, events, batchSize, RESPONSES_RATIO, 42);
+		Random random = new Random(42);
+		int i = 0;
+		while (i < batchSize) {
+			int clientId = 1 + random.nextInt(clients);
+			int runLength = 1 + random.nextInt(MAX_RUN_LENGTH);
+			for (int j = 0; j < runLength && i < batchSize; j++, i++) {
+				clientIds[i] = clientId;
+			}
+		}
+		EventsHandler eventsHandler = (clientId, isClosed, clientEventIds, clientEvents, offset, length) -> {
+			blackhole.consume(clientEvents[offset]);
+			blackhole.consume(length);
+		};
+		this.dispatcher = new ClientEventsDispatcher(eventsHandler, batchSize, false);
+		this.priorityLanesDispatcher = new ClientEventsDispatcher(eventsHandler, batchSize, true);
+	}
+
+	@Benchmark
+	public void optimized() {
+		dispatcher.dispatch(clientIds, eventIds, events, batchSize);
+	}
+
+	@Benchmark
+	public void priority_lanes() {
+		priorityLanesDispatcher.dispatch(clientIds, eventIds, events, batchSize);
+	}
+
+	@Benchmark
+	public void unoptimized() {
+		dispatcher.dispatchUnoptimized(clientIds, eventIds, events, batchSize);
+	}
+}
@@ -0,0 +1,104 @@
+package it.tdlight.common.utils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Cost of the request timeouts of the reactive clients: every operation schedules the timeout of a request, on the
+ * next client in round robin, and cancels it, like when the response arrives in time.
+ * <ul>
+ *   <li>{@code scheduled_executor} is the previous implementation, a single thread scheduled executor per client.</li>
+ *   <li>{@code hashed_wheel} is the timer shared by all the clients of the client manager.</li>
+ * </ul>
+ * The number of timer threads started by each configuration is reported as the {@code timerThreads} secondary result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestTimeoutBenchmark {
+
+	/**
+	 * Cancelled futures stay in the queue of a scheduled executor until their delay expires, a short timeout keeps the
+	 * queues of the previous implementation from growing for the whole trial
+	 */
+	private static final long TIMEOUT_MILLIS = 1000;
+
+	@Param({"1", "100", "1000"})
+	public int clients;
+
+	@Param({"scheduled_executor", "hashed_wheel"})
+	public String timer;
+
+	private ScheduledExecutorService[] executors;
+	private HashedWheelTimer wheelTimer;
+	private int nextClient;
+	private int timerThreads;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		int threadsBefore = Thread.activeCount();
+		switch (timer) {
+			case "scheduled_executor":
+				executors = new ScheduledExecutorService[clients];
+				for (int i = 0; i < clients; i++) {
+					executors[i] = Executors.newSingleThreadScheduledExecutor();
+					// The thread is started by the first request of the client
+					executors[i].schedule(() -> {}, 0, TimeUnit.MILLISECONDS).get();
+				}
+				break;
+			case "hashed_wheel":
+				wheelTimer = new HashedWheelTimer("TDLib timer", 10, TimeUnit.MILLISECONDS, 512);
+				break;
+			default:
+				throw new IllegalArgumentException(timer);
+		}
+		timerThreads = Thread.activeCount() - threadsBefore;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		if (executors != null) {
+			for (ScheduledExecutorService executor : executors) {
+				executor.shutdownNow();
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			}
+		}
+		if (wheelTimer != null) {
+			wheelTimer.close();
+		}
+	}
+
+	@Benchmark
+	public boolean scheduleAndCancel(TimerThreads timerThreads) {
+		timerThreads.timerThreads = this.timerThreads;
+		int client = nextClient;
+		nextClient = client + 1 == clients ? 0 : client + 1;
+		if (executors != null) {
+			ScheduledFuture<?> future = executors[client].schedule(() -> {}, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			return future.cancel(false);
+		} else {
+			return wheelTimer.schedule(() -> {}, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).cancel();
+		}
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class TimerThreads {
+
+		// JMH clears the counters before each iteration, so the benchmark sets it on every operation
+		public int timerThreads;
+	}
+}
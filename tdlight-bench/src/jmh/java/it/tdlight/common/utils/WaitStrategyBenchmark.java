@@ -0,0 +1,151 @@
+package it.tdlight.common.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Latency and CPU cost of the wait strategies.
+ * <p>
+ * A receiver thread runs the same loop as the response receiver, over a fake receive function backed by a queue.
+ * Every operation sends one event and waits until the receiver has seen it.
+ * <ul>
+ *   <li>{@link #latency()} sends the events back to back and samples the round trip time.</li>
+ *   <li>{@link #lowRate(CpuCounter)} sends one event every {@link #PAUSE_MICROS}, and reports the CPU used by the
+ *   receiver thread as {@code receiverCpuPercent}: the cost of waiting while the receiver is mostly idle.</li>
+ * </ul>
+ * Run it on a host with at least two free cores, otherwise the spinning strategies compete with the benchmark thread.
+ */
+@State(Scope.Benchmark)
+public class WaitStrategyBenchmark {
+
+	private static final long PAUSE_MICROS = 1000;
+
+	@Param({"blocking", "busy_spin", "yielding", "parking"})
+	public String strategy;
+
+	private final BlockingQueue<Long> queue = new ArrayBlockingQueue<>(1);
+	private volatile long lastReceived;
+	private volatile boolean running;
+	private Thread receiverThread;
+	private long sequence;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		WaitStrategy waitStrategy = createWaitStrategy(strategy);
+		running = true;
+		receiverThread = new Thread(() -> {
+			while (running) {
+				int eventsCount = receive(waitStrategy.getReceiveTimeout());
+				waitStrategy.onReceived(eventsCount);
+			}
+		}, "Fake TDLib thread");
+		receiverThread.setDaemon(true);
+		receiverThread.start();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		running = false;
+		receiverThread.interrupt();
+		receiverThread.join();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void latency() throws InterruptedException {
+		roundTrip();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void lowRate(CpuCounter cpuCounter) throws InterruptedException {
+		LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(PAUSE_MICROS));
+		roundTrip();
+	}
+
+	private void roundTrip() throws InterruptedException {
+		long event = ++sequence;
+		queue.put(event);
+		while (lastReceived != event) {
+			SpinWaitSupport.onSpinWait();
+		}
+	}
+
+	private int receive(double timeoutSeconds) {
+		Long event;
+		try {
+			if (timeoutSeconds > 0) {
+				event = queue.poll((long) (timeoutSeconds * 1_000_000_000L), TimeUnit.NANOSECONDS);
+			} else {
+				event = queue.poll();
+			}
+		} catch (InterruptedException e) {
+			return 0;
+		}
+		if (event == null) {
+			return 0;
+		}
+		lastReceived = event;
+		return 1;
+	}
+
+	private static WaitStrategy createWaitStrategy(String name) {
+		switch (name) {
+			case "blocking":
+				return WaitStrategy.blocking(2.0, 10.0);
+			case "busy_spin":
+				return WaitStrategy.busySpin();
+			case "yielding":
+				return WaitStrategy.yielding();
+			case "parking":
+				return WaitStrategy.parking(TimeUnit.MICROSECONDS.toNanos(50), TimeUnit.MILLISECONDS.toNanos(100));
+			default:
+				throw new IllegalArgumentException(name);
+		}
+	}
+
+	/**
+	 * Operations counters are divided by the iteration time, so adding the CPU time in percent-seconds reports the
+	 * average CPU usage of the receiver thread, in percent.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class CpuCounter {
+
+		private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		private long receiverThreadId;
+		private long cpuStart;
+
+		public double receiverCpuPercent;
+
+		@Setup(Level.Iteration)
+		public void start(WaitStrategyBenchmark benchmark) {
+			receiverThreadId = benchmark.receiverThread.getId();
+			cpuStart = threads.getThreadCpuTime(receiverThreadId);
+			receiverCpuPercent = 0;
+		}
+
+		@TearDown(Level.Iteration)
+		public void stop() {
+			long cpuNanos = threads.getThreadCpuTime(receiverThreadId) - cpuStart;
+			receiverCpuPercent = cpuNanos * 100.0 / TimeUnit.SECONDS.toNanos(1);
+		}
+	}
+}
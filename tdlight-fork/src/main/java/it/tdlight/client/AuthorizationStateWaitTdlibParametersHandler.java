@@ -27,22 +27,7 @@ final class AuthorizationStateWaitTdlibParametersHandler implements GenericUpdat
 	@Override
 	public void onUpdate(UpdateAuthorizationState update) {
 		if (update.authorizationState.getConstructor() == AuthorizationStateWaitTdlibParameters.CONSTRUCTOR) {
-			TdlibParameters params = new TdlibParameters();
-			params.useTestDc = settings.isUsingTestDatacenter();
-			params.databaseDirectory = settings.getDatabaseDirectoryPath().toString();
-			params.filesDirectory = settings.getDownloadedFilesDirectoryPath().toString();
-			params.useFileDatabase = settings.isFileDatabaseEnabled();
-			params.useChatInfoDatabase = settings.isChatInfoDatabaseEnabled();
-			params.useMessageDatabase = settings.isMessageDatabaseEnabled();
-			params.useSecretChats = false;
-			params.apiId = settings.getApiToken().getApiID();
-			params.apiHash = settings.getApiToken().getApiHash();
-			params.systemLanguageCode = settings.getSystemLanguageCode();
-			params.deviceModel = settings.getDeviceModel();
-			params.systemVersion = settings.getSystemVersion();
-			params.applicationVersion = settings.getApplicationVersion();
-			params.enableStorageOptimizer = settings.isStorageOptimizerEnabled();
-			params.ignoreFileNames = settings.isIgnoreFileNames();
+			TdlibParameters params = settings.toTdlibParameters();
 			client.send(new SetTdlibParameters(params), ok -> {
 				if (ok.getConstructor() == Error.CONSTRUCTOR) {
 					throw new TelegramError((Error) ok);
@@ -0,0 +1,40 @@
+package it.tdlight.client;
+
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Results of a batch of requests sent together.
+ * Each response is stored in the position of its request as soon as it arrives, the last one completes the future.
+ */
+final class BatchResults<T extends TdApi.Object> {
+
+	private final Result<T>[] results;
+	private final AtomicInteger remaining;
+	private final CompletableFuture<List<Result<T>>> future = new CompletableFuture<>();
+
+	BatchResults(int size) {
+		@SuppressWarnings("unchecked")
+		Result<T>[] results = (Result<T>[]) new Result<?>[size];
+		this.results = results;
+		this.remaining = new AtomicInteger(size);
+		if (size == 0) {
+			future.complete(Collections.emptyList());
+		}
+	}
+
+	public void set(int index, Result<T> result) {
+		results[index] = result;
+		if (remaining.decrementAndGet() == 0) {
+			future.complete(Collections.unmodifiableList(Arrays.asList(results)));
+		}
+	}
+
+	public CompletableFuture<List<Result<T>>> getFuture() {
+		return future;
+	}
+}
@@ -1,12 +1,16 @@
 package it.tdlight.client;
 
+import it.tdlight.common.ChatOrderedExecutor;
 import it.tdlight.common.ConstructorDetector;
 import it.tdlight.common.ExceptionHandler;
 import it.tdlight.common.Init;
 import it.tdlight.common.Log;
 import it.tdlight.common.ResultHandler;
 import it.tdlight.common.TelegramClient;
+import it.tdlight.common.UpdateKeys;
 import it.tdlight.common.internal.CommonClientManager;
+import it.tdlight.common.internal.RequestsCoalescer;
+import it.tdlight.common.state.CachingTelegramClient;
 import it.tdlight.common.utils.CantLoadLibrary;
 import it.tdlight.common.utils.LibraryVersion;
 
@@ -18,8 +22,11 @@ import org.drinkless.td.libcore.telegram.TdApi.User;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicReference;
@@ -45,13 +52,16 @@ public final class SimpleTelegramClient implements Authenticable {
 	}
 
 	private Client client = null;
+	private final ResultHandler updatesDispatcher;
+	private final CachingTelegramClient responseCache;
+	private final TelegramClient requestsClient;
+	private final RequestsCoalescer coalescer;
 	private ClientInteraction clientInteraction = new ScannerClientInteraction(this);
 	private final TDLibSettings settings;
 	private AuthenticationData authenticationData;
 
 	private final Map<String, Set<CommandHandler>> commandHandlers = new ConcurrentHashMap<>();
-	private final Set<ResultHandler> updateHandlers = new ConcurrentHashMap<ResultHandler, Object>()
-			.keySet(new Object());
+	private final UpdateHandlersTable updateHandlers = new UpdateHandlersTable();
 	private final Set<ExceptionHandler> updateExceptionHandlers = new ConcurrentHashMap<ExceptionHandler, Object>()
 			.keySet(new Object());
 	private final Set<ExceptionHandler> defaultExceptionHandlers = new ConcurrentHashMap<ExceptionHandler, Object>()
@@ -60,8 +70,43 @@ public final class SimpleTelegramClient implements Authenticable {
 	private final CountDownLatch closed = new CountDownLatch(1);
 
 	public SimpleTelegramClient(TDLibSettings settings) {
+		this(settings, null);
+	}
+
+	/**
+	 * Create a client that runs the update handlers on the lanes of the executor, instead of the TDLib thread.
+	 * The updates of the same chat are handled in order, the updates of different chats in parallel.
+	 * The executor can be shared by many clients and it's not closed by this client.
+	 *
+	 * @param updatesExecutor executor of the update handlers, or null to run them on the TDLib thread
+	 */
+	public SimpleTelegramClient(TDLibSettings settings, ChatOrderedExecutor updatesExecutor) {
 		this.settings = settings;
-		this.client = Client.create(this::handleUpdate, this::handleUpdateException, this::handleDefaultException);
+		if (updatesExecutor != null) {
+			ResultHandler updateHandler = this::handleUpdate;
+			ExceptionHandler updateExceptionHandler = this::handleUpdateException;
+			this.updatesDispatcher = update -> updatesExecutor.execute(update, updateHandler, updateExceptionHandler);
+		} else {
+			this.updatesDispatcher = this::handleUpdate;
+		}
+		if (settings.getResponseCacheSize() > 0) {
+			// The cache is updated on the TDLib thread, in order with the responses
+			this.client = Client.create(this::handleCachedUpdate, this::handleUpdateException, this::handleDefaultException);
+			this.responseCache = new CachingTelegramClient(client,
+					settings.getResponseCacheSize(),
+					this::handleDefaultException
+			);
+			this.requestsClient = responseCache;
+		} else {
+			this.client = Client.create(updatesDispatcher, this::handleUpdateException, this::handleDefaultException);
+			this.responseCache = null;
+			this.requestsClient = client;
+		}
+		if (settings.getRequestsCoalescing() != null) {
+			this.coalescer = new RequestsCoalescer(settings.getRequestsCoalescing(), this::handleDefaultException);
+		} else {
+			this.coalescer = null;
+		}
 		this.addUpdateHandler(TdApi.UpdateAuthorizationState.class,
 				new AuthorizationStateWaitTdlibParametersHandler(client, settings, this::handleDefaultException));
 		this.addUpdateHandler(TdApi.UpdateAuthorizationState.class,
@@ -82,8 +127,8 @@ public final class SimpleTelegramClient implements Authenticable {
 						this::handleDefaultException));
 		this.addUpdateHandler(TdApi.UpdateAuthorizationState.class, new AuthorizationStateWaitForExit(this.closed));
 		AtomicReference<User> me = new AtomicReference<>();
-		this.addUpdateHandler(TdApi.UpdateAuthorizationState.class, new AuthorizationStateReadyGetMe(client, me));
-		this.addUpdateHandler(TdApi.UpdateNewMessage.class, new CommandsHandler(client, this.commandHandlers, me));
+		this.addUpdateHandler(TdApi.UpdateAuthorizationState.class, new AuthorizationStateReadyGetMe(requestsClient, me));
+		this.addUpdateHandler(TdApi.UpdateNewMessage.class, new CommandsHandler(requestsClient, this.commandHandlers, me));
 	}
 
 	/**
@@ -108,14 +153,37 @@ public final class SimpleTelegramClient implements Authenticable {
 		}));
 	}
 
+	/**
+	 * Update the cached responses on the TDLib thread, in order with the responses, then dispatch the update
+	 */
+	private void handleCachedUpdate(TdApi.Object update) {
+		responseCache.onUpdate(update);
+		updatesDispatcher.onResult(update);
+	}
+
 	private void handleUpdate(TdApi.Object update) {
-		boolean handled = false;
-		for (ResultHandler updateHandler : updateHandlers) {
-			updateHandler.onResult(update);
-			handled = true;
-		}
-		if (!handled) {
+		if (updateHandlers.isEmpty()) {
 			logger.warn("An update was not handled, please use addUpdateHandler(handler) before starting the client!");
+			return;
+		}
+		for (GenericUpdateHandler<TdApi.Update> updateHandler : updateHandlers.getTypedHandlers(update.getConstructor())) {
+			updateHandler.onUpdate((TdApi.Update) update);
+		}
+		GenericUpdateHandler<TdApi.Update>[] genericHandlers = updateHandlers.getGenericHandlers();
+		if (genericHandlers.length > 0) {
+			if (update instanceof TdApi.Update) {
+				for (GenericUpdateHandler<TdApi.Update> updateHandler : genericHandlers) {
+					updateHandler.onUpdate((TdApi.Update) update);
+				}
+			} else {
+				logger.warn("Unknown update type: ".concat(update.toString()));
+			}
+		}
+		for (GenericUpdateHandler<TdApi.Update> updateHandler : updateHandlers.getChatHandlers(update)) {
+			updateHandler.onUpdate((TdApi.Update) update);
+		}
+		for (GenericUpdateHandler<TdApi.Update> updateHandler : updateHandlers.getUserHandlers(update)) {
+			updateHandler.onUpdate((TdApi.Update) update);
 		}
 	}
 
@@ -156,24 +224,79 @@ public final class SimpleTelegramClient implements Authenticable {
 		handlers.add(handler);
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Add a handler that receives only the updates of the specified type.
+	 * Handlers can be added and removed at any time, also while the client is running.
+	 */
 	public <T extends TdApi.Update> void addUpdateHandler(Class<T> updateType, GenericUpdateHandler<T> handler) {
-		int updateConstructor = ConstructorDetector.getConstructor(updateType);
-		this.updateHandlers.add(update -> {
-			if (update.getConstructor() == updateConstructor) {
-				handler.onUpdate((T) update);
-			}
-		});
+		this.updateHandlers.addTypedHandler(ConstructorDetector.getConstructor(updateType), handler);
 	}
 
+	/**
+	 * Remove a handler added with {@link #addUpdateHandler(Class, GenericUpdateHandler)}
+	 *
+	 * @return true if the handler was registered
+	 */
+	public <T extends TdApi.Update> boolean removeUpdateHandler(Class<T> updateType, GenericUpdateHandler<T> handler) {
+		return this.updateHandlers.removeTypedHandler(ConstructorDetector.getConstructor(updateType), handler);
+	}
+
+	/**
+	 * Add a handler that receives every update
+	 */
 	public void addUpdatesHandler(GenericUpdateHandler<TdApi.Update> handler) {
-		this.updateHandlers.add(update -> {
-			if (update instanceof TdApi.Update) {
-				handler.onUpdate((TdApi.Update) update);
-			} else {
-				logger.warn("Unknown update type: ".concat(update.toString()));
-			}
-		});
+		this.updateHandlers.addGenericHandler(handler);
+	}
+
+	/**
+	 * Remove a handler added with {@link #addUpdatesHandler(GenericUpdateHandler)}
+	 *
+	 * @return true if the handler was registered
+	 */
+	public boolean removeUpdatesHandler(GenericUpdateHandler<TdApi.Update> handler) {
+		return this.updateHandlers.removeGenericHandler(handler);
+	}
+
+	/**
+	 * Add a handler that receives only the updates of a chat, like new messages, chat actions and changes of the chat.
+	 * The updates are routed by the chat ids read by {@link UpdateKeys#getChatId(TdApi.Object)}, so the handlers of
+	 * the other chats are never called.
+	 */
+	public void addChatUpdatesHandler(long chatId, GenericUpdateHandler<TdApi.Update> handler) {
+		this.updateHandlers.addChatHandler(chatId, handler);
+	}
+
+	/**
+	 * Remove a handler added with {@link #addChatUpdatesHandler(long, GenericUpdateHandler)}
+	 *
+	 * @return true if the handler was registered
+	 */
+	public boolean removeChatUpdatesHandler(long chatId, GenericUpdateHandler<TdApi.Update> handler) {
+		return this.updateHandlers.removeChatHandler(chatId, handler);
+	}
+
+	/**
+	 * Add a handler that receives only the updates of a user, like status changes and queries sent by the user.
+	 * The updates are routed by the user ids read by {@link UpdateKeys#getUserId(TdApi.Object)}.
+	 */
+	public void addUserUpdatesHandler(long userId, GenericUpdateHandler<TdApi.Update> handler) {
+		this.updateHandlers.addUserHandler(userId, handler);
+	}
+
+	/**
+	 * Remove a handler added with {@link #addUserUpdatesHandler(long, GenericUpdateHandler)}
+	 *
+	 * @return true if the handler was registered
+	 */
+	public boolean removeUserUpdatesHandler(long userId, GenericUpdateHandler<TdApi.Update> handler) {
+		return this.updateHandlers.removeUserHandler(userId, handler);
+	}
+
+	/**
+	 * @return the cache of the responses, or null if it's disabled, see {@link TDLibSettings#setResponseCacheSize(int)}
+	 */
+	public CachingTelegramClient getResponseCache() {
+		return responseCache;
 	}
 
 	/**
@@ -207,7 +330,81 @@ public final class SimpleTelegramClient implements Authenticable {
 	 * Send a function and get the result
 	 */
 	public <T extends TdApi.Object> void send(TdApi.Function function, GenericResultHandler<T> resultHandler) {
-		client.send(function, resultHandler::onResult, resultHandler::onErrorResult);
+		sendRequest(function, resultHandler::onResult, resultHandler::onErrorResult, null);
+	}
+
+	/**
+	 * Send a function and get the result asynchronously.
+	 * The future completes on the TDLib thread: use the async methods of the future to run heavy work elsewhere.
+	 *
+	 * @return a future that completes with the result, or exceptionally with a {@link TelegramError}
+	 */
+	public <T extends TdApi.Object> CompletableFuture<T> sendAsync(TdApi.Function function) {
+		return sendAsync(function, null);
+	}
+
+	/**
+	 * Send a function and get the result asynchronously, failing with a {@link TelegramError} with code 408 if the
+	 * response doesn't arrive in time
+	 *
+	 * @param timeout maximum time to wait for the response, or null to wait forever
+	 * @see #sendAsync(Function)
+	 */
+	public <T extends TdApi.Object> CompletableFuture<T> sendAsync(TdApi.Function function, Duration timeout) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		sendRequest(function, response -> {
+			Result<T> result = Result.of(response);
+			if (result.isError()) {
+				future.completeExceptionally(new TelegramError(result.getError()));
+			} else {
+				future.complete(result.get());
+			}
+		}, future::completeExceptionally, timeout);
+		return future;
+	}
+
+	/**
+	 * Send all the functions without waiting for the responses, so TDLib can process them concurrently.
+	 * The future completes on the TDLib thread when the last response arrives.
+	 *
+	 * @return a future that completes with the results in the same order of the functions, errors included
+	 */
+	public <T extends TdApi.Object> CompletableFuture<List<Result<T>>> sendAll(List<? extends TdApi.Function> functions) {
+		return sendAll(functions, null);
+	}
+
+	/**
+	 * Send all the functions without waiting for the responses, each response that doesn't arrive in time is replaced
+	 * by an error with code 408
+	 *
+	 * @param timeout maximum time to wait for each response, or null to wait forever
+	 * @see #sendAll(List)
+	 */
+	public <T extends TdApi.Object> CompletableFuture<List<Result<T>>> sendAll(List<? extends TdApi.Function> functions,
+			Duration timeout) {
+		BatchResults<T> batch = new BatchResults<>(functions.size());
+		for (int i = 0; i < functions.size(); i++) {
+			int index = i;
+			sendRequest(functions.get(i),
+					response -> batch.set(index, Result.of(response)),
+					ex -> batch.set(index, Result.ofError(ex)),
+					timeout
+			);
+		}
+		return batch.getFuture();
+	}
+
+	private void sendRequest(TdApi.Function function,
+			ResultHandler resultHandler,
+			ExceptionHandler exceptionHandler,
+			Duration timeout) {
+		if (coalescer != null && coalescer.isCoalesced(function, resultHandler, timeout)) {
+			resultHandler = coalescer.join(function, resultHandler, exceptionHandler);
+			if (resultHandler == null) {
+				return;
+			}
+		}
+		requestsClient.send(function, resultHandler, exceptionHandler, timeout);
 	}
 
 	/**
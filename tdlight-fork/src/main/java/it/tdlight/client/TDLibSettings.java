@@ -6,7 +6,10 @@ import java.util.Locale;
 import java.util.Objects;
 import java.util.StringJoiner;
 
+import it.tdlight.common.RequestsCoalescing;
+import it.tdlight.common.state.CachingTelegramClient;
 import it.tdlight.common.utils.LibraryVersion;
+import org.drinkless.td.libcore.telegram.TdApi;
 
 @SuppressWarnings("unused")
 public final class TDLibSettings {
@@ -32,6 +35,8 @@ public final class TDLibSettings {
     private String applicationVersion;
     private boolean enableStorageOptimizer;
     private boolean ignoreFileNames;
+    private int responseCacheSize;
+    private RequestsCoalescing requestsCoalescing;
 
     private TDLibSettings(boolean useTestDatacenter,
                           Path databaseDirectoryPath,
@@ -182,6 +187,58 @@ public final class TDLibSettings {
         this.ignoreFileNames = ignoreFileNames;
     }
 
+    public int getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    /**
+     * Cache the responses of the getters of chats, users and groups, see {@link CachingTelegramClient}
+     *
+     * @param responseCacheSize maximum number of cached responses, or 0 to disable the cache
+     */
+    public void setResponseCacheSize(int responseCacheSize) {
+        if (responseCacheSize < 0) {
+            throw new IllegalArgumentException("Response cache size must not be negative");
+        }
+        this.responseCacheSize = responseCacheSize;
+    }
+
+    public RequestsCoalescing getRequestsCoalescing() {
+        return requestsCoalescing;
+    }
+
+    /**
+     * Send only once the identical requests in flight, see {@link RequestsCoalescing}
+     *
+     * @param requestsCoalescing coalescing settings, or null to send every request
+     */
+    public void setRequestsCoalescing(RequestsCoalescing requestsCoalescing) {
+        this.requestsCoalescing = requestsCoalescing;
+    }
+
+    /**
+     * @return the TDLib parameters for these settings, secret chats are always disabled
+     */
+    public TdApi.TdlibParameters toTdlibParameters() {
+        TdApi.TdlibParameters params = new TdApi.TdlibParameters();
+        params.useTestDc = useTestDatacenter;
+        params.databaseDirectory = databaseDirectoryPath.toString();
+        params.filesDirectory = downloadedFilesDirectoryPath.toString();
+        params.useFileDatabase = fileDatabaseEnabled;
+        params.useChatInfoDatabase = chatInfoDatabaseEnabled;
+        params.useMessageDatabase = messageDatabaseEnabled;
+        params.useSecretChats = false;
+        params.apiId = apiToken.getApiID();
+        params.apiHash = apiToken.getApiHash();
+        params.systemLanguageCode = systemLanguageCode;
+        params.deviceModel = deviceModel;
+        params.systemVersion = systemVersion;
+        params.applicationVersion = applicationVersion;
+        params.enableStorageOptimizer = enableStorageOptimizer;
+        params.ignoreFileNames = ignoreFileNames;
+        return params;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -195,6 +252,8 @@ public final class TDLibSettings {
                 && chatInfoDatabaseEnabled == that.chatInfoDatabaseEnabled
                 && messageDatabaseEnabled == that.messageDatabaseEnabled
                 && enableStorageOptimizer == that.enableStorageOptimizer && ignoreFileNames == that.ignoreFileNames
+                && responseCacheSize == that.responseCacheSize
+                && Objects.equals(requestsCoalescing, that.requestsCoalescing)
                 && Objects.equals(databaseDirectoryPath, that.databaseDirectoryPath) && Objects.equals(
                 downloadedFilesDirectoryPath,
                 that.downloadedFilesDirectoryPath
@@ -216,7 +275,9 @@ public final class TDLibSettings {
                 systemVersion,
                 applicationVersion,
                 enableStorageOptimizer,
-                ignoreFileNames
+                ignoreFileNames,
+                responseCacheSize,
+                requestsCoalescing
         );
     }
 
@@ -236,6 +297,8 @@ public final class TDLibSettings {
                 .add("applicationVersion='" + applicationVersion + "'")
                 .add("enableStorageOptimizer=" + enableStorageOptimizer)
                 .add("ignoreFileNames=" + ignoreFileNames)
+                .add("responseCacheSize=" + responseCacheSize)
+                .add("requestsCoalescing=" + requestsCoalescing)
                 .toString();
     }
 }
@@ -0,0 +1,218 @@
+package it.tdlight.client;
+
+import it.tdlight.common.UpdateKeys;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Update handlers indexed by update constructor, plus the handlers that receive every update.
+ * <p>
+ * Both tables are immutable snapshots replaced with a compare-and-set on every change: dispatching an update is a
+ * single lookup without locks, and handlers can be added or removed at any time, even while updates are dispatched.
+ * <p>
+ * The handlers of a chat or of a user are indexed by its id, see {@link UpdateKeys}. These indexes can hold many
+ * thousands of keys, so they are split in stripes and only the snapshot of the stripe of the changed key is replaced.
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+final class UpdateHandlersTable {
+
+	private static final GenericUpdateHandler[] NO_HANDLERS = new GenericUpdateHandler[0];
+	private static final int KEY_STRIPES = 64;
+
+	private final AtomicReference<Int2ObjectMap<GenericUpdateHandler[]>> typedHandlers
+			= new AtomicReference<>(new Int2ObjectOpenHashMap<>());
+	private final AtomicReference<GenericUpdateHandler[]> genericHandlers = new AtomicReference<>(NO_HANDLERS);
+	private final KeyedHandlers chatHandlers = new KeyedHandlers();
+	private final KeyedHandlers userHandlers = new KeyedHandlers();
+
+	public void addTypedHandler(int updateConstructor, GenericUpdateHandler<?> handler) {
+		typedHandlers.updateAndGet(table -> {
+			Int2ObjectOpenHashMap<GenericUpdateHandler[]> newTable = new Int2ObjectOpenHashMap<>(table);
+			newTable.put(updateConstructor, append(table.getOrDefault(updateConstructor, NO_HANDLERS), handler));
+			return newTable;
+		});
+	}
+
+	public boolean removeTypedHandler(int updateConstructor, GenericUpdateHandler<?> handler) {
+		Int2ObjectMap<GenericUpdateHandler[]> previous = typedHandlers.getAndUpdate(table -> {
+			GenericUpdateHandler[] handlers = table.getOrDefault(updateConstructor, NO_HANDLERS);
+			GenericUpdateHandler[] newHandlers = remove(handlers, handler);
+			if (newHandlers == handlers) {
+				return table;
+			}
+			Int2ObjectOpenHashMap<GenericUpdateHandler[]> newTable = new Int2ObjectOpenHashMap<>(table);
+			if (newHandlers.length == 0) {
+				newTable.remove(updateConstructor);
+			} else {
+				newTable.put(updateConstructor, newHandlers);
+			}
+			return newTable;
+		});
+		return indexOf(previous.getOrDefault(updateConstructor, NO_HANDLERS), handler) != -1;
+	}
+
+	public void addGenericHandler(GenericUpdateHandler<TdApi.Update> handler) {
+		genericHandlers.updateAndGet(handlers -> append(handlers, handler));
+	}
+
+	public boolean removeGenericHandler(GenericUpdateHandler<TdApi.Update> handler) {
+		return indexOf(genericHandlers.getAndUpdate(handlers -> remove(handlers, handler)), handler) != -1;
+	}
+
+	public void addChatHandler(long chatId, GenericUpdateHandler<TdApi.Update> handler) {
+		chatHandlers.add(chatId, handler);
+	}
+
+	public boolean removeChatHandler(long chatId, GenericUpdateHandler<TdApi.Update> handler) {
+		return chatHandlers.remove(chatId, handler);
+	}
+
+	public void addUserHandler(long userId, GenericUpdateHandler<TdApi.Update> handler) {
+		userHandlers.add(userId, handler);
+	}
+
+	public boolean removeUserHandler(long userId, GenericUpdateHandler<TdApi.Update> handler) {
+		return userHandlers.remove(userId, handler);
+	}
+
+	/**
+	 * @return the handlers registered for this update constructor, don't modify the returned array
+	 */
+	public GenericUpdateHandler<TdApi.Update>[] getTypedHandlers(int updateConstructor) {
+		return typedHandlers.get().getOrDefault(updateConstructor, NO_HANDLERS);
+	}
+
+	/**
+	 * @return the handlers that receive every update, don't modify the returned array
+	 */
+	public GenericUpdateHandler<TdApi.Update>[] getGenericHandlers() {
+		return genericHandlers.get();
+	}
+
+	/**
+	 * @return the handlers registered for the chat of the update, don't modify the returned array
+	 */
+	public GenericUpdateHandler<TdApi.Update>[] getChatHandlers(TdApi.Object update) {
+		if (chatHandlers.isEmpty()) {
+			return NO_HANDLERS;
+		}
+		long chatId = UpdateKeys.getChatId(update);
+		return chatId == UpdateKeys.NO_CHAT ? NO_HANDLERS : chatHandlers.get(chatId);
+	}
+
+	/**
+	 * @return the handlers registered for the user of the update, don't modify the returned array
+	 */
+	public GenericUpdateHandler<TdApi.Update>[] getUserHandlers(TdApi.Object update) {
+		if (userHandlers.isEmpty()) {
+			return NO_HANDLERS;
+		}
+		long userId = UpdateKeys.getUserId(update);
+		return userId == UpdateKeys.NO_USER ? NO_HANDLERS : userHandlers.get(userId);
+	}
+
+	public boolean isEmpty() {
+		return typedHandlers.get().isEmpty() && genericHandlers.get().length == 0 && chatHandlers.isEmpty()
+				&& userHandlers.isEmpty();
+	}
+
+	private static GenericUpdateHandler[] append(GenericUpdateHandler[] handlers, GenericUpdateHandler<?> handler) {
+		GenericUpdateHandler[] newHandlers = Arrays.copyOf(handlers, handlers.length + 1);
+		newHandlers[handlers.length] = handler;
+		return newHandlers;
+	}
+
+	/**
+	 * @return a copy without the first occurrence of the handler, or the same array if the handler is not present
+	 */
+	private static GenericUpdateHandler[] remove(GenericUpdateHandler[] handlers, GenericUpdateHandler<?> handler) {
+		int index = indexOf(handlers, handler);
+		if (index == -1) {
+			return handlers;
+		}
+		GenericUpdateHandler[] newHandlers = new GenericUpdateHandler[handlers.length - 1];
+		System.arraycopy(handlers, 0, newHandlers, 0, index);
+		System.arraycopy(handlers, index + 1, newHandlers, index, handlers.length - index - 1);
+		return newHandlers;
+	}
+
+	private static int indexOf(GenericUpdateHandler[] handlers, GenericUpdateHandler<?> handler) {
+		for (int i = 0; i < handlers.length; i++) {
+			if (handlers[i] == handler) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Handlers indexed by a chat or user id, without boxing the ids
+	 */
+	private static final class KeyedHandlers {
+
+		private final AtomicReferenceArray<Long2ObjectOpenHashMap<GenericUpdateHandler[]>> stripes
+				= new AtomicReferenceArray<>(KEY_STRIPES);
+		private final AtomicInteger keys = new AtomicInteger();
+
+		private KeyedHandlers() {
+			for (int i = 0; i < KEY_STRIPES; i++) {
+				stripes.set(i, new Long2ObjectOpenHashMap<>());
+			}
+		}
+
+		public GenericUpdateHandler[] get(long key) {
+			return stripes.get(stripe(key)).getOrDefault(key, NO_HANDLERS);
+		}
+
+		public void add(long key, GenericUpdateHandler<?> handler) {
+			Long2ObjectOpenHashMap<GenericUpdateHandler[]> previous = stripes.getAndUpdate(stripe(key), stripe -> {
+				Long2ObjectOpenHashMap<GenericUpdateHandler[]> newStripe = new Long2ObjectOpenHashMap<>(stripe);
+				newStripe.put(key, append(stripe.getOrDefault(key, NO_HANDLERS), handler));
+				return newStripe;
+			});
+			if (!previous.containsKey(key)) {
+				keys.incrementAndGet();
+			}
+		}
+
+		public boolean remove(long key, GenericUpdateHandler<?> handler) {
+			Long2ObjectOpenHashMap<GenericUpdateHandler[]> previous = stripes.getAndUpdate(stripe(key), stripe -> {
+				GenericUpdateHandler[] handlers = stripe.getOrDefault(key, NO_HANDLERS);
+				GenericUpdateHandler[] newHandlers = UpdateHandlersTable.remove(handlers, handler);
+				if (newHandlers == handlers) {
+					return stripe;
+				}
+				Long2ObjectOpenHashMap<GenericUpdateHandler[]> newStripe = new Long2ObjectOpenHashMap<>(stripe);
+				if (newHandlers.length == 0) {
+					newStripe.remove(key);
+				} else {
+					newStripe.put(key, newHandlers);
+				}
+				return newStripe;
+			});
+			GenericUpdateHandler[] previousHandlers = previous.getOrDefault(key, NO_HANDLERS);
+			if (indexOf(previousHandlers, handler) == -1) {
+				return false;
+			}
+			if (previousHandlers.length == 1) {
+				keys.decrementAndGet();
+			}
+			return true;
+		}
+
+		public boolean isEmpty() {
+			return keys.get() == 0;
+		}
+
+		private static int stripe(long key) {
+			return HashCommon.mix(Long.hashCode(key)) & (KEY_STRIPES - 1);
+		}
+	}
+}
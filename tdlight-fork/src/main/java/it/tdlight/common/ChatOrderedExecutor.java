@@ -0,0 +1,217 @@
+package it.tdlight.common;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the update handlers on a fixed set of worker threads, called lanes, instead of the TDLib thread.
+ * <p>
+ * Each update is assigned to a lane by its chat id, see {@link UpdateKeys#getChatId(TdApi.Object)}: the updates of
+ * the same chat are always handled in order, by the same lane, while the updates of different chats are handled in
+ * parallel. The updates that don't belong to a chat are handled in order by the same lane, but they are not ordered
+ * with the updates of the chats.
+ * <p>
+ * Each lane has a bounded queue. When a queue is full the {@link BackpressurePolicy} decides what happens to the new
+ * update. With {@link BackpressurePolicy#BLOCK} the TDLib thread waits for the lane, so a handler running on a lane
+ * must never wait for a response of a client that uses the same executor.
+ * <p>
+ * An executor can be shared by many clients, it must be closed by its owner after the clients have been closed.
+ */
+public final class ChatOrderedExecutor implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ChatOrderedExecutor.class);
+
+	private static final int DEFAULT_LANE_CAPACITY = 1024;
+
+	public enum BackpressurePolicy {
+		/**
+		 * Wait until the lane has room for the update, slowing down the TDLib thread
+		 */
+		BLOCK,
+		/**
+		 * Drop the update, see {@link #getDroppedUpdates()}
+		 */
+		DROP,
+		/**
+		 * Throw a {@link RejectedExecutionException}, which is passed to the update exception handler
+		 */
+		REJECT
+	}
+
+	private final Lane[] lanes;
+	private final BackpressurePolicy backpressurePolicy;
+	private final LongAdder droppedUpdates = new LongAdder();
+	private volatile boolean closed;
+
+	/**
+	 * @param lanesCount number of worker threads
+	 * @param laneCapacity maximum number of updates waiting in each lane
+	 * @param backpressurePolicy what to do when a lane is full
+	 */
+	public ChatOrderedExecutor(int lanesCount, int laneCapacity, BackpressurePolicy backpressurePolicy) {
+		if (lanesCount <= 0) {
+			throw new IllegalArgumentException("Lanes count must be greater than 0");
+		}
+		if (laneCapacity <= 0) {
+			throw new IllegalArgumentException("Lane capacity must be greater than 0");
+		}
+		this.backpressurePolicy = backpressurePolicy;
+		this.lanes = new Lane[lanesCount];
+		for (int i = 0; i < lanesCount; i++) {
+			lanes[i] = new Lane(i, laneCapacity);
+		}
+		for (Lane lane : lanes) {
+			lane.start();
+		}
+	}
+
+	/**
+	 * Create an executor with a lane for each processor, which blocks the TDLib thread when a lane is full
+	 */
+	public static ChatOrderedExecutor create() {
+		return new ChatOrderedExecutor(Runtime.getRuntime().availableProcessors(),
+				DEFAULT_LANE_CAPACITY,
+				BackpressurePolicy.BLOCK
+		);
+	}
+
+	/**
+	 * Queue an update in the lane of its chat
+	 *
+	 * @param update the update
+	 * @param updateHandler handler called on the lane
+	 * @param exceptionHandler handler of the exceptions thrown by the update handler
+	 * @throws RejectedExecutionException if the executor is closed, or if the lane is full and the policy is
+	 *                                    {@link BackpressurePolicy#REJECT}
+	 */
+	public void execute(TdApi.Object update, ResultHandler updateHandler, ExceptionHandler exceptionHandler) {
+		if (closed) {
+			throw new RejectedExecutionException("The executor is closed");
+		}
+		Lane lane = lanes[laneIndex(UpdateKeys.getChatId(update))];
+		Task task = new Task(update, updateHandler, exceptionHandler);
+		switch (backpressurePolicy) {
+			case BLOCK:
+				try {
+					lane.queue.put(task);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RejectedExecutionException("Interrupted while waiting for lane " + lane.index, e);
+				}
+				break;
+			case DROP:
+				if (!lane.queue.offer(task)) {
+					droppedUpdates.increment();
+					logger.trace("Lane {} is full, dropped update {}", lane.index, update);
+				}
+				break;
+			case REJECT:
+				if (!lane.queue.offer(task)) {
+					throw new RejectedExecutionException("Lane " + lane.index + " is full");
+				}
+				break;
+			default:
+				throw new IllegalStateException("Unknown backpressure policy: " + backpressurePolicy);
+		}
+	}
+
+	private int laneIndex(long chatId) {
+		return (int) ((HashCommon.mix(chatId) & Long.MAX_VALUE) % lanes.length);
+	}
+
+	public int getLanesCount() {
+		return lanes.length;
+	}
+
+	/**
+	 * @return number of updates dropped because their lane was full, only with {@link BackpressurePolicy#DROP}
+	 */
+	public long getDroppedUpdates() {
+		return droppedUpdates.sum();
+	}
+
+	/**
+	 * @return number of updates waiting in the lanes
+	 */
+	public int getQueuedUpdates() {
+		int queued = 0;
+		for (Lane lane : lanes) {
+			queued += lane.queue.size();
+		}
+		return queued;
+	}
+
+	/**
+	 * Stop accepting updates and wait until the lanes have handled the updates already queued
+	 */
+	@Override
+	public void close() throws InterruptedException {
+		closed = true;
+		for (Lane lane : lanes) {
+			lane.queue.put(Task.STOP);
+		}
+		for (Lane lane : lanes) {
+			lane.join();
+		}
+	}
+
+	private static final class Task {
+
+		private static final Task STOP = new Task(null, null, null);
+
+		private final TdApi.Object update;
+		private final ResultHandler updateHandler;
+		private final ExceptionHandler exceptionHandler;
+
+		private Task(TdApi.Object update, ResultHandler updateHandler, ExceptionHandler exceptionHandler) {
+			this.update = update;
+			this.updateHandler = updateHandler;
+			this.exceptionHandler = exceptionHandler;
+		}
+	}
+
+	private static final class Lane extends Thread {
+
+		private final int index;
+		private final BlockingQueue<Task> queue;
+
+		private Lane(int index, int capacity) {
+			super("TDLib updates lane " + index);
+			this.index = index;
+			this.queue = new ArrayBlockingQueue<>(capacity);
+			this.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				Task task;
+				while ((task = queue.take()) != Task.STOP) {
+					try {
+						task.updateHandler.onResult(task.update);
+					} catch (Throwable cause) {
+						handleException(task, cause);
+					}
+				}
+			} catch (InterruptedException e) {
+				logger.warn("Lane {} interrupted, the queued updates have been dropped", index);
+			}
+		}
+
+		private static void handleException(Task task, Throwable cause) {
+			if (task.exceptionHandler != null) {
+				try {
+					task.exceptionHandler.onException(cause);
+				} catch (Throwable ignored) {}
+			} else {
+				logger.error("Unhandled exception in update handler", cause);
+			}
+		}
+	}
+}
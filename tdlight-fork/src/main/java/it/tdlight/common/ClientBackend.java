@@ -0,0 +1,43 @@
+package it.tdlight.common;
+
+import it.tdlight.common.utils.CantLoadLibrary;
+import org.drinkless.td.libcore.telegram.TdApi;
+
+/**
+ * Backend that runs the TDLib clients created by the client manager.
+ * <p>
+ * The default backend is the native TDLib library. Another backend can be selected, before the first client is
+ * created, with {@link it.tdlight.common.internal.CommonClientManager#setBackend(ClientBackend)}, with the system
+ * property {@code tdlight.backend} set to the name of a class with a public no-arguments constructor, or by
+ * registering an implementation with {@link java.util.ServiceLoader}.
+ */
+public interface ClientBackend {
+
+	/**
+	 * Called once, when the client manager is created, before any other method
+	 */
+	void start() throws CantLoadLibrary;
+
+	/**
+	 * @return the id of a new client
+	 */
+	int createClient();
+
+	/**
+	 * Send a function to a client, the response will be received with the same event id
+	 */
+	void send(int clientId, long eventId, TdApi.Function function);
+
+	/**
+	 * Wait for the events of all the clients and fill the arrays with them
+	 *
+	 * @param timeout maximum time to wait, in seconds
+	 * @return the number of events received
+	 */
+	int receive(int[] clientIds, long[] eventIds, TdApi.Object[] events, double timeout);
+
+	/**
+	 * Execute a synchronous function
+	 */
+	TdApi.Object execute(TdApi.Function function);
+}
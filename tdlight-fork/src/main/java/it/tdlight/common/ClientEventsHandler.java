@@ -6,5 +6,10 @@ public interface ClientEventsHandler {
 
 	int getClientId();
 
-	void handleEvents(boolean isClosed, long[] eventIds, Object[] events);
+	/**
+	 * Handle the events received for this client.
+	 * The arrays are reused by the caller, only the range [arrayOffset, arrayOffset + arrayLength) is valid and only
+	 * until this method returns.
+	 */
+	void handleEvents(boolean isClosed, long[] eventIds, Object[] events, int arrayOffset, int arrayLength);
 }
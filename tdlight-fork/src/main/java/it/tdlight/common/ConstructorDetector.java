@@ -18,14 +18,13 @@
 package it.tdlight.common;
 
 import org.drinkless.td.libcore.telegram.TdApi;
-import java.lang.reflect.Field;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Identify the class by using the Constructor.
+ * <p>
+ * The table is generated at build time from TdApi.java (see {@code ConstructorRegistry}), so the TdApi classes are
+ * never scanned and each one is loaded only when it's requested for the first time.
  */
-@SuppressWarnings("rawtypes")
 public final class ConstructorDetector {
 
 	static {
@@ -37,19 +36,11 @@ public final class ConstructorDetector {
 		}
 	}
 
-	private static ConcurrentHashMap<Integer, Class> constructorHashMap;
-	private static ConcurrentHashMap<Class, Integer> constructorHashMapInverse;
-
 	/**
 	 * Initialize the ConstructorDetector, it is called from the Init class.
+	 * The table is generated at build time, so there is nothing left to initialize.
 	 */
 	public static void init() {
-		if (constructorHashMap != null) {
-			return;
-		}
-
-		Class[] classes = TdApi.class.getDeclaredClasses();
-		setConstructorHashMap(classes);
 	}
 
 	/**
@@ -58,8 +49,8 @@ public final class ConstructorDetector {
 	 * @param CONSTRUCTOR CONSTRUCTOR of the Tdlib API.
 	 * @return The class related to CONSTRUCTOR.
 	 */
-	public static Class getClass(int CONSTRUCTOR) {
-		return constructorHashMap.getOrDefault(CONSTRUCTOR, null);
+	public static Class<? extends TdApi.Object> getClass(int CONSTRUCTOR) {
+		return ConstructorRegistry.getClass(CONSTRUCTOR);
 	}
 
 	/**
@@ -69,31 +60,10 @@ public final class ConstructorDetector {
 	 * @return The CONSTRUCTOR.
 	 */
 	public static int getConstructor(Class<? extends TdApi.Object> clazz) {
-		return Objects.requireNonNull(constructorHashMapInverse.get(clazz));
-	}
-
-	private static void setConstructorHashMap(Class[] tdApiClasses) {
-		constructorHashMap = new ConcurrentHashMap<>();
-		constructorHashMapInverse = new ConcurrentHashMap<>();
-
-		for (Class apiClass : tdApiClasses) {
-			Field CONSTRUCTORField;
-			int CONSTRUCTOR;
-
-			try {
-				CONSTRUCTORField = apiClass.getDeclaredField("CONSTRUCTOR");
-			} catch (NoSuchFieldException e) {
-				continue;
-			}
-
-			try {
-				CONSTRUCTOR = CONSTRUCTORField.getInt(null);
-			} catch (IllegalAccessException e) {
-				continue;
-			}
-
-			constructorHashMap.put(CONSTRUCTOR, apiClass);
-			constructorHashMapInverse.put(apiClass, CONSTRUCTOR);
+		int constructor = ConstructorRegistry.getConstructor(clazz);
+		if (constructor == ConstructorRegistry.UNKNOWN_CONSTRUCTOR) {
+			throw new NullPointerException("Unknown TDLib API class: " + clazz.getName());
 		}
+		return constructor;
 	}
 }
@@ -4,5 +4,15 @@ import org.drinkless.td.libcore.telegram.TdApi.Object;
 
 public interface EventsHandler {
 
-	void handleClientEvents(int clientId, boolean isClosed, long[] clientEventIds, Object[] clientEvents);
+	/**
+	 * Handle the events of a single client.
+	 * The arrays are reused by the caller, only the range [arrayOffset, arrayOffset + arrayLength) is valid and only
+	 * until this method returns.
+	 */
+	void handleClientEvents(int clientId,
+			boolean isClosed,
+			long[] clientEventIds,
+			Object[] clientEvents,
+			int arrayOffset,
+			int arrayLength);
 }
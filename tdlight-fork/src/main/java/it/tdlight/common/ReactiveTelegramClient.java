@@ -2,8 +2,13 @@ package it.tdlight.common;
 
 import org.drinkless.td.libcore.telegram.TdApi;
 import java.time.Duration;
+import java.util.List;
 import org.reactivestreams.Publisher;
 
+/**
+ * Client that publishes its updates to any number of subscribers. Each subscriber has its own demand and its own
+ * bounded buffer, see {@link SubscriptionSettings}. The client is closed when its last subscriber cancels.
+ */
 @SuppressWarnings("ReactiveStreamsPublisherImplementation")
 public interface ReactiveTelegramClient extends Publisher<ReactiveItem> {
 
@@ -12,6 +17,23 @@ public interface ReactiveTelegramClient extends Publisher<ReactiveItem> {
 	 */
 	void createAndRegisterClient();
 
+	/**
+	 * @param settings buffer, overflow policy and filter of each subscriber of the returned publisher
+	 * @return a publisher of the updates of this client
+	 */
+	Publisher<ReactiveItem> updates(SubscriptionSettings settings);
+
+	/**
+	 * Each item of the returned publisher is the list of the updates of a batch received from TDLib, so each requested
+	 * item is a batch. The buffer size of the settings counts batches, and the conflate policy drops the oldest batch
+	 * like the drop oldest policy. The exceptions are passed only to the subscribers of
+	 * {@link #updates(SubscriptionSettings)}.
+	 *
+	 * @param settings buffer, overflow policy and filter of each subscriber of the returned publisher
+	 * @return a publisher of the read-only batches of updates of this client, never empty
+	 */
+	Publisher<List<TdApi.Object>> updateBatches(SubscriptionSettings settings);
+
 	/**
 	 * Sends a request to the TDLib.
 	 *
@@ -0,0 +1,113 @@
+package it.tdlight.common;
+
+import it.tdlight.common.capture.EventsRecorder;
+import it.tdlight.common.utils.WaitStrategy;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of the loop that receives the events of all the clients of a client manager.
+ * <p>
+ * The defaults can be changed with the system properties {@code tdlight.dispatcher.wait_strategy}
+ * ({@code blocking}, {@code busy_spin}, {@code yielding} or {@code parking}),
+ * {@code tdlight.dispatcher.min_batch_size}, {@code tdlight.dispatcher.max_batch_size} and
+ * {@code tdlight.dispatcher.priority_lanes}.
+ */
+@SuppressWarnings("unused")
+public final class ReceiveSettings {
+
+	private static final String DEFAULT_WAIT_STRATEGY = System.getProperty("tdlight.dispatcher.wait_strategy", "blocking");
+	private static final int DEFAULT_MIN_BATCH_SIZE = Integer.getInteger("tdlight.dispatcher.min_batch_size", 64);
+	private static final int DEFAULT_MAX_BATCH_SIZE = Integer.getInteger("tdlight.dispatcher.max_batch_size", 1000);
+	private static final boolean DEFAULT_PRIORITY_LANES = Boolean.getBoolean("tdlight.dispatcher.priority_lanes");
+
+	private WaitStrategy waitStrategy;
+	private int minBatchSize;
+	private int maxBatchSize;
+	private boolean priorityLanes;
+	private EventsRecorder eventsRecorder;
+
+	private ReceiveSettings(WaitStrategy waitStrategy, int minBatchSize, int maxBatchSize, boolean priorityLanes) {
+		this.waitStrategy = waitStrategy;
+		this.minBatchSize = minBatchSize;
+		this.maxBatchSize = maxBatchSize;
+		this.priorityLanes = priorityLanes;
+	}
+
+	public static ReceiveSettings create() {
+		return new ReceiveSettings(createWaitStrategy(DEFAULT_WAIT_STRATEGY),
+				DEFAULT_MIN_BATCH_SIZE,
+				DEFAULT_MAX_BATCH_SIZE,
+				DEFAULT_PRIORITY_LANES
+		);
+	}
+
+	private static WaitStrategy createWaitStrategy(String name) {
+		switch (name.toLowerCase(Locale.ROOT)) {
+			case "blocking":
+				return WaitStrategy.blocking(2.0, 2.0);
+			case "busy_spin":
+				return WaitStrategy.busySpin();
+			case "yielding":
+				return WaitStrategy.yielding();
+			case "parking":
+				return WaitStrategy.parking(TimeUnit.MICROSECONDS.toNanos(50), TimeUnit.MILLISECONDS.toNanos(100));
+			default:
+				throw new IllegalArgumentException("Unknown wait strategy: " + name);
+		}
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * The wait strategy keeps its own state, don't share the same instance between different settings.
+	 * <p>
+	 * The receive loop checks if it must close only between the native receive calls, so closing the client manager
+	 * can take as long as the maximum timeout of the strategy. The default {@code blocking} strategy waits 2 seconds.
+	 */
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	public int getMinBatchSize() {
+		return minBatchSize;
+	}
+
+	public void setMinBatchSize(int minBatchSize) {
+		this.minBatchSize = minBatchSize;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public boolean isPriorityLanes() {
+		return priorityLanes;
+	}
+
+	/**
+	 * Pass the events of each batch by priority: first the responses, then the authorization and connection state
+	 * updates, then the other updates. The order inside each of these lanes is preserved, but a response can be handled
+	 * before the updates that TDLib sent before it.
+	 */
+	public void setPriorityLanes(boolean priorityLanes) {
+		this.priorityLanes = priorityLanes;
+	}
+
+	public EventsRecorder getEventsRecorder() {
+		return eventsRecorder;
+	}
+
+	/**
+	 * Record every event received from TDLib, before it's dispatched to the clients. Null to disable the recording
+	 */
+	public void setEventsRecorder(EventsRecorder eventsRecorder) {
+		this.eventsRecorder = eventsRecorder;
+	}
+}
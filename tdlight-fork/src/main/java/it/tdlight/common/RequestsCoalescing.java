@@ -0,0 +1,88 @@
+package it.tdlight.common;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Settings of the opt-in coalescing of the requests.
+ * <p>
+ * When a request is sent while an identical request is waiting for its response, the second one is not sent to TDLib:
+ * both receive the response of the first one. Two requests are identical when they are structurally equal, see
+ * {@link TdApiEquality}. Only the functions without side effects must be coalesced, like the getters of chats and
+ * users. The requests sent with a timeout, or without a result handler, are never coalesced.
+ * <p>
+ * The coalesced requests receive the same response object, so it must not be modified.
+ * The same settings can be shared by many clients, the requests in flight are kept by each client.
+ */
+public final class RequestsCoalescing {
+
+	// Guarded by itself
+	private final IntOpenHashSet constructors = new IntOpenHashSet();
+	private final LongAdder coalescedRequests = new LongAdder();
+
+	private RequestsCoalescing() {
+	}
+
+	/**
+	 * @return coalescing of {@link TdApi.GetChat}, {@link TdApi.GetUser}, {@link TdApi.GetMe},
+	 * {@link TdApi.GetUserFullInfo}, {@link TdApi.GetBasicGroup}, {@link TdApi.GetBasicGroupFullInfo},
+	 * {@link TdApi.GetSupergroup}, {@link TdApi.GetSupergroupFullInfo}, {@link TdApi.GetSecretChat},
+	 * {@link TdApi.GetMessage}, {@link TdApi.GetChatMember} and {@link TdApi.GetFile}
+	 */
+	public static RequestsCoalescing create() {
+		RequestsCoalescing coalescing = new RequestsCoalescing();
+		coalescing.addConstructor(TdApi.GetChat.CONSTRUCTOR);
+		coalescing.addConstructor(TdApi.GetUser.CONSTRUCTOR);
+		coalescing.addConstructor(TdApi.GetMe.CONSTRUCTOR);
+		coalescing.addConstructor(TdApi.GetUserFullInfo.CONSTRUCTOR);
+		coalescing.addConstructor(TdApi.GetBasicGroup.CONSTRUCTOR);
+		coalescing.addConstructor(TdApi.GetBasicGroupFullInfo.CONSTRUCTOR);
+		coalescing.addConstructor(TdApi.GetSupergroup.CONSTRUCTOR);
+		coalescing.addConstructor(TdApi.GetSupergroupFullInfo.CONSTRUCTOR);
+		coalescing.addConstructor(TdApi.GetSecretChat.CONSTRUCTOR);
+		coalescing.addConstructor(TdApi.GetMessage.CONSTRUCTOR);
+		coalescing.addConstructor(TdApi.GetChatMember.CONSTRUCTOR);
+		coalescing.addConstructor(TdApi.GetFile.CONSTRUCTOR);
+		return coalescing;
+	}
+
+	/**
+	 * @return settings that don't coalesce any request, use {@link #addConstructor(int)} to add them
+	 */
+	public static RequestsCoalescing empty() {
+		return new RequestsCoalescing();
+	}
+
+	/**
+	 * Coalesce the functions with this constructor, they must not have side effects
+	 */
+	public void addConstructor(int constructor) {
+		synchronized (constructors) {
+			constructors.add(constructor);
+		}
+	}
+
+	public void removeConstructor(int constructor) {
+		synchronized (constructors) {
+			constructors.remove(constructor);
+		}
+	}
+
+	public boolean isCoalesced(int constructor) {
+		synchronized (constructors) {
+			return constructors.contains(constructor);
+		}
+	}
+
+	/**
+	 * @return number of requests that received the response of an identical request, without being sent
+	 */
+	public long getCoalescedRequests() {
+		return coalescedRequests.sum();
+	}
+
+	public void addCoalescedRequests(int count) {
+		coalescedRequests.add(count);
+	}
+}
@@ -0,0 +1,104 @@
+package it.tdlight.common;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSets;
+
+/**
+ * Settings of a subscriber of the updates of a {@link ReactiveTelegramClient}.
+ * <p>
+ * Each subscriber has its own buffer of the updates that it didn't request yet. When the buffer is full the
+ * {@link OverflowPolicy} decides what happens to the new update.
+ */
+@SuppressWarnings("unused")
+public final class SubscriptionSettings {
+
+	private static final int DEFAULT_BUFFER_SIZE = 16384;
+
+	public enum OverflowPolicy {
+		/**
+		 * Drop the oldest item of the buffer
+		 */
+		DROP_OLDEST,
+		/**
+		 * Replace the buffered update with the same key, see {@link UpdatesConflation}. When there isn't one, drop the
+		 * oldest item of the buffer
+		 */
+		CONFLATE,
+		/**
+		 * Discard the buffer and terminate the subscriber with an error
+		 */
+		ERROR
+	}
+
+	private int bufferSize;
+	private OverflowPolicy overflowPolicy;
+	private UpdatesConflation conflation;
+	private IntSet constructors;
+
+	private SubscriptionSettings() {
+		this.bufferSize = DEFAULT_BUFFER_SIZE;
+		this.overflowPolicy = OverflowPolicy.ERROR;
+		this.conflation = UpdatesConflation.create();
+		this.constructors = null;
+	}
+
+	/**
+	 * @return settings with a buffer of 16384 items, that terminate the subscriber with an error when it's full
+	 */
+	public static SubscriptionSettings create() {
+		return new SubscriptionSettings();
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("Buffer size must be greater than 0");
+		}
+		this.bufferSize = bufferSize;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public UpdatesConflation getConflation() {
+		return conflation;
+	}
+
+	/**
+	 * Keys of the updates replaced by {@link OverflowPolicy#CONFLATE}
+	 */
+	public void setConflation(UpdatesConflation conflation) {
+		this.conflation = conflation;
+	}
+
+	/**
+	 * @return constructors of the updates passed to the subscriber, or null if all the updates are passed
+	 */
+	public IntSet getConstructors() {
+		return constructors;
+	}
+
+	/**
+	 * Pass to the subscriber only the updates with these constructors, the other ones are skipped before being
+	 * buffered. The exceptions are always passed.
+	 */
+	public void setConstructors(int... constructors) {
+		this.constructors = IntSets.unmodifiable(new IntOpenHashSet(constructors));
+	}
+
+	/**
+	 * Pass all the updates to the subscriber
+	 */
+	public void clearConstructors() {
+		this.constructors = null;
+	}
+}
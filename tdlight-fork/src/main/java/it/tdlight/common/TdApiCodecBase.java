@@ -0,0 +1,325 @@
+package it.tdlight.common;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding of the values of the fields, extended by the generated {@link TdApiCodec}.
+ * <p>
+ * The integers are zigzag varints and the doubles are 8 bytes. The strings are UTF-8, and a string already written in
+ * the same object is replaced by its index. The lengths of the arrays are varints, and a null value is encoded as 0.
+ */
+abstract class TdApiCodecBase {
+
+	// Strings written or read in the current object, with their index
+	private final Object2IntOpenHashMap<String> writtenStrings = new Object2IntOpenHashMap<>();
+	private final ObjectArrayList<String> readStrings = new ObjectArrayList<>();
+	private char[] chars = new char[64];
+
+	TdApiCodecBase() {
+		writtenStrings.defaultReturnValue(-1);
+	}
+
+	final void resetStrings() {
+		if (!writtenStrings.isEmpty()) {
+			writtenStrings.clear();
+		}
+		readStrings.clear();
+	}
+
+	static void writeVarint(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static long readVarint(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	static void writeInt(ByteBuffer buffer, int value) {
+		writeVarint(buffer, ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+	}
+
+	static int readInt(ByteBuffer buffer) {
+		int value = (int) readVarint(buffer);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	static void writeLong(ByteBuffer buffer, long value) {
+		writeVarint(buffer, (value << 1) ^ (value >> 63));
+	}
+
+	static long readLong(ByteBuffer buffer) {
+		long value = readVarint(buffer);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	static void writeBoolean(ByteBuffer buffer, boolean value) {
+		buffer.put(value ? (byte) 1 : (byte) 0);
+	}
+
+	static boolean readBoolean(ByteBuffer buffer) {
+		return buffer.get() != 0;
+	}
+
+	static void writeDouble(ByteBuffer buffer, double value) {
+		buffer.putDouble(value);
+	}
+
+	static double readDouble(ByteBuffer buffer) {
+		return buffer.getDouble();
+	}
+
+	/**
+	 * Write the length of an array, or 0 if it's null
+	 */
+	static void writeLength(ByteBuffer buffer, Object array, int length) {
+		writeVarint(buffer, array == null ? 0 : length + 1L);
+	}
+
+	/**
+	 * @return the length of an array, or -1 if it's null
+	 */
+	static int readLength(ByteBuffer buffer) {
+		long length = readVarint(buffer) - 1;
+		if (length < -1 || length > buffer.remaining()) {
+			throw new IllegalArgumentException("Array length " + length + " is greater than the remaining bytes");
+		}
+		return (int) length;
+	}
+
+	/**
+	 * A string is encoded as 0 if it's null, as its UTF-8 length shifted left by 1 and with the lowest bit set, followed
+	 * by its UTF-8 bytes, or as the index of the same string written before plus 1, shifted left by 1
+	 */
+	final void writeString(ByteBuffer buffer, String value) {
+		if (value == null) {
+			buffer.put((byte) 0);
+			return;
+		}
+		int length = value.length();
+		if (length > 0) {
+			int index = writtenStrings.getInt(value);
+			if (index >= 0) {
+				writeVarint(buffer, (index + 1L) << 1);
+				return;
+			}
+			writtenStrings.put(value, writtenStrings.size());
+		}
+		writeVarint(buffer, ((long) utf8Length(value) << 1) | 1);
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xF0 | (codePoint >> 18)));
+				buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+			} else {
+				// Unpaired surrogates are written as they are, like the modified UTF-8 of the JNI
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	final String readString(ByteBuffer buffer) {
+		long tag = readVarint(buffer);
+		if (tag == 0) {
+			return null;
+		}
+		if ((tag & 1) == 0) {
+			long index = (tag >>> 1) - 1;
+			if (index >= readStrings.size()) {
+				throw new IllegalArgumentException("Unknown string index " + index);
+			}
+			return readStrings.get((int) index);
+		}
+		long byteLength = tag >>> 1;
+		if (byteLength > buffer.remaining()) {
+			throw new IllegalArgumentException("String length " + byteLength + " is greater than the remaining bytes");
+		}
+		if (byteLength == 0) {
+			return "";
+		}
+		// A UTF-8 string never has more chars than bytes
+		char[] chars = this.chars;
+		if (chars.length < byteLength) {
+			chars = new char[(int) Math.max(byteLength, chars.length * 2L)];
+			this.chars = chars;
+		}
+		int end = buffer.position() + (int) byteLength;
+		int length = 0;
+		while (buffer.position() < end) {
+			int b = buffer.get();
+			if (b >= 0) {
+				chars[length++] = (char) b;
+			} else if ((b & 0xE0) == 0xC0) {
+				checkContinuationBytes(buffer, end, 1);
+				chars[length++] = (char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F));
+			} else if ((b & 0xF0) == 0xE0) {
+				checkContinuationBytes(buffer, end, 2);
+				chars[length++] = (char) (((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F));
+			} else if ((b & 0xF8) == 0xF0) {
+				checkContinuationBytes(buffer, end, 3);
+				int codePoint = ((b & 0x07) << 18) | ((buffer.get() & 0x3F) << 12) | ((buffer.get() & 0x3F) << 6)
+						| (buffer.get() & 0x3F);
+				chars[length++] = Character.highSurrogate(codePoint);
+				chars[length++] = Character.lowSurrogate(codePoint);
+			} else {
+				throw new IllegalArgumentException("Malformed UTF-8 string, invalid lead byte " + (b & 0xFF));
+			}
+		}
+		String value = new String(chars, 0, length);
+		readStrings.add(value);
+		return value;
+	}
+
+	/**
+	 * A sequence must end within the string, so it never decodes to more chars than its bytes
+	 */
+	private static void checkContinuationBytes(ByteBuffer buffer, int end, int count) {
+		if (end - buffer.position() < count) {
+			throw new IllegalArgumentException("Malformed UTF-8 string, truncated sequence at the end");
+		}
+	}
+
+	static void writeBytes(ByteBuffer buffer, byte[] value) {
+		writeLength(buffer, value, value == null ? 0 : value.length);
+		if (value != null) {
+			buffer.put(value);
+		}
+	}
+
+	static byte[] readBytes(ByteBuffer buffer) {
+		int length = readLength(buffer);
+		if (length < 0) {
+			return null;
+		}
+		byte[] value = new byte[length];
+		buffer.get(value);
+		return value;
+	}
+
+	static void writeInts(ByteBuffer buffer, int[] value) {
+		writeLength(buffer, value, value == null ? 0 : value.length);
+		if (value != null) {
+			for (int element : value) {
+				writeInt(buffer, element);
+			}
+		}
+	}
+
+	static int[] readInts(ByteBuffer buffer) {
+		int length = readLength(buffer);
+		if (length < 0) {
+			return null;
+		}
+		int[] value = new int[length];
+		for (int i = 0; i < length; i++) {
+			value[i] = readInt(buffer);
+		}
+		return value;
+	}
+
+	static void writeLongs(ByteBuffer buffer, long[] value) {
+		writeLength(buffer, value, value == null ? 0 : value.length);
+		if (value != null) {
+			for (long element : value) {
+				writeLong(buffer, element);
+			}
+		}
+	}
+
+	static long[] readLongs(ByteBuffer buffer) {
+		int length = readLength(buffer);
+		if (length < 0) {
+			return null;
+		}
+		long[] value = new long[length];
+		for (int i = 0; i < length; i++) {
+			value[i] = readLong(buffer);
+		}
+		return value;
+	}
+
+	final void writeStrings(ByteBuffer buffer, String[] value) {
+		writeLength(buffer, value, value == null ? 0 : value.length);
+		if (value != null) {
+			for (String element : value) {
+				writeString(buffer, element);
+			}
+		}
+	}
+
+	final String[] readStrings(ByteBuffer buffer) {
+		int length = readLength(buffer);
+		if (length < 0) {
+			return null;
+		}
+		String[] value = new String[length];
+		for (int i = 0; i < length; i++) {
+			value[i] = readString(buffer);
+		}
+		return value;
+	}
+
+	static void writeByteArrays(ByteBuffer buffer, byte[][] value) {
+		writeLength(buffer, value, value == null ? 0 : value.length);
+		if (value != null) {
+			for (byte[] element : value) {
+				writeBytes(buffer, element);
+			}
+		}
+	}
+
+	static byte[][] readByteArrays(ByteBuffer buffer) {
+		int length = readLength(buffer);
+		if (length < 0) {
+			return null;
+		}
+		byte[][] value = new byte[length][];
+		for (int i = 0; i < length; i++) {
+			value[i] = readBytes(buffer);
+		}
+		return value;
+	}
+
+	private static int utf8Length(String value) {
+		int length = value.length();
+		int utf8Length = length;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x800) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+					// 4 bytes for 2 chars
+					utf8Length += 2;
+					i++;
+				} else {
+					utf8Length += 2;
+				}
+			} else if (c >= 0x80) {
+				utf8Length += 1;
+			}
+		}
+		return utf8Length;
+	}
+}
@@ -1,6 +1,7 @@
 package it.tdlight.common;
 
 import org.drinkless.td.libcore.telegram.TdApi;
+import java.time.Duration;
 
 public interface TelegramClient {
 
@@ -43,6 +44,22 @@ public interface TelegramClient {
 	 */
 	void send(TdApi.Function query, ResultHandler resultHandler, ExceptionHandler exceptionHandler);
 
+	/**
+	 * Sends a request to the TDLib, giving up if the response doesn't arrive in time.
+	 * When the timeout expires the request is forgotten and the result handler is called with a
+	 * {@code TdApi.Error(408, "Request Timeout")}. A response received later is dropped.
+	 * The timeouts of all the clients are handled by a single thread, the result handler must not block it.
+	 *
+	 * @param query            Object representing a query to the TDLib.
+	 * @param resultHandler    Result handler with onResult method which will be called with result of the query or with
+	 *                         TdApi.Error as parameter. If it is null, nothing will be called.
+	 * @param exceptionHandler Exception handler with onException method which will be called on exception thrown from
+	 *                         resultHandler. If it is null, then defaultExceptionHandler will be called.
+	 * @param timeout          Maximum time to wait for the response, the precision is about 10 milliseconds.
+	 * @throws NullPointerException if query or timeout is null.
+	 */
+	void send(TdApi.Function query, ResultHandler resultHandler, ExceptionHandler exceptionHandler, Duration timeout);
+
 	/**
 	 * Sends a request to the TDLib with an empty ExceptionHandler.
 	 *
@@ -0,0 +1,149 @@
+package it.tdlight.common;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Settings of the opt-in conflation of the updates.
+ * <p>
+ * Some updates only carry the latest state of something, like the status of a user or the position of a chat. When
+ * many updates of the same type and with the same key are waiting to be handled, only the latest one is handled, in
+ * the position of the latest one. By default the updates are conflated only inside each batch received from TDLib:
+ * with a window, the conflated updates are held for up to the window duration, and then handled after the other
+ * updates received in the meantime.
+ * The updates held until the end of a window are handled by a thread of the client manager, never concurrently with
+ * the other updates of the client.
+ * <p>
+ * The lifecycle updates, {@link TdApi.UpdateAuthorizationState} and {@link TdApi.UpdateConnectionState}, are never
+ * conflated and never reordered: the updates received before them are never merged with the updates received after
+ * them.
+ * <p>
+ * The same settings can be shared by many clients, the conflation state is kept by each client.
+ */
+public final class UpdatesConflation {
+
+	private final Int2ObjectOpenHashMap<ConflationKey<?>> keys = new Int2ObjectOpenHashMap<>();
+	private final LongAdder conflatedUpdates = new LongAdder();
+	private volatile Duration window;
+
+	private UpdatesConflation() {
+	}
+
+	/**
+	 * @return conflation of {@link TdApi.UpdateUserStatus}, {@link TdApi.UpdateChatPosition},
+	 * {@link TdApi.UpdateChatLastMessage}, {@link TdApi.UpdateFile} and {@link TdApi.UpdateChatReadInbox}, inside
+	 * each batch
+	 */
+	public static UpdatesConflation create() {
+		UpdatesConflation conflation = new UpdatesConflation();
+		conflation.setKey(TdApi.UpdateUserStatus.CONSTRUCTOR, (TdApi.UpdateUserStatus update) -> update.userId);
+		conflation.setKey(TdApi.UpdateChatPosition.CONSTRUCTOR, new ConflationKey<TdApi.UpdateChatPosition>() {
+			@Override
+			public long key(TdApi.UpdateChatPosition update) {
+				return update.chatId;
+			}
+
+			@Override
+			public int subKey(TdApi.UpdateChatPosition update) {
+				return chatListKey(update.position.list);
+			}
+		});
+		conflation.setKey(TdApi.UpdateChatLastMessage.CONSTRUCTOR, (TdApi.UpdateChatLastMessage update) -> update.chatId);
+		conflation.setKey(TdApi.UpdateFile.CONSTRUCTOR, (TdApi.UpdateFile update) -> update.file.id);
+		conflation.setKey(TdApi.UpdateChatReadInbox.CONSTRUCTOR, (TdApi.UpdateChatReadInbox update) -> update.chatId);
+		return conflation;
+	}
+
+	/**
+	 * @return settings that don't conflate any update, use {@link #setKey(int, ConflationKey)} to add them
+	 */
+	public static UpdatesConflation empty() {
+		return new UpdatesConflation();
+	}
+
+	/**
+	 * Conflate the updates with this constructor by the key. Must be called before the settings are used by a client.
+	 *
+	 * @throws IllegalArgumentException if the constructor is of a lifecycle update
+	 */
+	public synchronized <T extends TdApi.Update> void setKey(int constructor, ConflationKey<T> key) {
+		if (isLifecycleUpdate(constructor)) {
+			throw new IllegalArgumentException("Lifecycle updates can't be conflated");
+		}
+		keys.put(constructor, key);
+	}
+
+	public synchronized void removeKey(int constructor) {
+		keys.remove(constructor);
+	}
+
+	/**
+	 * @return the key of the updates with this constructor, or null if they are not conflated
+	 */
+	@SuppressWarnings("unchecked")
+	public ConflationKey<TdApi.Object> getKey(int constructor) {
+		return (ConflationKey<TdApi.Object>) keys.get(constructor);
+	}
+
+	public Duration getWindow() {
+		return window;
+	}
+
+	/**
+	 * Hold the conflated updates for up to this time, across the batches
+	 *
+	 * @param window maximum delay of the conflated updates, or null to conflate them only inside each batch
+	 */
+	public void setWindow(Duration window) {
+		this.window = window;
+	}
+
+	/**
+	 * @return number of updates that have been replaced by a later update, and not handled
+	 */
+	public long getConflatedUpdates() {
+		return conflatedUpdates.sum();
+	}
+
+	public void addConflatedUpdates(int count) {
+		conflatedUpdates.add(count);
+	}
+
+	public static boolean isLifecycleUpdate(int constructor) {
+		return constructor == TdApi.UpdateAuthorizationState.CONSTRUCTOR
+				|| constructor == TdApi.UpdateConnectionState.CONSTRUCTOR;
+	}
+
+	/**
+	 * @return a number that identifies the chat list: 0 for the main list, 1 for the archive, then the filters
+	 */
+	public static int chatListKey(TdApi.ChatList list) {
+		switch (list.getConstructor()) {
+			case TdApi.ChatListMain.CONSTRUCTOR:
+				return 0;
+			case TdApi.ChatListArchive.CONSTRUCTOR:
+				return 1;
+			default:
+				return 2 + ((TdApi.ChatListFilter) list).chatFilterId;
+		}
+	}
+
+	/**
+	 * Key of the updates of a type: two updates of the same type with the same key and sub key are merged
+	 */
+	@FunctionalInterface
+	public interface ConflationKey<T extends TdApi.Object> {
+
+		long key(T update);
+
+		/**
+		 * Distinguishes the updates with the same key that must not be merged, like the positions of the same chat in
+		 * different chat lists
+		 */
+		default int subKey(T update) {
+			return 0;
+		}
+	}
+}
@@ -10,6 +10,8 @@ public interface UpdatesHandler {
 
 	/**
 	 * Callback called on incoming update from TDLib.
+	 * The list is read-only and it's reused for the next updates: it's valid only until this method returns, copy it
+	 * if the updates must be kept.
 	 *
 	 * @param object Updates of type {@link org.drinkless.td.libcore.telegram.TdApi.Update} about new events, or {@link
 	 *               org.drinkless.td.libcore.telegram.TdApi.Error}.
@@ -0,0 +1,67 @@
+package it.tdlight.common.capture;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Layout of the segments of an events log.
+ * <p>
+ * A segment starts with a header: the magic number, the version and the time the recording started, in milliseconds
+ * since the epoch. Then each event is written as its length, the client id, the event id, the nanoseconds since the
+ * recording started and the event encoded by {@link it.tdlight.common.TdApiCodec}. A length of 0, or the end of the
+ * file, ends the segment.
+ */
+final class EventsLog {
+
+	static final int MAGIC = 0x54444C47;
+	static final int VERSION = 1;
+	static final int SEGMENT_HEADER_SIZE = 4 + 4 + 8;
+	static final int RECORD_LENGTH_SIZE = 4;
+	static final int RECORD_HEADER_SIZE = 4 + 8 + 8;
+
+	private static final String SEGMENT_PREFIX = "events-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private EventsLog() {
+	}
+
+	static String segmentName(long index) {
+		return String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX);
+	}
+
+	/**
+	 * @return the index of the segment, or -1 if the file is not a segment
+	 */
+	static long segmentIndex(Path file) {
+		String name = file.getFileName().toString();
+		if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the segments of the directory, from the oldest
+	 */
+	static List<Path> listSegments(Path directory) throws IOException {
+		List<Path> segments = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				if (segmentIndex(file) >= 0) {
+					segments.add(file);
+				}
+			}
+		}
+		segments.sort((a, b) -> Long.compare(segmentIndex(a), segmentIndex(b)));
+		return Collections.unmodifiableList(segments);
+	}
+}
@@ -0,0 +1,158 @@
+package it.tdlight.common.capture;
+
+import it.tdlight.common.TdApiCodec;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Reads the events recorded by {@link EventsRecorder}, from the oldest segment.
+ * <p>
+ * The timestamps of the events of the recordings made one after another in the same directory are joined, without
+ * the pause between them.
+ */
+public final class EventsLogReader {
+
+	private final List<Path> segments;
+	private final TdApiCodec codec = new TdApiCodec();
+
+	private int nextSegment;
+	private MappedByteBuffer segment;
+	private long segmentStartMillis;
+	private long recordingStartMillis = -1;
+	// Added to the timestamps of the current recording
+	private long timestampBase;
+
+	private int clientId;
+	private long eventId;
+	private long timestamp;
+	private TdApi.Object event;
+
+	private EventsLogReader(List<Path> segments) {
+		this.segments = segments;
+	}
+
+	/**
+	 * Read the segments of a directory
+	 */
+	public static EventsLogReader open(Path directory) throws IOException {
+		return new EventsLogReader(EventsLog.listSegments(directory));
+	}
+
+	/**
+	 * Move to the next event
+	 *
+	 * @return false if there are no more events
+	 * @throws IllegalStateException if a segment is corrupted
+	 */
+	public boolean next() throws IOException {
+		return next(true);
+	}
+
+	/**
+	 * @param decode false to skip the decoding of the event, the event is then null
+	 */
+	boolean next(boolean decode) throws IOException {
+		while (true) {
+			if (segment == null || !readRecord(decode)) {
+				if (nextSegment >= segments.size()) {
+					segment = null;
+					event = null;
+					return false;
+				}
+				openSegment(segments.get(nextSegment++));
+				continue;
+			}
+			return true;
+		}
+	}
+
+	private boolean readRecord(boolean decode) {
+		MappedByteBuffer segment = this.segment;
+		if (segment.remaining() < EventsLog.RECORD_LENGTH_SIZE) {
+			return false;
+		}
+		int start = segment.position();
+		int length = segment.getInt();
+		if (length == 0) {
+			segment.position(start);
+			return false;
+		}
+		int end = segment.position() + length;
+		if (length < EventsLog.RECORD_HEADER_SIZE || end > segment.limit()) {
+			throw corrupted("invalid length " + length + " at " + start);
+		}
+		clientId = segment.getInt();
+		eventId = segment.getLong();
+		long rawTimestamp = segment.getLong();
+		if (segmentStartMillis != recordingStartMillis) {
+			// The first event of a recording follows the last event of the previous one
+			recordingStartMillis = segmentStartMillis;
+			timestampBase = timestamp - rawTimestamp;
+		}
+		timestamp = timestampBase + rawTimestamp;
+		if (decode) {
+			try {
+				segment.limit(end);
+				event = codec.read(segment);
+			} catch (IllegalArgumentException | BufferUnderflowException ex) {
+				throw corrupted("invalid event at " + start);
+			} finally {
+				segment.limit(segment.capacity());
+			}
+			if (segment.position() != end) {
+				throw corrupted("invalid event at " + start);
+			}
+		} else {
+			event = null;
+		}
+		segment.position(end);
+		return true;
+	}
+
+	private void openSegment(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			segment = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (segment.remaining() < EventsLog.SEGMENT_HEADER_SIZE || segment.getInt() != EventsLog.MAGIC) {
+			throw new IllegalStateException(file + " is not a segment of an events log");
+		}
+		int version = segment.getInt();
+		if (version != EventsLog.VERSION) {
+			throw new IllegalStateException("Unsupported version " + version + " of the segment " + file);
+		}
+		segmentStartMillis = segment.getLong();
+	}
+
+	private IllegalStateException corrupted(String reason) {
+		return new IllegalStateException("The segment " + segments.get(nextSegment - 1) + " is corrupted: " + reason);
+	}
+
+	public int getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * @return the id of the request of a response, or 0 if the event is an update
+	 */
+	public long getEventId() {
+		return eventId;
+	}
+
+	/**
+	 * @return nanoseconds from the reception of the first event of the log to the reception of this event
+	 */
+	public long getTimestampNanos() {
+		return timestamp;
+	}
+
+	public TdApi.Object getEvent() {
+		return event;
+	}
+}
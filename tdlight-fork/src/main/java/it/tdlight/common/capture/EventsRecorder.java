@@ -0,0 +1,211 @@
+package it.tdlight.common.capture;
+
+import it.tdlight.common.TdApiCodec;
+import it.tdlight.common.utils.UnmapSupport;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the events received from TDLib in a log of memory-mapped segments, to replay them later with
+ * {@link ReplayClientBackend}.
+ * <p>
+ * Set it with {@link it.tdlight.common.ReceiveSettings#setEventsRecorder(EventsRecorder)} to record the events of all
+ * the clients of the client manager, or with
+ * {@link org.drinkless.td.libcore.telegram.Client#setEventsRecorder(EventsRecorder)} for a single client.
+ * The events are written in the page cache, so they survive a crash of the JVM, and a new segment is created when the
+ * current one is full. The full segments are unmapped and left to the OS to write to the disk, only {@link #close()}
+ * waits for the current one to be written. When there are more than the maximum segments the oldest one is deleted.
+ * <p>
+ * An event bigger than a whole segment is not recorded, it's counted by {@link #getDroppedEvents()}.
+ * The new segments are numbered after the segments already in the directory.
+ */
+public final class EventsRecorder implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(EventsRecorder.class);
+	private static final long MIN_SEGMENT_SIZE = 4096;
+
+	private final Path directory;
+	private final long segmentSize;
+	private final int maxSegments;
+	private final long startNanos = System.nanoTime();
+	private final long startMillis = System.currentTimeMillis();
+	private final TdApiCodec codec = new TdApiCodec();
+
+	// Guarded by this
+	private final ArrayDeque<Path> segments = new ArrayDeque<>();
+	private long nextSegmentIndex;
+	private MappedByteBuffer segment;
+	private long recordedEvents;
+	private long droppedEvents;
+	private boolean closed;
+
+	private EventsRecorder(Path directory, long segmentSize, int maxSegments) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		Files.createDirectories(directory);
+		List<Path> existingSegments = EventsLog.listSegments(directory);
+		if (!existingSegments.isEmpty()) {
+			this.nextSegmentIndex = EventsLog.segmentIndex(existingSegments.get(existingSegments.size() - 1)) + 1;
+		}
+	}
+
+	/**
+	 * @param directory   directory of the segments, it's created if it doesn't exist
+	 * @param segmentSize size of each segment file, in bytes
+	 * @param maxSegments maximum number of segments written by this recorder, 0 to keep all of them
+	 */
+	public static EventsRecorder create(Path directory, long segmentSize, int maxSegments) throws IOException {
+		if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+		}
+		if (maxSegments < 0) {
+			throw new IllegalArgumentException("Invalid maximum segments: " + maxSegments);
+		}
+		return new EventsRecorder(directory, segmentSize, maxSegments);
+	}
+
+	/**
+	 * Record the events of a batch received from TDLib
+	 */
+	public synchronized void record(int[] clientIds, long[] eventIds, TdApi.Object[] events, int count) {
+		long timestamp = System.nanoTime() - startNanos;
+		for (int i = 0; i < count; i++) {
+			record(clientIds[i], eventIds[i], events[i], timestamp);
+		}
+	}
+
+	/**
+	 * Record the events of a batch received from TDLib by a single client
+	 */
+	public synchronized void record(int clientId, long[] eventIds, TdApi.Object[] events, int count) {
+		long timestamp = System.nanoTime() - startNanos;
+		for (int i = 0; i < count; i++) {
+			record(clientId, eventIds[i], events[i], timestamp);
+		}
+	}
+
+	private void record(int clientId, long eventId, TdApi.Object event, long timestamp) {
+		if (closed) {
+			return;
+		}
+		try {
+			if (segment == null) {
+				nextSegment();
+			}
+			if (!tryWrite(clientId, eventId, event, timestamp)) {
+				nextSegment();
+				if (!tryWrite(clientId, eventId, event, timestamp)) {
+					droppedEvents++;
+					logger.warn("The event {} of the client {} is bigger than a segment, it has not been recorded",
+							event.getClass().getSimpleName(),
+							clientId
+					);
+					return;
+				}
+			}
+			recordedEvents++;
+		} catch (IOException ex) {
+			logger.error("Can't create a new segment in {}, the recording has been stopped", directory, ex);
+			closed = true;
+			segment = null;
+		}
+	}
+
+	/**
+	 * @return true if the event has been written, false if the segment is full
+	 */
+	private boolean tryWrite(int clientId, long eventId, TdApi.Object event, long timestamp) {
+		MappedByteBuffer segment = this.segment;
+		int start = segment.position();
+		int bodyStart = start + EventsLog.RECORD_LENGTH_SIZE;
+		if (segment.limit() - bodyStart < EventsLog.RECORD_HEADER_SIZE) {
+			return false;
+		}
+		segment.position(bodyStart + EventsLog.RECORD_HEADER_SIZE);
+		try {
+			codec.write(segment, event);
+		} catch (BufferOverflowException ex) {
+			// Clear the partial event, a zero length ends the segment
+			segment.putInt(start, 0);
+			segment.position(start);
+			return false;
+		}
+		segment.putInt(bodyStart, clientId);
+		segment.putLong(bodyStart + 4, eventId);
+		segment.putLong(bodyStart + 12, timestamp);
+		segment.putInt(start, segment.position() - bodyStart);
+		return true;
+	}
+
+	private void nextSegment() throws IOException {
+		MappedByteBuffer fullSegment = segment;
+		if (fullSegment != null) {
+			segment = null;
+			UnmapSupport.unmap(fullSegment);
+		}
+		Path file = directory.resolve(EventsLog.segmentName(nextSegmentIndex++));
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE
+		)) {
+			// The mapping stays valid after the channel is closed
+			segment = channel.map(MapMode.READ_WRITE, 0, segmentSize);
+		}
+		segment.putInt(EventsLog.MAGIC);
+		segment.putInt(EventsLog.VERSION);
+		segment.putLong(startMillis);
+		segments.addLast(file);
+		while (maxSegments > 0 && segments.size() > maxSegments) {
+			Path oldestSegment = segments.removeFirst();
+			try {
+				Files.deleteIfExists(oldestSegment);
+			} catch (IOException ex) {
+				logger.warn("Can't delete the old segment {}", oldestSegment, ex);
+			}
+		}
+	}
+
+	/**
+	 * @return number of events recorded so far
+	 */
+	public synchronized long getRecordedEvents() {
+		return recordedEvents;
+	}
+
+	/**
+	 * @return number of events not recorded because they are bigger than a segment
+	 */
+	public synchronized long getDroppedEvents() {
+		return droppedEvents;
+	}
+
+	/**
+	 * Stop recording and write the current segment to the disk, the events received later are ignored
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		MappedByteBuffer segment = this.segment;
+		if (segment != null) {
+			this.segment = null;
+			segment.force();
+			UnmapSupport.unmap(segment);
+		}
+	}
+}
@@ -0,0 +1,291 @@
+package it.tdlight.common.capture;
+
+import it.tdlight.common.ClientBackend;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Backend that replays the events recorded by {@link EventsRecorder}, to benchmark the whole Java side of the library
+ * with a real load.
+ * <p>
+ * The clients are created with the ids of the recorded clients, in the order of their first event, and the replay
+ * starts when all of them have been created. The events are received with the recorded delays divided by the speed,
+ * or as fast as possible when the speed is 0. They pass through the same receive loop, dispatcher and client event
+ * handlers as the events of TDLib.
+ * <p>
+ * By default only the updates are replayed, because the recorded responses belong to requests that the new clients
+ * haven't sent. The functions sent to the clients are answered with an error, except {@link TdApi.Close} that closes
+ * the client like TDLib does: its recorded events that haven't been replayed yet are skipped.
+ */
+public final class ReplayClientBackend implements ClientBackend {
+
+	private final EventsLogReader reader;
+	private final int[] recordedClientIds;
+	private final long recordedEvents;
+	private final LinkedBlockingQueue<ReplayEvent> immediateEvents = new LinkedBlockingQueue<>();
+	private final AtomicLong replayedEvents = new AtomicLong();
+
+	private volatile double speed = 1;
+	private volatile boolean replayResponses;
+
+	// Guarded by this
+	private int createdClients;
+	private final IntOpenHashSet closedClients = new IntOpenHashSet();
+	// All the recorded clients have been created
+	private volatile boolean started;
+
+	// Accessed only by the receiving thread
+	private boolean replayStarted;
+	private long replayStartNanos;
+	private long firstTimestamp = -1;
+	private boolean hasRecordedEvent;
+	private long nextEventDelayNanos;
+	private boolean finished;
+
+	private ReplayClientBackend(EventsLogReader reader, int[] recordedClientIds, long recordedEvents) {
+		this.reader = reader;
+		this.recordedClientIds = recordedClientIds;
+		this.recordedEvents = recordedEvents;
+	}
+
+	/**
+	 * Replay the events log of a directory
+	 */
+	public static ReplayClientBackend create(Path directory) throws IOException {
+		EventsLogReader scanner = EventsLogReader.open(directory);
+		IntOpenHashSet clientIdsSet = new IntOpenHashSet();
+		IntArrayList clientIds = new IntArrayList();
+		long events = 0;
+		while (scanner.next(false)) {
+			events++;
+			if (clientIdsSet.add(scanner.getClientId())) {
+				clientIds.add(scanner.getClientId());
+			}
+		}
+		return new ReplayClientBackend(EventsLogReader.open(directory), clientIds.toIntArray(), events);
+	}
+
+	/**
+	 * Set the speed of the replay, before it starts
+	 *
+	 * @param speed 1 to replay the events with the recorded delays, 2 to replay them twice as fast, 0 to replay them as
+	 *              fast as possible
+	 */
+	public void setSpeed(double speed) {
+		if (!(speed >= 0) || Double.isInfinite(speed)) {
+			throw new IllegalArgumentException("Invalid speed: " + speed);
+		}
+		this.speed = speed;
+	}
+
+	/**
+	 * Replay also the responses, they are dropped by the clients because they don't match any request
+	 */
+	public void setReplayResponses(boolean replayResponses) {
+		this.replayResponses = replayResponses;
+	}
+
+	/**
+	 * @return the ids of the recorded clients, in the order of creation
+	 */
+	public int[] getRecordedClientIds() {
+		return recordedClientIds.clone();
+	}
+
+	/**
+	 * @return number of events in the log
+	 */
+	public long getRecordedEvents() {
+		return recordedEvents;
+	}
+
+	/**
+	 * @return number of recorded events received so far
+	 */
+	public long getReplayedEvents() {
+		return replayedEvents.get();
+	}
+
+	@Override
+	public void start() {
+	}
+
+	/**
+	 * @throws IllegalStateException if all the recorded clients have already been created
+	 */
+	@Override
+	public synchronized int createClient() {
+		if (createdClients >= recordedClientIds.length) {
+			throw new IllegalStateException("The log has only " + recordedClientIds.length + " clients");
+		}
+		int clientId = recordedClientIds[createdClients++];
+		if (createdClients == recordedClientIds.length) {
+			started = true;
+		}
+		return clientId;
+	}
+
+	@Override
+	public void send(int clientId, long eventId, TdApi.Function function) {
+		if (function.getConstructor() == TdApi.Close.CONSTRUCTOR) {
+			synchronized (this) {
+				if (closedClients.add(clientId)) {
+					immediateEvents.add(new ReplayEvent(clientId, eventId, new TdApi.Ok()));
+					immediateEvents.add(new ReplayEvent(clientId,
+							0,
+							new TdApi.UpdateAuthorizationState(new TdApi.AuthorizationStateClosing())
+					));
+					immediateEvents.add(new ReplayEvent(clientId,
+							0,
+							new TdApi.UpdateAuthorizationState(new TdApi.AuthorizationStateClosed())
+					));
+					return;
+				}
+			}
+		}
+		immediateEvents.add(new ReplayEvent(clientId,
+				eventId,
+				new TdApi.Error(400, "Function not supported by the replay backend: " + function.getClass().getSimpleName())
+		));
+	}
+
+	@Override
+	public int receive(int[] clientIds, long[] eventIds, TdApi.Object[] events, double timeout) {
+		long timeoutNanos = (long) (timeout * 1_000_000_000L);
+		int count = 0;
+		if (started && !finished) {
+			count = receiveRecordedEvents(clientIds, eventIds, events);
+			if (!finished) {
+				timeoutNanos = Math.min(timeoutNanos, nextEventDelayNanos);
+			}
+		}
+		count = drainImmediateEvents(clientIds, eventIds, events, count);
+		if (count > 0) {
+			return count;
+		}
+		ReplayEvent event;
+		try {
+			event = immediateEvents.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 0;
+		}
+		if (event == null) {
+			return 0;
+		}
+		clientIds[0] = event.clientId;
+		eventIds[0] = event.eventId;
+		events[0] = event.event;
+		return drainImmediateEvents(clientIds, eventIds, events, 1);
+	}
+
+	/**
+	 * Fill the arrays with the recorded events that are due, and set the delay of the next one
+	 *
+	 * @return the number of events
+	 */
+	private int receiveRecordedEvents(int[] clientIds, long[] eventIds, TdApi.Object[] events) {
+		long now = System.nanoTime();
+		if (!replayStarted) {
+			replayStarted = true;
+			replayStartNanos = now;
+		}
+		double speed = this.speed;
+		int count = 0;
+		while (count < events.length) {
+			if (!hasRecordedEvent && !readRecordedEvent()) {
+				finished = true;
+				break;
+			}
+			hasRecordedEvent = true;
+			if (speed > 0) {
+				long due = replayStartNanos + (long) ((reader.getTimestampNanos() - firstTimestamp) / speed);
+				if (due - now > 0) {
+					nextEventDelayNanos = due - now;
+					break;
+				}
+			}
+			hasRecordedEvent = false;
+			int clientId = reader.getClientId();
+			TdApi.Object event = reader.getEvent();
+			synchronized (this) {
+				if (closedClients.contains(clientId)) {
+					continue;
+				}
+				if (isClosedUpdate(event)) {
+					closedClients.add(clientId);
+				}
+			}
+			clientIds[count] = clientId;
+			eventIds[count] = reader.getEventId();
+			events[count] = event;
+			count++;
+		}
+		replayedEvents.addAndGet(count);
+		return count;
+	}
+
+	/**
+	 * Move the reader to the next event that must be replayed
+	 *
+	 * @return false if there are no more events
+	 */
+	private boolean readRecordedEvent() {
+		try {
+			while (reader.next()) {
+				if (reader.getEventId() != 0 && !replayResponses) {
+					continue;
+				}
+				if (firstTimestamp == -1) {
+					firstTimestamp = reader.getTimestampNanos();
+				}
+				return true;
+			}
+			return false;
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private static boolean isClosedUpdate(TdApi.Object event) {
+		return event != null && event.getConstructor() == TdApi.UpdateAuthorizationState.CONSTRUCTOR
+				&& ((TdApi.UpdateAuthorizationState) event).authorizationState.getConstructor()
+				== TdApi.AuthorizationStateClosed.CONSTRUCTOR;
+	}
+
+	@Override
+	public TdApi.Object execute(TdApi.Function function) {
+		return new TdApi.Error(400, "Function not supported by the replay backend: " + function.getClass().getSimpleName());
+	}
+
+	private int drainImmediateEvents(int[] clientIds, long[] eventIds, TdApi.Object[] events, int count) {
+		ReplayEvent event;
+		while (count < events.length && (event = immediateEvents.poll()) != null) {
+			clientIds[count] = event.clientId;
+			eventIds[count] = event.eventId;
+			events[count] = event.event;
+			count++;
+		}
+		return count;
+	}
+
+	private static final class ReplayEvent {
+
+		private final int clientId;
+		private final long eventId;
+		private final TdApi.Object event;
+
+		private ReplayEvent(int clientId, long eventId, TdApi.Object event) {
+			this.clientId = clientId;
+			this.eventId = eventId;
+			this.event = event;
+		}
+	}
+}
@@ -0,0 +1,362 @@
+package it.tdlight.common.fake;
+
+import it.tdlight.common.ClientBackend;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Backend that runs the clients in memory, without the native library and without connecting to Telegram.
+ * Use it to benchmark and soak-test the Java side of the library.
+ * <p>
+ * The functions are answered by the handlers registered with {@link #setHandler(Class, FunctionHandler)}, the other
+ * functions by the default handler. The clients start already authorized: like TDLib, they emit their first
+ * update, {@code AuthorizationStateReady}, when they receive the first function, and they answer
+ * {@link TdApi.GetAuthorizationState} with it.
+ * {@link TdApi.Close} closes the client like TDLib does, and it's answered even when a handler is registered for it.
+ * <p>
+ * The responses can be delayed by a random latency and replaced by errors with a fixed probability. Each client can
+ * also emit a synthetic stream of updates at a fixed rate. The events of all the clients are received together, like
+ * in the native library.
+ * <p>
+ * The handlers are called by the thread that sends the function, so they must be thread safe.
+ */
+public final class FakeClientBackend implements ClientBackend, AutoCloseable {
+
+	private static final long UPDATES_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final Map<Class<?>, FunctionHandler<?>> handlers = new ConcurrentHashMap<>();
+	private final Map<Integer, FakeClient> clients = new ConcurrentHashMap<>();
+	private final DelayQueue<FakeEvent> eventsQueue = new DelayQueue<>();
+	private final AtomicInteger nextClientId = new AtomicInteger(1);
+	private final AtomicLong nextSequence = new AtomicLong();
+	private final AtomicLong receivedFunctions = new AtomicLong();
+	private final AtomicLong injectedErrors = new AtomicLong();
+
+	private volatile FunctionHandler<TdApi.Function> defaultHandler
+			= (clientId, function) -> new TdApi.Error(400, "Function not supported by the fake backend: "
+			+ function.getClass().getSimpleName());
+	private volatile long minLatencyNanos;
+	private volatile long maxLatencyNanos;
+	private volatile double errorProbability;
+	private volatile TdApi.Error injectedError = new TdApi.Error(500, "Injected error");
+	private volatile double updatesPerSecond;
+	private volatile UpdateGenerator updateGenerator;
+	private volatile Thread updatesThread;
+	private volatile boolean closed;
+
+	private FakeClientBackend() {
+	}
+
+	public static FakeClientBackend create() {
+		return new FakeClientBackend();
+	}
+
+	/**
+	 * Answer the functions of this type with the handler
+	 */
+	public <T extends TdApi.Function> void setHandler(Class<T> functionType, FunctionHandler<T> handler) {
+		handlers.put(functionType, handler);
+	}
+
+	/**
+	 * Answer the functions that don't have a handler. By default they are answered with an error with code 400
+	 */
+	public void setDefaultHandler(FunctionHandler<TdApi.Function> defaultHandler) {
+		this.defaultHandler = defaultHandler;
+	}
+
+	/**
+	 * Delay each response by a random time between min and max
+	 */
+	public void setLatency(Duration min, Duration max) {
+		if (min.isNegative() || max.compareTo(min) < 0) {
+			throw new IllegalArgumentException("Invalid latency: " + min + ", " + max);
+		}
+		this.minLatencyNanos = min.toNanos();
+		this.maxLatencyNanos = max.toNanos();
+	}
+
+	/**
+	 * Replace the responses with the error, with the specified probability
+	 */
+	public void setErrorRate(double probability, TdApi.Error error) {
+		if (probability < 0 || probability > 1) {
+			throw new IllegalArgumentException("Invalid probability: " + probability);
+		}
+		this.injectedError = error;
+		this.errorProbability = probability;
+	}
+
+	/**
+	 * Make each open client emit the updates created by the generator, at the specified rate
+	 */
+	public synchronized void setUpdates(double updatesPerSecond, UpdateGenerator updateGenerator) {
+		if (updatesPerSecond < 0) {
+			throw new IllegalArgumentException("Invalid rate: " + updatesPerSecond);
+		}
+		this.updateGenerator = updateGenerator;
+		this.updatesPerSecond = updatesPerSecond;
+		if (updatesPerSecond > 0 && updatesThread == null && !closed) {
+			Thread thread = new Thread(this::generateUpdates, "Fake TDLib updates");
+			thread.setDaemon(true);
+			thread.start();
+			this.updatesThread = thread;
+		}
+	}
+
+	/**
+	 * Emit an update from a client now
+	 */
+	public void emitUpdate(int clientId, TdApi.Object update) {
+		enqueue(clientId, 0, update, System.nanoTime());
+	}
+
+	/**
+	 * @return number of functions sent to the clients
+	 */
+	public long getReceivedFunctions() {
+		return receivedFunctions.get();
+	}
+
+	/**
+	 * @return number of responses replaced by the injected error
+	 */
+	public long getInjectedErrors() {
+		return injectedErrors.get();
+	}
+
+	@Override
+	public void start() {
+	}
+
+	@Override
+	public int createClient() {
+		int clientId = nextClientId.getAndIncrement();
+		clients.put(clientId, new FakeClient());
+		return clientId;
+	}
+
+	@Override
+	public void send(int clientId, long eventId, TdApi.Function function) {
+		receivedFunctions.incrementAndGet();
+		FakeClient client = clients.get(clientId);
+		if (client != null && !client.started) {
+			synchronized (client) {
+				if (!client.started) {
+					client.started = true;
+					emitUpdate(clientId, new TdApi.UpdateAuthorizationState(new TdApi.AuthorizationStateReady()));
+				}
+			}
+		}
+		long due = System.nanoTime() + latency();
+		if (client != null && function.getConstructor() == TdApi.Close.CONSTRUCTOR) {
+			close(clientId, client, eventId, due);
+			return;
+		}
+		TdApi.Object response;
+		double errorProbability = this.errorProbability;
+		if (errorProbability > 0 && ThreadLocalRandom.current().nextDouble() < errorProbability) {
+			injectedErrors.incrementAndGet();
+			response = injectedError;
+		} else {
+			response = handle(clientId, function);
+		}
+		if (client == null) {
+			enqueue(clientId, eventId, new TdApi.Error(500, "Request aborted"), System.nanoTime());
+			return;
+		}
+		synchronized (client) {
+			if (client.closing) {
+				response = new TdApi.Error(500, "Request aborted");
+			} else if (due - client.lastDue > 0) {
+				client.lastDue = due;
+			}
+			enqueue(clientId, eventId, response, due);
+		}
+	}
+
+	/**
+	 * Answer the close request and emit the closing updates after all the responses already scheduled, then forget
+	 * the client
+	 */
+	private void close(int clientId, FakeClient client, long eventId, long due) {
+		synchronized (client) {
+			if (client.closing) {
+				enqueue(clientId, eventId, new TdApi.Ok(), due);
+				return;
+			}
+			client.closing = true;
+			long closeDue = due - client.lastDue > 0 ? due : client.lastDue;
+			enqueue(clientId, eventId, new TdApi.Ok(), closeDue);
+			enqueue(clientId, 0, new TdApi.UpdateAuthorizationState(new TdApi.AuthorizationStateClosing()), closeDue);
+			enqueue(clientId, 0, new TdApi.UpdateAuthorizationState(new TdApi.AuthorizationStateClosed()), closeDue);
+		}
+		clients.remove(clientId);
+	}
+
+	@Override
+	public int receive(int[] clientIds, long[] eventIds, TdApi.Object[] events, double timeout) {
+		FakeEvent event;
+		try {
+			event = eventsQueue.poll((long) (timeout * 1_000_000_000L), TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 0;
+		}
+		int count = 0;
+		while (event != null) {
+			clientIds[count] = event.clientId;
+			eventIds[count] = event.eventId;
+			events[count] = event.event;
+			count++;
+			if (count >= events.length) {
+				break;
+			}
+			event = eventsQueue.poll();
+		}
+		return count;
+	}
+
+	@Override
+	public TdApi.Object execute(TdApi.Function function) {
+		receivedFunctions.incrementAndGet();
+		return handle(0, function);
+	}
+
+	/**
+	 * Stop emitting the synthetic updates
+	 */
+	@Override
+	public void close() throws InterruptedException {
+		Thread thread;
+		synchronized (this) {
+			closed = true;
+			thread = updatesThread;
+		}
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			thread.join();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private TdApi.Object handle(int clientId, TdApi.Function function) {
+		FunctionHandler<TdApi.Function> handler = (FunctionHandler<TdApi.Function>) handlers.get(function.getClass());
+		if (handler != null) {
+			return handler.handle(clientId, function);
+		}
+		if (function.getConstructor() == TdApi.GetAuthorizationState.CONSTRUCTOR) {
+			return new TdApi.AuthorizationStateReady();
+		}
+		return defaultHandler.handle(clientId, function);
+	}
+
+	private long latency() {
+		long min = minLatencyNanos;
+		long max = maxLatencyNanos;
+		if (max <= min) {
+			return min;
+		}
+		return min + ThreadLocalRandom.current().nextLong(max - min + 1);
+	}
+
+	private void enqueue(int clientId, long eventId, TdApi.Object event, long due) {
+		eventsQueue.add(new FakeEvent(clientId, eventId, event, due, nextSequence.getAndIncrement()));
+	}
+
+	private void generateUpdates() {
+		long lastTick = System.nanoTime();
+		while (!closed) {
+			LockSupport.parkNanos(UPDATES_TICK_NANOS);
+			long now = System.nanoTime();
+			double updatesPerClient = updatesPerSecond * (now - lastTick) / 1_000_000_000d;
+			lastTick = now;
+			UpdateGenerator generator = updateGenerator;
+			for (Map.Entry<Integer, FakeClient> entry : clients.entrySet()) {
+				FakeClient client = entry.getValue();
+				if (!client.started) {
+					continue;
+				}
+				client.pendingUpdates += updatesPerClient;
+				while (client.pendingUpdates >= 1) {
+					client.pendingUpdates--;
+					TdApi.Object update = generator.next(entry.getKey(), client.updatesSequence++);
+					synchronized (client) {
+						if (client.closing) {
+							break;
+						}
+						emitUpdate(entry.getKey(), update);
+					}
+				}
+			}
+		}
+	}
+
+	@FunctionalInterface
+	public interface FunctionHandler<T extends TdApi.Function> {
+
+		/**
+		 * @return the response to the function, it can be a {@link TdApi.Error}
+		 */
+		TdApi.Object handle(int clientId, T function);
+	}
+
+	@FunctionalInterface
+	public interface UpdateGenerator {
+
+		/**
+		 * @param sequence number of updates generated so far for this client
+		 * @return the next update of the client
+		 */
+		TdApi.Object next(int clientId, long sequence);
+	}
+
+	private static final class FakeClient {
+
+		// Guarded by the client, no event of the client is scheduled after its closing updates
+		private boolean closing;
+		private volatile boolean started;
+		private long lastDue = System.nanoTime();
+		// Accessed only by the updates thread
+		private double pendingUpdates;
+		private long updatesSequence;
+	}
+
+	private static final class FakeEvent implements Delayed {
+
+		private final int clientId;
+		private final long eventId;
+		private final TdApi.Object event;
+		private final long due;
+		private final long sequence;
+
+		private FakeEvent(int clientId, long eventId, TdApi.Object event, long due, long sequence) {
+			this.clientId = clientId;
+			this.eventId = eventId;
+			this.event = event;
+			this.due = due;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			FakeEvent otherEvent = (FakeEvent) other;
+			int result = Long.compare(due - otherEvent.due, 0);
+			return result != 0 ? result : Long.compare(sequence, otherEvent.sequence);
+		}
+	}
+}
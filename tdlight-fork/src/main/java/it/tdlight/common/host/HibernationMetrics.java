@@ -0,0 +1,120 @@
+package it.tdlight.common.host;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hibernation counters of a {@link SessionHost}
+ */
+public final class HibernationMetrics {
+
+	// Independent of the page size of the kernel, unlike /proc/self/statm
+	private static final Path STATUS_PATH = Paths.get("/proc/self/status");
+	private static final String RESIDENT_MEMORY_FIELD = "VmRSS:";
+
+	private final AtomicInteger hibernatedSessions = new AtomicInteger();
+	private final LongAdder hibernations = new LongAdder();
+	private final LongAdder resumes = new LongAdder();
+	private final LongAdder totalResumeNanos = new LongAdder();
+	private final AtomicLong maxResumeNanos = new AtomicLong();
+	private final LongAdder reclaimedMemoryBytes = new LongAdder();
+
+	HibernationMetrics() {
+	}
+
+	/**
+	 * @return number of sessions hibernated now
+	 */
+	public int getHibernatedSessions() {
+		return hibernatedSessions.get();
+	}
+
+	/**
+	 * @return number of times a session has been hibernated
+	 */
+	public long getHibernations() {
+		return hibernations.sum();
+	}
+
+	/**
+	 * @return number of times a session has been resumed
+	 */
+	public long getResumes() {
+		return resumes.sum();
+	}
+
+	/**
+	 * @return average time from the first request to a hibernated session until the session is ready again
+	 */
+	public Duration getAverageResumeLatency() {
+		long resumes = this.resumes.sum();
+		return Duration.ofNanos(resumes == 0 ? 0 : totalResumeNanos.sum() / resumes);
+	}
+
+	public Duration getMaxResumeLatency() {
+		return Duration.ofNanos(maxResumeNanos.get());
+	}
+
+	/**
+	 * Estimate of the memory freed by the hibernations, measured as the decrease of the resident memory of the process
+	 * while each session was closing. It's 0 when the resident memory can't be read, for example outside of Linux.
+	 */
+	public long getReclaimedMemoryBytes() {
+		return reclaimedMemoryBytes.sum();
+	}
+
+	void onHibernated() {
+		hibernatedSessions.incrementAndGet();
+		hibernations.increment();
+	}
+
+	/**
+	 * Add the decrease of the resident memory since the session started hibernating. It reads the memory from the OS,
+	 * don't call it with a lock held
+	 */
+	void onMemoryReclaimed(long residentBytesBefore) {
+		long residentBytesAfter = residentMemoryBytes();
+		if (residentBytesBefore >= 0 && residentBytesAfter >= 0 && residentBytesBefore > residentBytesAfter) {
+			reclaimedMemoryBytes.add(residentBytesBefore - residentBytesAfter);
+		}
+	}
+
+	void onResumed(long resumeNanos) {
+		resumes.increment();
+		totalResumeNanos.add(resumeNanos);
+		maxResumeNanos.accumulateAndGet(resumeNanos, Math::max);
+	}
+
+	void onHibernationEnded() {
+		hibernatedSessions.decrementAndGet();
+	}
+
+	/**
+	 * @return resident memory of the process, or -1 if it's not available
+	 */
+	static long residentMemoryBytes() {
+		try {
+			for (String line : Files.readAllLines(STATUS_PATH, StandardCharsets.US_ASCII)) {
+				if (line.startsWith(RESIDENT_MEMORY_FIELD)) {
+					// For example "VmRSS:     123456 kB"
+					String value = line.substring(RESIDENT_MEMORY_FIELD.length()).trim();
+					int unitStart = value.indexOf(' ');
+					if (unitStart == -1 || !value.substring(unitStart + 1).trim().equals("kB")) {
+						return -1;
+					}
+					return Long.parseLong(value.substring(0, unitStart)) * 1024;
+				}
+			}
+			return -1;
+		} catch (IOException | RuntimeException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,481 @@
+package it.tdlight.common.host;
+
+import it.tdlight.common.ChatOrderedExecutor;
+import it.tdlight.common.ExceptionHandler;
+import it.tdlight.common.ResultHandler;
+import it.tdlight.common.TelegramClient;
+import it.tdlight.common.RequestsCoalescing;
+import it.tdlight.common.UpdatesConflation;
+import it.tdlight.common.internal.InternalClient;
+import it.tdlight.common.internal.InternalClientManager;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Account hosted by a {@link SessionHost}.
+ * <p>
+ * At most {@link SessionHostSettings#getMaxInFlightRequests()} requests of the session are sent to TDLib at the same
+ * time, the other ones wait in a queue and are sent, in order, when the responses arrive. The timeout of a queued
+ * request starts when the request is sent. When the queue is full the requests are answered immediately with a
+ * {@code TdApi.Error(429, "Too Many Requests")}.
+ * <p>
+ * A session opened with TDLib parameters answers {@code AuthorizationStateWaitTdlibParameters} and
+ * {@code AuthorizationStateWaitEncryptionKey} by itself, and it can be hibernated when it's idle: its client is
+ * closed and the next request opens a new client on the same database. The requests wait in the queue until the new
+ * client is ready, and the authorization updates of the hibernation and of the resume are not passed to the update
+ * handler.
+ */
+public final class Session<K> implements TelegramClient {
+
+	private enum State {
+		ACTIVE,
+		HIBERNATING,
+		HIBERNATED,
+		RESUMING,
+		CLOSING,
+		CLOSED
+	}
+
+	private final K key;
+	private final InternalClientManager clientManager;
+	private final TdApi.TdlibParameters parameters;
+	private final HibernationMetrics hibernationMetrics;
+	private final Consumer<Session<K>> closeHandler;
+	private final int maxInFlightRequests;
+	private final int maxQueuedRequests;
+	private final UpdatesConflation updatesConflation;
+	private final RequestsCoalescing requestsCoalescing;
+	private final CompletableFuture<Void> closeFuture = new CompletableFuture<>();
+	// Not initialized, it only executes the synchronous functions, that don't need a client
+	private final InternalClient synchronousClient;
+
+	private ResultHandler updateHandler;
+	private ExceptionHandler updateExceptionHandler;
+	private ExceptionHandler defaultExceptionHandler;
+	private ChatOrderedExecutor updatesExecutor;
+
+	// Guarded by this
+	private InternalClient client;
+	private State state = State.ACTIVE;
+	private boolean authorized;
+	private int inFlightRequests;
+	private final ArrayDeque<QueuedRequest> queuedRequests = new ArrayDeque<>();
+	private long resumeStartNanos;
+	private long residentBytesBeforeHibernation;
+
+	private volatile long lastActivityNanos = System.nanoTime();
+
+	Session(K key,
+			InternalClientManager clientManager,
+			SessionHostSettings settings,
+			TdApi.TdlibParameters parameters,
+			HibernationMetrics hibernationMetrics,
+			Consumer<Session<K>> closeHandler) {
+		this.key = key;
+		this.clientManager = clientManager;
+		this.parameters = parameters;
+		this.hibernationMetrics = hibernationMetrics;
+		this.closeHandler = closeHandler;
+		this.maxInFlightRequests = settings.getMaxInFlightRequests();
+		this.maxQueuedRequests = settings.getMaxQueuedRequests();
+		this.updatesConflation = settings.getUpdatesConflation();
+		this.requestsCoalescing = settings.getRequestsCoalescing();
+		this.synchronousClient = new InternalClient(clientManager);
+	}
+
+	void initialize(ResultHandler updateHandler,
+			ExceptionHandler updateExceptionHandler,
+			ExceptionHandler defaultExceptionHandler,
+			ChatOrderedExecutor updatesExecutor) {
+		this.updateHandler = updateHandler;
+		this.updateExceptionHandler = updateExceptionHandler;
+		this.defaultExceptionHandler = defaultExceptionHandler;
+		this.updatesExecutor = updatesExecutor;
+		synchronized (this) {
+			startClient();
+		}
+	}
+
+	public K getKey() {
+		return key;
+	}
+
+	/**
+	 * @return id of the current client of the session, it changes when the session is resumed
+	 */
+	public synchronized int getClientId() {
+		return client.getClientId();
+	}
+
+	public synchronized boolean isHibernated() {
+		return state == State.HIBERNATING || state == State.HIBERNATED;
+	}
+
+	/**
+	 * @return number of requests sent to TDLib and still waiting for a response
+	 */
+	public synchronized int getInFlightRequests() {
+		return inFlightRequests;
+	}
+
+	/**
+	 * @return number of requests waiting to be sent
+	 */
+	public synchronized int getQueuedRequests() {
+		return queuedRequests.size();
+	}
+
+	@Override
+	public void send(TdApi.Function query, ResultHandler resultHandler, ExceptionHandler exceptionHandler) {
+		sendLimited(Objects.requireNonNull(query), resultHandler, exceptionHandler, null);
+	}
+
+	@Override
+	public void send(TdApi.Function query,
+			ResultHandler resultHandler,
+			ExceptionHandler exceptionHandler,
+			Duration timeout) {
+		sendLimited(Objects.requireNonNull(query), resultHandler, exceptionHandler, Objects.requireNonNull(timeout));
+	}
+
+	public TdApi.Object execute(TdApi.Function query) {
+		return synchronousClient.execute(query);
+	}
+
+	private void sendLimited(TdApi.Function query,
+			ResultHandler resultHandler,
+			ExceptionHandler exceptionHandler,
+			Duration timeout) {
+		lastActivityNanos = System.nanoTime();
+		InternalClient client;
+		synchronized (this) {
+			if (state == State.CLOSED) {
+				throw new IllegalStateException("The session is closed!");
+			}
+			boolean canSend = state == State.ACTIVE || state == State.CLOSING;
+			if (canSend && queuedRequests.isEmpty() && inFlightRequests < maxInFlightRequests) {
+				inFlightRequests++;
+				client = this.client;
+			} else {
+				if (state == State.HIBERNATED) {
+					resume();
+				}
+				if (queuedRequests.size() < maxQueuedRequests) {
+					queuedRequests.add(new QueuedRequest(query, resultHandler, exceptionHandler, timeout));
+					return;
+				}
+				client = null;
+			}
+		}
+		if (client != null) {
+			sendNow(client, query, resultHandler, exceptionHandler, timeout, true);
+		} else {
+			answer(resultHandler, exceptionHandler, new TdApi.Error(429, "Too Many Requests"));
+		}
+	}
+
+	/**
+	 * Close the session. The close request is sent immediately, even when the session has too many requests in flight.
+	 *
+	 * @return a future completed when the session has been closed
+	 */
+	public CompletableFuture<Void> close() {
+		InternalClient client;
+		synchronized (this) {
+			switch (state) {
+				case CLOSING:
+				case CLOSED:
+					return closeFuture;
+				case HIBERNATING:
+					// The client is already closing
+					state = State.CLOSING;
+					return closeFuture;
+				case HIBERNATED:
+					hibernationMetrics.onHibernationEnded();
+					state = State.CLOSED;
+					client = null;
+					break;
+				default:
+					state = State.CLOSING;
+					client = this.client;
+					break;
+			}
+		}
+		if (client != null) {
+			client.send(new TdApi.Close(), result -> {}, ex -> {});
+		} else {
+			completeClose();
+		}
+		return closeFuture;
+	}
+
+	/**
+	 * Hibernate the session if it's authorized, it has no pending requests and it has been idle for the timeout
+	 *
+	 * @return true if the session is hibernating
+	 */
+	boolean hibernateIfIdle(long idleTimeoutNanos) {
+		if (parameters == null || System.nanoTime() - lastActivityNanos < idleTimeoutNanos) {
+			return false;
+		}
+		synchronized (this) {
+			if (!canHibernate()) {
+				return false;
+			}
+		}
+		// Read from the OS without holding the lock, that is taken by every request
+		long residentBytes = HibernationMetrics.residentMemoryBytes();
+		InternalClient client;
+		synchronized (this) {
+			// A request may have arrived in the meantime
+			if (!canHibernate()) {
+				return false;
+			}
+			state = State.HIBERNATING;
+			residentBytesBeforeHibernation = residentBytes;
+			client = this.client;
+		}
+		client.send(new TdApi.Close(), result -> {}, ex -> {});
+		return true;
+	}
+
+	// Called with the lock held
+	private boolean canHibernate() {
+		return state == State.ACTIVE && authorized && inFlightRequests == 0 && queuedRequests.isEmpty();
+	}
+
+	// Called with the lock held
+	private void startClient() {
+		InternalClient client = new InternalClient(clientManager);
+		this.client = client;
+		this.authorized = false;
+		client.setUpdatesConflation(updatesConflation);
+		client.setRequestsCoalescing(requestsCoalescing);
+		client.initialize(update -> handleUpdate(client, update),
+				updateExceptionHandler,
+				defaultExceptionHandler,
+				updatesExecutor
+		);
+		client.getCloseFuture().thenRun(() -> handleClientClosed(client));
+	}
+
+	// Called with the lock held
+	private void resume() {
+		state = State.RESUMING;
+		resumeStartNanos = System.nanoTime();
+		try {
+			startClient();
+		} catch (RuntimeException ex) {
+			state = State.HIBERNATED;
+			throw ex;
+		}
+		hibernationMetrics.onHibernationEnded();
+	}
+
+	private void handleUpdate(InternalClient client, TdApi.Object update) {
+		lastActivityNanos = System.nanoTime();
+		if (update.getConstructor() == TdApi.UpdateAuthorizationState.CONSTRUCTOR) {
+			TdApi.AuthorizationState authorizationState = ((TdApi.UpdateAuthorizationState) update).authorizationState;
+			if (!handleAuthorizationState(client, authorizationState)) {
+				return;
+			}
+		}
+		updateHandler.onResult(update);
+	}
+
+	/**
+	 * @return true if the update must be passed to the update handler
+	 */
+	private boolean handleAuthorizationState(InternalClient client, TdApi.AuthorizationState authorizationState) {
+		boolean resumed = false;
+		boolean forward;
+		synchronized (this) {
+			if (client != this.client) {
+				// Late update of a hibernated client
+				return false;
+			}
+			switch (authorizationState.getConstructor()) {
+				case TdApi.AuthorizationStateWaitTdlibParameters.CONSTRUCTOR:
+					if (parameters != null) {
+						client.send(new TdApi.SetTdlibParameters(parameters), this::checkAuthorizationResult, null);
+					}
+					forward = state != State.RESUMING;
+					break;
+				case TdApi.AuthorizationStateWaitEncryptionKey.CONSTRUCTOR:
+					if (parameters != null) {
+						client.send(new TdApi.CheckDatabaseEncryptionKey(), this::checkAuthorizationResult, null);
+					}
+					forward = state != State.RESUMING;
+					break;
+				case TdApi.AuthorizationStateReady.CONSTRUCTOR:
+					authorized = true;
+					forward = state != State.RESUMING;
+					resumed = state == State.RESUMING;
+					break;
+				case TdApi.AuthorizationStateClosing.CONSTRUCTOR:
+				case TdApi.AuthorizationStateClosed.CONSTRUCTOR:
+					authorized = false;
+					forward = state != State.HIBERNATING && state != State.HIBERNATED;
+					break;
+				default:
+					// The session needs to be authorized again, the requests are sent anyway
+					authorized = false;
+					forward = true;
+					resumed = state == State.RESUMING;
+					break;
+			}
+			if (resumed) {
+				state = State.ACTIVE;
+				hibernationMetrics.onResumed(System.nanoTime() - resumeStartNanos);
+			}
+		}
+		if (resumed) {
+			sendQueuedRequests();
+		}
+		return forward;
+	}
+
+	private void checkAuthorizationResult(TdApi.Object result) {
+		if (result.getConstructor() == TdApi.Error.CONSTRUCTOR) {
+			TdApi.Error error = (TdApi.Error) result;
+			throw new IllegalStateException("Session " + key + " authorization failed: " + error.code + " " + error.message);
+		}
+	}
+
+	private void handleClientClosed(InternalClient client) {
+		boolean hibernated;
+		long residentBytesBefore = -1;
+		synchronized (this) {
+			if (client != this.client) {
+				return;
+			}
+			authorized = false;
+			hibernated = state == State.HIBERNATING;
+			if (hibernated) {
+				state = State.HIBERNATED;
+				hibernationMetrics.onHibernated();
+				residentBytesBefore = residentBytesBeforeHibernation;
+				if (!queuedRequests.isEmpty()) {
+					resume();
+				}
+			} else {
+				state = State.CLOSED;
+			}
+		}
+		if (hibernated) {
+			hibernationMetrics.onMemoryReclaimed(residentBytesBefore);
+		} else {
+			completeClose();
+		}
+	}
+
+	private void completeClose() {
+		failQueuedRequests();
+		closeHandler.accept(this);
+		closeFuture.complete(null);
+	}
+
+	private void sendNow(InternalClient client,
+			TdApi.Function query,
+			ResultHandler resultHandler,
+			ExceptionHandler exceptionHandler,
+			Duration timeout,
+			boolean fromCaller) {
+		// The client calls the handler exactly once, with the response, the timeout error or the close error
+		ResultHandler releasingHandler = result -> {
+			try {
+				if (resultHandler != null) {
+					resultHandler.onResult(result);
+				}
+			} finally {
+				releaseRequest();
+			}
+		};
+		try {
+			client.send(query, releasingHandler, exceptionHandler, timeout);
+		} catch (RuntimeException ex) {
+			releaseRequest();
+			if (fromCaller) {
+				throw ex;
+			}
+			answer(resultHandler, exceptionHandler, new TdApi.Error(500, "Instance closed"));
+		}
+	}
+
+	private void releaseRequest() {
+		synchronized (this) {
+			inFlightRequests--;
+		}
+		sendQueuedRequests();
+	}
+
+	private void sendQueuedRequests() {
+		while (true) {
+			InternalClient client;
+			QueuedRequest request;
+			synchronized (this) {
+				if ((state != State.ACTIVE && state != State.CLOSING) || inFlightRequests >= maxInFlightRequests) {
+					return;
+				}
+				request = queuedRequests.poll();
+				if (request == null) {
+					return;
+				}
+				inFlightRequests++;
+				client = this.client;
+			}
+			sendNow(client, request.query, request.resultHandler, request.exceptionHandler, request.timeout, false);
+		}
+	}
+
+	private void failQueuedRequests() {
+		while (true) {
+			QueuedRequest request;
+			synchronized (this) {
+				request = queuedRequests.poll();
+			}
+			if (request == null) {
+				return;
+			}
+			answer(request.resultHandler, request.exceptionHandler, new TdApi.Error(500, "Instance closed"));
+		}
+	}
+
+	private void answer(ResultHandler resultHandler, ExceptionHandler exceptionHandler, TdApi.Object result) {
+		if (resultHandler == null) {
+			return;
+		}
+		try {
+			resultHandler.onResult(result);
+		} catch (Throwable cause) {
+			ExceptionHandler handler = exceptionHandler != null ? exceptionHandler : defaultExceptionHandler;
+			if (handler != null) {
+				try {
+					handler.onException(cause);
+				} catch (Throwable ignored) {}
+			}
+		}
+	}
+
+	private static final class QueuedRequest {
+
+		private final TdApi.Function query;
+		private final ResultHandler resultHandler;
+		private final ExceptionHandler exceptionHandler;
+		private final Duration timeout;
+
+		private QueuedRequest(TdApi.Function query,
+				ResultHandler resultHandler,
+				ExceptionHandler exceptionHandler,
+				Duration timeout) {
+			this.query = query;
+			this.resultHandler = resultHandler;
+			this.exceptionHandler = exceptionHandler;
+			this.timeout = timeout;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package it.tdlight.common.host;
+
+import it.tdlight.common.ChatOrderedExecutor;
+import it.tdlight.common.ExceptionHandler;
+import it.tdlight.common.ResultHandler;
+import it.tdlight.common.internal.InternalClientManager;
+import it.tdlight.common.utils.HashedWheelTimer;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hosts many accounts in the same JVM with a fixed number of threads.
+ * <p>
+ * The sessions share the response receiver and the timer of the client manager, and the update handlers of all the
+ * sessions run on the same {@link ChatOrderedExecutor}, so the number of threads doesn't depend on the number of
+ * sessions. The responses are handled on the receiver thread, the update handlers must not block it for long.
+ * <p>
+ * When {@link SessionHostSettings#setIdleTimeout(Duration)} is set, the idle sessions opened with TDLib parameters
+ * are hibernated to free their native memory and database handles, and resumed by their next request. The idle
+ * sessions are looked for by a thread of the host, the timer of the client manager only starts the checks.
+ *
+ * @param <K> type of the key of the sessions, for example the phone number or the user id of the account
+ */
+public final class SessionHost<K> implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(SessionHost.class);
+
+	private final SessionHostSettings settings;
+	private final InternalClientManager clientManager;
+	private final ChatOrderedExecutor updatesExecutor;
+	private final ConcurrentHashMap<K, Session<K>> sessions = new ConcurrentHashMap<>();
+	private final HibernationMetrics hibernationMetrics = new HibernationMetrics();
+	private final long idleTimeoutNanos;
+	private final ExecutorService hibernationExecutor;
+	private volatile HashedWheelTimer.Timeout hibernationTimeout;
+	private volatile boolean closed;
+
+	private SessionHost(SessionHostSettings settings) {
+		if (settings.getMaxInFlightRequests() < 1 || settings.getMaxQueuedRequests() < 0) {
+			throw new IllegalArgumentException("Invalid requests limits");
+		}
+		this.settings = settings;
+		this.clientManager = InternalClientManager.get(settings.getImplementationName());
+		this.updatesExecutor = new ChatOrderedExecutor(settings.getUpdateThreads(),
+				settings.getLaneCapacity(),
+				settings.getBackpressurePolicy()
+		);
+		Duration idleTimeout = settings.getIdleTimeout();
+		if (idleTimeout != null) {
+			this.idleTimeoutNanos = idleTimeout.toNanos();
+			this.hibernationExecutor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "TDLib session hibernation");
+				thread.setDaemon(true);
+				return thread;
+			});
+			scheduleHibernation();
+		} else {
+			this.idleTimeoutNanos = 0;
+			this.hibernationExecutor = null;
+		}
+	}
+
+	public static <K> SessionHost<K> create(SessionHostSettings settings) {
+		return new SessionHost<>(settings);
+	}
+
+	/**
+	 * Open a new session.
+	 *
+	 * @param updateHandler           Handler in which the updates are received, on the update threads of the host
+	 * @param updateExceptionHandler  Handler in which the errors from updates are received
+	 * @param defaultExceptionHandler Handler that receives exceptions triggered in a handler
+	 * @throws IllegalStateException if a session with the same key is already open, or the host is closed
+	 */
+	public Session<K> open(K key,
+			ResultHandler updateHandler,
+			ExceptionHandler updateExceptionHandler,
+			ExceptionHandler defaultExceptionHandler) {
+		return open(key, null, updateHandler, updateExceptionHandler, defaultExceptionHandler);
+	}
+
+	/**
+	 * Open a new session that sets the TDLib parameters by itself, and can be hibernated when it's idle.
+	 *
+	 * @param parameters              TDLib parameters of the session, for example from
+	 *                                {@code TDLibSettings.toTdlibParameters()}
+	 * @param updateHandler           Handler in which the updates are received, on the update threads of the host
+	 * @param updateExceptionHandler  Handler in which the errors from updates are received
+	 * @param defaultExceptionHandler Handler that receives exceptions triggered in a handler
+	 * @throws IllegalStateException if a session with the same key is already open, or the host is closed
+	 */
+	public Session<K> open(K key,
+			TdApi.TdlibParameters parameters,
+			ResultHandler updateHandler,
+			ExceptionHandler updateExceptionHandler,
+			ExceptionHandler defaultExceptionHandler) {
+		if (closed) {
+			throw new IllegalStateException("The session host is closed");
+		}
+		Session<K> session = new Session<>(key, clientManager, settings, parameters, hibernationMetrics, this::remove);
+		if (sessions.putIfAbsent(key, session) != null) {
+			throw new IllegalStateException("Session " + key + " is already open");
+		}
+		try {
+			session.initialize(updateHandler, updateExceptionHandler, defaultExceptionHandler, updatesExecutor);
+		} catch (RuntimeException ex) {
+			sessions.remove(key, session);
+			throw ex;
+		}
+		return session;
+	}
+
+	private void remove(Session<K> session) {
+		sessions.remove(session.getKey(), session);
+		logger.debug("Session {} closed", session.getKey());
+	}
+
+	/**
+	 * @return the open session with this key, or null
+	 */
+	public Session<K> get(K key) {
+		return sessions.get(key);
+	}
+
+	public Set<K> getKeys() {
+		return Collections.unmodifiableSet(sessions.keySet());
+	}
+
+	public Collection<Session<K>> getSessions() {
+		return Collections.unmodifiableCollection(sessions.values());
+	}
+
+	public HibernationMetrics getHibernationMetrics() {
+		return hibernationMetrics;
+	}
+
+	/**
+	 * Close the session with this key, if it's open
+	 *
+	 * @return a future completed when the session has been closed
+	 */
+	public CompletableFuture<Void> close(K key) {
+		Session<K> session = sessions.get(key);
+		if (session == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return session.close();
+	}
+
+	/**
+	 * Close all the sessions, wait until they are closed, then stop the update threads
+	 */
+	@Override
+	public void close() throws InterruptedException {
+		closed = true;
+		HashedWheelTimer.Timeout hibernationTimeout = this.hibernationTimeout;
+		if (hibernationTimeout != null) {
+			hibernationTimeout.cancel();
+		}
+		if (hibernationExecutor != null) {
+			hibernationExecutor.shutdown();
+		}
+		List<CompletableFuture<Void>> closeFutures = new ArrayList<>(sessions.size());
+		for (Session<K> session : sessions.values()) {
+			closeFutures.add(session.close());
+		}
+		try {
+			CompletableFuture.allOf(closeFutures.toArray(new CompletableFuture<?>[0])).get();
+		} catch (ExecutionException e) {
+			logger.error("Failed to close the sessions", e.getCause());
+		}
+		updatesExecutor.close();
+	}
+
+	/**
+	 * Check the idle sessions a few times per idle timeout. The timer of the client manager only hands the check off to
+	 * the hibernation thread, because it reads the memory usage and sends requests for each idle session
+	 */
+	private void scheduleHibernation() {
+		long intervalNanos = Math.max(idleTimeoutNanos / 4, TimeUnit.MILLISECONDS.toNanos(10));
+		hibernationTimeout = clientManager.getTimer().schedule(() -> {
+			try {
+				hibernationExecutor.execute(this::hibernateIdleSessions);
+			} catch (RejectedExecutionException ex) {
+				logger.debug("The session host is closed, the idle sessions are not checked anymore");
+			}
+		}, intervalNanos, TimeUnit.NANOSECONDS);
+		if (closed) {
+			// The host has been closed while the check was running
+			hibernationTimeout.cancel();
+		}
+	}
+
+	private void hibernateIdleSessions() {
+		if (closed) {
+			return;
+		}
+		try {
+			for (Session<K> session : sessions.values()) {
+				if (session.hibernateIfIdle(idleTimeoutNanos)) {
+					logger.debug("Session {} hibernated", session.getKey());
+				}
+			}
+		} catch (Throwable ex) {
+			logger.error("Failed to hibernate the idle sessions", ex);
+		}
+		scheduleHibernation();
+	}
+}
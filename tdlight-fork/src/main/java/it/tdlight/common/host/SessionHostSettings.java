@@ -0,0 +1,137 @@
+package it.tdlight.common.host;
+
+import it.tdlight.common.ChatOrderedExecutor.BackpressurePolicy;
+import it.tdlight.common.RequestsCoalescing;
+import it.tdlight.common.UpdatesConflation;
+import java.time.Duration;
+
+/**
+ * Settings of a {@link SessionHost}
+ */
+@SuppressWarnings("unused")
+public final class SessionHostSettings {
+
+	private String implementationName;
+	private int updateThreads;
+	private int laneCapacity;
+	private BackpressurePolicy backpressurePolicy;
+	private int maxInFlightRequests;
+	private int maxQueuedRequests;
+	private Duration idleTimeout;
+	private UpdatesConflation updatesConflation;
+	private RequestsCoalescing requestsCoalescing;
+
+	private SessionHostSettings() {
+		this.implementationName = "tdlight";
+		this.updateThreads = Runtime.getRuntime().availableProcessors();
+		this.laneCapacity = 1024;
+		this.backpressurePolicy = BackpressurePolicy.BLOCK;
+		this.maxInFlightRequests = 64;
+		this.maxQueuedRequests = 4096;
+	}
+
+	public static SessionHostSettings create() {
+		return new SessionHostSettings();
+	}
+
+	public String getImplementationName() {
+		return implementationName;
+	}
+
+	public void setImplementationName(String implementationName) {
+		this.implementationName = implementationName;
+	}
+
+	public int getUpdateThreads() {
+		return updateThreads;
+	}
+
+	/**
+	 * Number of threads that run the update handlers of all the sessions
+	 */
+	public void setUpdateThreads(int updateThreads) {
+		this.updateThreads = updateThreads;
+	}
+
+	public int getLaneCapacity() {
+		return laneCapacity;
+	}
+
+	/**
+	 * Maximum number of updates waiting for each update thread
+	 */
+	public void setLaneCapacity(int laneCapacity) {
+		this.laneCapacity = laneCapacity;
+	}
+
+	public BackpressurePolicy getBackpressurePolicy() {
+		return backpressurePolicy;
+	}
+
+	public void setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+		this.backpressurePolicy = backpressurePolicy;
+	}
+
+	public int getMaxInFlightRequests() {
+		return maxInFlightRequests;
+	}
+
+	/**
+	 * Maximum number of requests of a session sent to TDLib and still waiting for a response
+	 */
+	public void setMaxInFlightRequests(int maxInFlightRequests) {
+		this.maxInFlightRequests = maxInFlightRequests;
+	}
+
+	public int getMaxQueuedRequests() {
+		return maxQueuedRequests;
+	}
+
+	/**
+	 * Maximum number of requests of a session waiting to be sent because the session has too many requests in flight.
+	 * The requests over this limit are answered with an error with code 429.
+	 */
+	public void setMaxQueuedRequests(int maxQueuedRequests) {
+		this.maxQueuedRequests = maxQueuedRequests;
+	}
+
+	public Duration getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * Hibernate the sessions opened with TDLib parameters after this time without requests and updates.
+	 * A hibernated session is closed, and it's opened again by its next request. By default the sessions never hibernate.
+	 *
+	 * @param idleTimeout idle time before the hibernation, or null to disable the hibernation
+	 */
+	public void setIdleTimeout(Duration idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public UpdatesConflation getUpdatesConflation() {
+		return updatesConflation;
+	}
+
+	/**
+	 * Conflate the updates of all the sessions, by default every update is handled
+	 *
+	 * @param updatesConflation conflation settings, or null to disable the conflation
+	 */
+	public void setUpdatesConflation(UpdatesConflation updatesConflation) {
+		this.updatesConflation = updatesConflation;
+	}
+
+	public RequestsCoalescing getRequestsCoalescing() {
+		return requestsCoalescing;
+	}
+
+	/**
+	 * Coalesce the identical requests in flight of each session, by default every request is sent
+	 *
+	 * @param requestsCoalescing coalescing settings, or null to disable the coalescing
+	 */
+	public void setRequestsCoalescing(RequestsCoalescing requestsCoalescing) {
+		this.requestsCoalescing = requestsCoalescing;
+	}
+}
@@ -0,0 +1,204 @@
+package it.tdlight.common.internal;
+
+import it.tdlight.common.EventsHandler;
+import it.tdlight.common.UpdatesConflation;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import org.drinkless.td.libcore.telegram.TdApi;
+import org.drinkless.td.libcore.telegram.TdApi.Object;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Groups a batch of events received from TDLib by client, then passes each group to the events handler, in order of
+ * first appearance of the client.
+ * <p>
+ * With the priority lanes each group is split again in three lanes, preserving the order inside each lane: the
+ * responses, then the lifecycle updates ({@code UpdateAuthorizationState} and {@code UpdateConnectionState}), then the
+ * other updates. The responses of all the clients of the batch are passed first, then the lifecycle updates of all the
+ * clients, then the other updates, so a response never waits behind the bulk updates of an initial sync. The closed
+ * flag is passed with the last group of the client.
+ */
+final class ClientEventsDispatcher {
+
+	private static final int RESPONSES_LANE = 0;
+	private static final int LIFECYCLE_LANE = 1;
+	private static final int UPDATES_LANE = 2;
+	private static final int PRIORITY_LANES_COUNT = 3;
+
+	private final EventsHandler eventsHandler;
+	private final int lanesCount;
+
+	// Events of the current batch grouped by client and lane, reused by every batch
+	private long[] clientEventIds;
+	private TdApi.Object[] clientEvents;
+	// Bucket of each event of the current batch, a bucket is a lane of a slot
+	private int[] eventBuckets;
+	// Per-slot data of the distinct clients found in the current batch
+	private int[] slotClientIds;
+	private boolean[] slotClosed;
+	// Per-bucket data
+	private int[] bucketEventsCount;
+	private int[] bucketOffsets;
+	private int[] bucketCursors;
+	private final Int2IntOpenHashMap clientSlots = new Int2IntOpenHashMap();
+
+	/**
+	 * @param priorityLanes pass the responses and the lifecycle updates before the other updates
+	 */
+	ClientEventsDispatcher(EventsHandler eventsHandler, int capacity, boolean priorityLanes) {
+		this.eventsHandler = eventsHandler;
+		this.lanesCount = priorityLanes ? PRIORITY_LANES_COUNT : 1;
+		this.clientSlots.defaultReturnValue(-1);
+		resize(capacity);
+	}
+
+	/**
+	 * Replace the buffers, this is done only when the batch size changes
+	 */
+	public void resize(int capacity) {
+		this.clientEventIds = new long[capacity];
+		this.clientEvents = new TdApi.Object[capacity];
+		this.eventBuckets = new int[capacity];
+		this.slotClientIds = new int[capacity];
+		this.slotClosed = new boolean[capacity];
+		this.bucketEventsCount = new int[capacity * lanesCount];
+		this.bucketOffsets = new int[capacity * lanesCount];
+		this.bucketCursors = new int[capacity * lanesCount];
+	}
+
+	/**
+	 * Group the events by client id, and by lane, with a stable bucketing pass, then dispatch each group.
+	 * This method doesn't allocate after the first batches, all the buffers are reused until the batch size changes.
+	 */
+	public void dispatch(int[] clientIds, long[] eventIds, TdApi.Object[] events, int resultsCount) {
+		int lanesCount = this.lanesCount;
+		// Assign a slot to each distinct client, in order of first appearance, and count the events of its lanes
+		int slotsCount = 0;
+		int lastClientId = 0;
+		int lastSlot = -1;
+		for (int i = 0; i < resultsCount; i++) {
+			int clientId = clientIds[i];
+			int slot;
+			if (lastSlot != -1 && clientId == lastClientId) {
+				slot = lastSlot;
+			} else {
+				slot = clientSlots.get(clientId);
+				if (slot == -1) {
+					slot = slotsCount++;
+					clientSlots.put(clientId, slot);
+					slotClientIds[slot] = clientId;
+					slotClosed[slot] = false;
+					for (int lane = 0; lane < lanesCount; lane++) {
+						bucketEventsCount[slot * lanesCount + lane] = 0;
+					}
+				}
+				lastClientId = clientId;
+				lastSlot = slot;
+			}
+			int bucket = lanesCount == 1 ? slot : slot * lanesCount + getLane(eventIds[i], events[i]);
+			eventBuckets[i] = bucket;
+			bucketEventsCount[bucket]++;
+		}
+
+		int bucketsCount = slotsCount * lanesCount;
+		int offset = 0;
+		for (int bucket = 0; bucket < bucketsCount; bucket++) {
+			bucketOffsets[bucket] = offset;
+			bucketCursors[bucket] = offset;
+			offset += bucketEventsCount[bucket];
+		}
+
+		// Copy the events in their bucket, preserving their original order
+		for (int i = 0; i < resultsCount; i++) {
+			int bucket = eventBuckets[i];
+			int position = bucketCursors[bucket]++;
+			long eventId = eventIds[i];
+			TdApi.Object event = events[i];
+			clientEventIds[position] = eventId;
+			clientEvents[position] = event;
+			if (eventId == 0 && isClosedEvent(event)) {
+				slotClosed[bucket / lanesCount] = true;
+			}
+		}
+
+		for (int lane = 0; lane < lanesCount; lane++) {
+			boolean lastLane = lane == lanesCount - 1;
+			for (int slot = 0; slot < slotsCount; slot++) {
+				int bucket = slot * lanesCount + lane;
+				int eventsCount = bucketEventsCount[bucket];
+				boolean closed = lastLane && slotClosed[slot];
+				if (eventsCount > 0 || closed) {
+					eventsHandler.handleClientEvents(slotClientIds[slot],
+							closed,
+							clientEventIds,
+							clientEvents,
+							bucketOffsets[bucket],
+							eventsCount
+					);
+				}
+			}
+		}
+
+		// Removing the keys one by one would shrink the table, clear() keeps its capacity
+		clientSlots.clear();
+		Arrays.fill(clientEvents, 0, resultsCount, null);
+	}
+
+	public void dispatchUnoptimized(int[] clientIds, long[] eventIds, TdApi.Object[] events, int resultsCount) {
+		class Event {
+
+			public final int clientId;
+			public final long eventId;
+			public final Object event;
+
+			public Event(int clientId, long eventId, Object event) {
+				this.clientId = clientId;
+				this.eventId = eventId;
+				this.event = event;
+			}
+		}
+
+		List<Event> eventsList = new ArrayList<>(resultsCount);
+		for (int i = 0; i < resultsCount; i++) {
+			eventsList.add(new Event(clientIds[i], eventIds[i], events[i]));
+		}
+		Set<Integer> distinctClientIds = eventsList.stream().map(e -> e.clientId).collect(Collectors.toSet());
+		for (int clientId : distinctClientIds) {
+			List<Event> clientEventsList = eventsList.stream().filter(e -> e.clientId == clientId).collect(Collectors.toList());
+			long[] clientEventIds = new long[clientEventsList.size()];
+			Object[] clientEvents = new Object[clientEventsList.size()];
+			boolean closed = false;
+			for (int i = 0; i < clientEventsList.size(); i++) {
+				Event e = clientEventsList.get(i);
+				clientEventIds[i] = e.eventId;
+				clientEvents[i] = e.event;
+
+				if (e.eventId == 0 && isClosedEvent(e.event)) {
+					closed = true;
+				}
+			}
+			eventsHandler.handleClientEvents(clientId, closed, clientEventIds, clientEvents, 0, clientEvents.length);
+		}
+	}
+
+	private static int getLane(long eventId, TdApi.Object event) {
+		if (eventId != 0) {
+			return RESPONSES_LANE;
+		} else if (UpdatesConflation.isLifecycleUpdate(event.getConstructor())) {
+			return LIFECYCLE_LANE;
+		} else {
+			return UPDATES_LANE;
+		}
+	}
+
+	private static boolean isClosedEvent(TdApi.Object event) {
+		if (event instanceof TdApi.UpdateAuthorizationState) {
+			TdApi.AuthorizationState authorizationState = ((TdApi.UpdateAuthorizationState) event).authorizationState;
+			return authorizationState instanceof TdApi.AuthorizationStateClosed;
+		}
+		return false;
+	}
+}
@@ -1,5 +1,6 @@
 package it.tdlight.common.internal;
 
+import it.tdlight.common.ClientBackend;
 import it.tdlight.common.ReactiveTelegramClient;
 import it.tdlight.common.TelegramClient;
 
@@ -10,6 +11,16 @@ public abstract class CommonClientManager {
 		return InternalClientManager.get(implementationName);
 	}
 
+	/**
+	 * Run the clients on this backend instead of the native TDLib library, for example on a fake backend for tests.
+	 * It must be called before creating the first client.
+	 *
+	 * @throws IllegalStateException if a client has already been created
+	 */
+	public synchronized static void setBackend(ClientBackend backend) {
+		InternalClientManager.setBackend(backend);
+	}
+
 	public synchronized static TelegramClient create(String implementationName) {
 		InternalClient client = new InternalClient(getClientManager(implementationName));
 		return create(client);
@@ -2,14 +2,24 @@ package it.tdlight.common.internal;
 
 import it.tdlight.common.ExceptionHandler;
 import it.tdlight.common.ResultHandler;
+import it.tdlight.common.utils.HashedWheelTimer.Timeout;
 
 public final class Handler {
 	private final ResultHandler resultHandler;
 	private final ExceptionHandler exceptionHandler;
+	private final Timeout timeout;
 
 	public Handler(ResultHandler resultHandler, ExceptionHandler exceptionHandler) {
+		this(resultHandler, exceptionHandler, null);
+	}
+
+	/**
+	 * @param timeout timeout of the request, cancelled when the response is handled. Can be null
+	 */
+	public Handler(ResultHandler resultHandler, ExceptionHandler exceptionHandler, Timeout timeout) {
 		this.resultHandler = resultHandler;
 		this.exceptionHandler = exceptionHandler;
+		this.timeout = timeout;
 	}
 
 	public ResultHandler getResultHandler() {
@@ -19,4 +29,10 @@ public final class Handler {
 	public ExceptionHandler getExceptionHandler() {
 		return exceptionHandler;
 	}
+
+	public void cancelTimeout() {
+		if (timeout != null) {
+			timeout.cancel();
+		}
+	}
 }
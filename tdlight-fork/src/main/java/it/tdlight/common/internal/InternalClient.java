@@ -1,18 +1,24 @@
 package it.tdlight.common.internal;
 
+import it.tdlight.common.ChatOrderedExecutor;
 import it.tdlight.common.ClientEventsHandler;
 import it.tdlight.common.ExceptionHandler;
+import it.tdlight.common.RequestsCoalescing;
 import it.tdlight.common.ResultHandler;
 import it.tdlight.common.TelegramClient;
+import it.tdlight.common.UpdatesConflation;
 import it.tdlight.common.UpdatesHandler;
+import it.tdlight.common.utils.HashedWheelTimer.Timeout;
 import org.drinkless.td.libcore.telegram.TdApi;
 import org.drinkless.td.libcore.telegram.TdApi.Error;
 import org.drinkless.td.libcore.telegram.TdApi.Function;
 import org.drinkless.td.libcore.telegram.TdApi.Object;
-import it.unimi.dsi.fastutil.longs.LongArrayList;
-import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import java.time.Duration;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,15 +29,22 @@ public final class InternalClient implements ClientEventsHandler, TelegramClient
 
 	private static final Marker TG_MARKER = MarkerFactory.getMarker("TG");
 	private static final Logger logger = LoggerFactory.getLogger(TelegramClient.class);
-	private final ConcurrentHashMap<Long, Handler> handlers = new ConcurrentHashMap<Long, Handler>();
+	private final PendingRequests handlers = new PendingRequests();
+	private final UpdatesBuffer updatesBuffer = new UpdatesBuffer();
 
 	private volatile Integer clientId = null;
 	private final InternalClientManager clientManager;
 	private Handler updateHandler;
 	private MultiHandler updatesHandler;
+	private ChatOrderedExecutor updatesExecutor;
+	private ExceptionHandler updateExceptionHandler;
 	private ExceptionHandler defaultExceptionHandler;
+	private UpdatesConflator conflator;
+	private RequestsCoalescing coalescing;
+	private RequestsCoalescer coalescer;
 
 	private final AtomicBoolean isClosed = new AtomicBoolean();
+	private final CompletableFuture<Void> closeFuture = new CompletableFuture<>();
 
 	public InternalClient(InternalClientManager clientManager) {
 		this.clientManager = clientManager;
@@ -43,49 +56,171 @@ public final class InternalClient implements ClientEventsHandler, TelegramClient
 	}
 
 	@Override
-	public void handleEvents(boolean isClosed, long[] eventIds, Object[] events) {
-		if (updatesHandler != null) {
-			LongArrayList idsToFilter = new LongArrayList(eventIds);
-			ObjectArrayList<Object> eventsToFilter = new ObjectArrayList<>(events);
+	public void handleEvents(boolean isClosed, long[] eventIds, Object[] events, int arrayOffset, int arrayLength) {
+		UpdatesConflator conflator = this.conflator;
+		if (conflator == null) {
+			dispatchEvents(eventIds, events, arrayOffset, arrayLength, null);
+		} else if (conflator.getWindow() == null) {
+			conflator.conflate(eventIds, events, arrayOffset, arrayLength);
+			dispatchEvents(eventIds, events, arrayOffset, arrayLength, null);
+		} else {
+			// The held updates are flushed by the window flusher thread too
+			synchronized (conflator) {
+				dispatchEvents(eventIds, events, arrayOffset, arrayLength, conflator);
+			}
+		}
 
-			for (int i = eventIds.length - 1; i >= 0; i--) {
-				if (eventIds[i] != 0) {
-					idsToFilter.removeLong(i);
-					eventsToFilter.remove(i);
+		if (isClosed) {
+			if (this.isClosed.compareAndSet(false, true)) {
+				handleClose();
+			}
+		}
+	}
 
+	/**
+	 * @param windowConflator conflator that holds the updates across the batches, or null. The conflated updates of
+	 *                        the batch are null
+	 */
+	private void dispatchEvents(long[] eventIds,
+			Object[] events,
+			int arrayOffset,
+			int arrayLength,
+			UpdatesConflator windowConflator) {
+		if (updatesHandler != null) {
+			// Split responses and updates in a single pass: responses are handled immediately, in arrival order
+			UpdatesBuffer updates = this.updatesBuffer;
+			updates.ensureCapacity(arrayLength);
+			try {
+				for (int i = arrayOffset; i < arrayOffset + arrayLength; i++) {
 					long eventId = eventIds[i];
 					Object event = events[i];
-
-					Handler handler = handlers.remove(eventId);
-					handleResponse(eventId, event, handler);
+					if (eventId != 0) {
+						Handler handler = handlers.remove(eventId);
+						handleResponse(eventId, event, handler);
+					} else if (event != null) {
+						if (windowConflator != null) {
+							if (windowConflator.hold(event)) {
+								continue;
+							}
+							if (UpdatesConflation.isLifecycleUpdate(event.getConstructor())) {
+								updates.ensureCapacity(updates.size() + windowConflator.getHeldUpdatesCount() + arrayLength);
+								windowConflator.drainHeldUpdates(updates::append, false);
+							}
+						}
+						updates.append(event);
+					}
 				}
-			}
 
-			try {
-				updatesHandler.getUpdatesHandler().onUpdates(eventsToFilter);
-			} catch (Throwable cause) {
-				handleException(updatesHandler.getExceptionHandler(), cause);
+				// With the priority lanes the responses are received without updates
+				if (!updates.isEmpty()) {
+					try {
+						updatesHandler.getUpdatesHandler().onUpdates(updates);
+					} catch (Throwable cause) {
+						handleException(updatesHandler.getExceptionHandler(), cause);
+					}
+				}
+			} finally {
+				updates.reset();
 			}
 		} else {
-			for (int i = 0; i < eventIds.length; i++) {
-				handleEvent(eventIds[i], events[i]);
+			for (int i = arrayOffset; i < arrayOffset + arrayLength; i++) {
+				long eventId = eventIds[i];
+				Object event = events[i];
+				if (event == null) {
+					continue;
+				}
+				if (eventId == 0 && windowConflator != null) {
+					if (windowConflator.hold(event)) {
+						continue;
+					}
+					if (UpdatesConflation.isLifecycleUpdate(event.getConstructor())) {
+						windowConflator.drainHeldUpdates(update -> handleEvent(0, update), false);
+					}
+				}
+				handleEvent(eventId, event);
 			}
 		}
+	}
 
-		if (isClosed) {
-			if (this.isClosed.compareAndSet(false, true)) {
-				handleClose();
+	/**
+	 * Handle the updates held by the conflation window
+	 */
+	private void flushHeldUpdates() {
+		UpdatesConflator conflator = this.conflator;
+		synchronized (conflator) {
+			if (updatesHandler != null) {
+				UpdatesBuffer updates = this.updatesBuffer;
+				updates.ensureCapacity(conflator.getHeldUpdatesCount());
+				try {
+					conflator.drainHeldUpdates(updates::append, true);
+					if (!updates.isEmpty()) {
+						updatesHandler.getUpdatesHandler().onUpdates(updates);
+					}
+				} catch (Throwable cause) {
+					handleException(updatesHandler.getExceptionHandler(), cause);
+				} finally {
+					updates.reset();
+				}
+			} else {
+				conflator.drainHeldUpdates(update -> handleEvent(0, update), true);
+			}
+		}
+	}
+
+	/**
+	 * The flush calls the update handlers, so the timer only hands it off to the window flusher thread
+	 */
+	private void scheduleHeldUpdatesFlush() {
+		Duration window = conflator.getWindow();
+		long delayNanos = window == null ? 0 : window.toNanos();
+		Executor windowFlusher = clientManager.getWindowFlusher();
+		clientManager.getTimer().schedule(() -> {
+			try {
+				windowFlusher.execute(this::flushHeldUpdates);
+			} catch (RejectedExecutionException ex) {
+				logger.debug(TG_MARKER, "The client manager is closed, the held updates of client {} are dropped", clientId);
 			}
+		}, delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Conflate the updates of this client. It must be called before initializing the client.
+	 *
+	 * @param conflation conflation settings, or null to handle every update
+	 */
+	public void setUpdatesConflation(UpdatesConflation conflation) {
+		if (clientId != null) {
+			throw new IllegalStateException("The updates conflation must be set before initializing the client");
 		}
+		this.conflator = conflation == null ? null : new UpdatesConflator(conflation, this::scheduleHeldUpdatesFlush);
+	}
+
+	/**
+	 * Coalesce the identical requests in flight of this client. It must be called before initializing the client.
+	 *
+	 * @param coalescing coalescing settings, or null to send every request
+	 */
+	public void setRequestsCoalescing(RequestsCoalescing coalescing) {
+		if (clientId != null) {
+			throw new IllegalStateException("The requests coalescing must be set before initializing the client");
+		}
+		this.coalescing = coalescing;
 	}
 
 	private void handleClose() {
 		logger.trace(TG_MARKER, "Received close");
-		handlers.forEach((eventId, handler) -> {
+		handlers.drain((eventId, handler) -> {
 			handleResponse(eventId, new Error(500, "Instance closed"), handler);
 		});
-		handlers.clear();
 		logger.info(TG_MARKER, "Client closed {}", clientId);
+		closeFuture.complete(null);
+	}
+
+	/**
+	 * @return a future completed when the client has been closed and its pending requests have been answered
+	 */
+	public CompletableFuture<Void> getCloseFuture() {
+		return closeFuture;
 	}
 
 	/**
@@ -93,6 +228,7 @@ public final class InternalClient implements ClientEventsHandler, TelegramClient
 	 */
 	private void handleResponse(long eventId, Object event, Handler handler) {
 		if (handler != null) {
+			handler.cancelTimeout();
 			try {
 				handler.getResultHandler().onResult(event);
 			} catch (Throwable cause) {
@@ -109,6 +245,14 @@ public final class InternalClient implements ClientEventsHandler, TelegramClient
 	private void handleEvent(long eventId, Object event) {
 		logger.trace(TG_MARKER, "Received response {}: {}", eventId, event);
 		if (updatesHandler != null || updateHandler == null) throw new IllegalStateException();
+		if (eventId == 0 && updatesExecutor != null) {
+			try {
+				updatesExecutor.execute(event, updateHandler.getResultHandler(), updateExceptionHandler);
+			} catch (Throwable cause) {
+				handleException(updateHandler.getExceptionHandler(), cause);
+			}
+			return;
+		}
 		Handler handler = eventId == 0 ? updateHandler : handlers.remove(eventId);
 		handleResponse(eventId, event, handler);
 	}
@@ -129,6 +273,7 @@ public final class InternalClient implements ClientEventsHandler, TelegramClient
 			ExceptionHandler defaultExceptionHandler) {
 		this.updateHandler = null;
 		this.updatesHandler = new MultiHandler(updatesHandler, updateExceptionHandler);
+		this.updatesExecutor = null;
 		this.defaultExceptionHandler = defaultExceptionHandler;
 		createAndRegisterClient();
 	}
@@ -136,15 +281,33 @@ public final class InternalClient implements ClientEventsHandler, TelegramClient
 	public void initialize(ResultHandler updateHandler,
 			ExceptionHandler updateExceptionHandler,
 			ExceptionHandler defaultExceptionHandler) {
+		initialize(updateHandler, updateExceptionHandler, defaultExceptionHandler, null);
+	}
+
+	/**
+	 * Initialize the client, handling the updates on the lanes of the executor instead of the TDLib thread.
+	 * Responses are still handled on the TDLib thread.
+	 *
+	 * @param updatesExecutor executor of the updates, or null to handle them on the TDLib thread
+	 */
+	public void initialize(ResultHandler updateHandler,
+			ExceptionHandler updateExceptionHandler,
+			ExceptionHandler defaultExceptionHandler,
+			ChatOrderedExecutor updatesExecutor) {
 		this.updateHandler = new Handler(updateHandler, updateExceptionHandler);
 		this.updatesHandler = null;
+		this.updatesExecutor = updatesExecutor;
+		this.updateExceptionHandler = cause -> handleException(updateExceptionHandler, cause);
 		this.defaultExceptionHandler = defaultExceptionHandler;
 		createAndRegisterClient();
 	}
 
 	private void createAndRegisterClient() {
 		if (clientId != null) throw new UnsupportedOperationException("Can't initialize the same client twice!");
-		clientId = NativeClientAccess.create();
+		if (coalescing != null) {
+			coalescer = new RequestsCoalescer(coalescing, defaultExceptionHandler);
+		}
+		clientId = clientManager.getBackend().createClient();
 		clientManager.registerClient(clientId, this);
 		logger.info(TG_MARKER, "Registered new client {}", clientId);
 
@@ -154,6 +317,14 @@ public final class InternalClient implements ClientEventsHandler, TelegramClient
 
 	@Override
 	public void send(Function query, ResultHandler resultHandler, ExceptionHandler exceptionHandler) {
+		send(query, resultHandler, exceptionHandler, null);
+	}
+
+	/**
+	 * @param timeout maximum time to wait for the response, or null to wait forever
+	 */
+	@Override
+	public void send(Function query, ResultHandler resultHandler, ExceptionHandler exceptionHandler, Duration timeout) {
 		logger.trace(TG_MARKER, "Trying to send {}", query);
 		if (isClosedAndMaybeThrow(query)) {
 			resultHandler.onResult(new TdApi.Ok());
@@ -163,11 +334,47 @@ public final class InternalClient implements ClientEventsHandler, TelegramClient
 			handler.onException(new IllegalStateException("Can't send a request to TDLib before calling \"initialize\" function!"));
 			return;
 		}
+		RequestsCoalescer coalescer = this.coalescer;
+		if (coalescer != null && coalescer.isCoalesced(query, resultHandler, timeout)) {
+			resultHandler = coalescer.join(query, resultHandler, exceptionHandler);
+			if (resultHandler == null) {
+				return;
+			}
+		}
 		long queryId = clientManager.getNextQueryId();
 		if (resultHandler != null) {
-			handlers.put(queryId, new Handler(resultHandler, exceptionHandler));
+			if (timeout != null) {
+				Timeout requestTimeout = clientManager
+						.getTimer()
+						.schedule(() -> handleTimeout(queryId), timeout.toNanos(), TimeUnit.NANOSECONDS);
+				handlers.put(queryId, new Handler(resultHandler, exceptionHandler, requestTimeout));
+				// The timeout may have expired before the handler was added
+				if (requestTimeout.isExpired()) {
+					handleTimeout(queryId);
+				}
+			} else {
+				handlers.put(queryId, new Handler(resultHandler, exceptionHandler));
+			}
+		}
+		clientManager.getBackend().send(clientId, queryId, query);
+	}
+
+	/**
+	 * Forget the request and complete it with a timeout error, unless its response has already been handled.
+	 * The result handler is called by the timeouts thread of the client manager, never by the timer thread
+	 */
+	private void handleTimeout(long queryId) {
+		Handler handler = handlers.remove(queryId);
+		if (handler != null) {
+			logger.debug(TG_MARKER, "Client {} request {} timed out", clientId, queryId);
+			Runnable timeout = () -> handleResponse(queryId, new Error(408, "Request Timeout"), handler);
+			try {
+				clientManager.getTimeoutsHandler().execute(timeout);
+			} catch (RejectedExecutionException ex) {
+				// The client manager is closed, the request must be completed anyway
+				timeout.run();
+			}
 		}
-		NativeClientAccess.send(clientId, queryId, query);
 	}
 
 	public Object execute(Function query) {
@@ -175,7 +382,7 @@ public final class InternalClient implements ClientEventsHandler, TelegramClient
 		if (isClosedAndMaybeThrow(query)) {
 			return new TdApi.Ok();
 		}
-		return NativeClientAccess.execute(query);
+		return clientManager.getBackend().execute(query);
 	}
 
 	/**
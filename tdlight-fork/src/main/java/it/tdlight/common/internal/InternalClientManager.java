@@ -1,15 +1,23 @@
 package it.tdlight.common.internal;
 
+import it.tdlight.common.ClientBackend;
 import it.tdlight.common.ClientEventsHandler;
-import it.tdlight.common.Init;
+import it.tdlight.common.ReceiveSettings;
+import it.tdlight.common.utils.HashedWheelTimer;
 import org.drinkless.td.libcore.telegram.TdApi;
 import org.drinkless.td.libcore.telegram.TdApi.Object;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Iterator;
 import java.util.Objects;
+import java.util.ServiceLoader;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import org.slf4j.Logger;
@@ -19,33 +27,110 @@ public final class InternalClientManager implements AutoCloseable {
 
 	private static final Logger logger = LoggerFactory.getLogger(InternalClientManager.class);
 	private static final AtomicReference<InternalClientManager> INSTANCE = new AtomicReference<>(null);
+	private static final AtomicReference<ClientBackend> BACKEND = new AtomicReference<>(null);
+	private static final long TIMER_TICK_MILLIS = 10;
+	private static final int TIMER_TICKS_PER_WHEEL = 512;
 
 	private final String implementationName;
-	private final ResponseReceiver responseReceiver = new ResponseReceiver(this::handleClientEvents);
 	private final ConcurrentHashMap<Integer, ClientEventsHandler> registeredClientEventHandlers = new ConcurrentHashMap<>();
 	private final AtomicLong currentQueryId = new AtomicLong();
+	private final ClientBackend backend;
+	private final ResponseReceiver responseReceiver;
+	private final HashedWheelTimer timer;
+	// Started on first use, guarded by this
+	private ExecutorService windowFlusher;
+	private ExecutorService timeoutsHandler;
 
-	private InternalClientManager(String implementationName) {
+	private InternalClientManager(String implementationName, ReceiveSettings receiveSettings) {
+		this.backend = BACKEND.updateAndGet(val -> val == null ? loadBackend() : val);
 		try {
-			Init.start();
+			backend.start();
 		} catch (Throwable ex) {
 			ex.printStackTrace();
 			System.exit(1);
 		}
 		this.implementationName = implementationName;
+		this.timer = new HashedWheelTimer("TDLib timer", TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS, TIMER_TICKS_PER_WHEEL);
+		this.responseReceiver = new ResponseReceiver(this::handleClientEvents, receiveSettings, backend);
+	}
+
+	/**
+	 * Use this backend instead of the native TDLib library
+	 *
+	 * @throws IllegalStateException if the client manager has already been created
+	 */
+	public static void setBackend(ClientBackend backend) {
+		Objects.requireNonNull(backend, "backend");
+		synchronized (INSTANCE) {
+			if (INSTANCE.get() != null) {
+				throw new IllegalStateException("The client manager has already been created");
+			}
+			BACKEND.set(backend);
+		}
+	}
+
+	/**
+	 * Load the backend named by the system property "tdlight.backend", then the first backend registered with
+	 * {@link ServiceLoader}, then the native one
+	 */
+	private static ClientBackend loadBackend() {
+		String backendClassName = System.getProperty("tdlight.backend");
+		if (backendClassName != null && !backendClassName.isEmpty()) {
+			try {
+				return (ClientBackend) Class.forName(backendClassName).getConstructor().newInstance();
+			} catch (ReflectiveOperationException | ClassCastException ex) {
+				throw new IllegalStateException("Can't create the backend " + backendClassName, ex);
+			}
+		}
+		Iterator<ClientBackend> serviceBackends = ServiceLoader.load(ClientBackend.class).iterator();
+		if (serviceBackends.hasNext()) {
+			ClientBackend backend = serviceBackends.next();
+			logger.info("Using the backend {}", backend.getClass().getName());
+			return backend;
+		}
+		return new NativeClientAccess();
 	}
 
 	public static InternalClientManager get(String implementationName) {
-		return INSTANCE.updateAndGet(val -> val == null ? new InternalClientManager(implementationName) : val);
+		synchronized (INSTANCE) {
+			return INSTANCE.updateAndGet(val -> val == null
+					? new InternalClientManager(implementationName, ReceiveSettings.create()) : val);
+		}
+	}
+
+	/**
+	 * Get the client manager, creating it with the specified receive settings if it doesn't exist yet.
+	 *
+	 * @throws IllegalStateException if the client manager has already been created
+	 */
+	public static InternalClientManager get(String implementationName, ReceiveSettings receiveSettings) {
+		InternalClientManager clientManager;
+		synchronized (INSTANCE) {
+			clientManager = INSTANCE.updateAndGet(val -> val == null
+					? new InternalClientManager(implementationName, receiveSettings) : val);
+		}
+		if (clientManager.responseReceiver.getReceiveSettings() != receiveSettings) {
+			throw new IllegalStateException("The client manager has already been created with different receive settings");
+		}
+		return clientManager;
 	}
 
-	private void handleClientEvents(int clientId, boolean isClosed, long[] clientEventIds, TdApi.Object[] clientEvents) {
+	private void handleClientEvents(int clientId,
+			boolean isClosed,
+			long[] clientEventIds,
+			TdApi.Object[] clientEvents,
+			int arrayOffset,
+			int arrayLength) {
 		ClientEventsHandler handler = registeredClientEventHandlers.get(clientId);
 
 		if (handler != null) {
- 			handler.handleEvents(isClosed, clientEventIds, clientEvents);
+			handler.handleEvents(isClosed, clientEventIds, clientEvents, arrayOffset, arrayLength);
 		} else {
-			List<DroppedEvent> droppedEvents = getEffectivelyDroppedEvents(clientEventIds, clientEvents);
+			List<DroppedEvent> droppedEvents = getEffectivelyDroppedEvents(clientEventIds,
+					clientEvents,
+					arrayOffset,
+					arrayLength
+			);
 
 			if (!droppedEvents.isEmpty()) {
 				logger.error("Unknown client id \"{}\"! {} events have been dropped!", clientId, droppedEvents.size());
@@ -67,9 +152,12 @@ public final class InternalClientManager implements AutoCloseable {
 	/**
 	 * Get only events that have been dropped, ignoring synthetic errors related to the closure of a client
 	 */
-	private List<DroppedEvent> getEffectivelyDroppedEvents(long[] clientEventIds, TdApi.Object[] clientEvents) {
-		List<DroppedEvent> droppedEvents = new ArrayList<>(clientEvents.length);
-		for (int i = 0; i < clientEvents.length; i++) {
+	private List<DroppedEvent> getEffectivelyDroppedEvents(long[] clientEventIds,
+			TdApi.Object[] clientEvents,
+			int arrayOffset,
+			int arrayLength) {
+		List<DroppedEvent> droppedEvents = new ArrayList<>(arrayLength);
+		for (int i = arrayOffset; i < arrayOffset + arrayLength; i++) {
 			long id = clientEventIds[i];
 			TdApi.Object event = clientEvents[i];
 			boolean mustPrintError = true;
@@ -102,9 +190,59 @@ public final class InternalClientManager implements AutoCloseable {
 		return currentQueryId.updateAndGet(value -> (value >= Long.MAX_VALUE ? 0 : value) + 1);
 	}
 
+	ClientBackend getBackend() {
+		return backend;
+	}
+
+	/**
+	 * Timer shared by all the clients, used for the request timeouts. Its tasks must be short and must not block
+	 */
+	public HashedWheelTimer getTimer() {
+		return timer;
+	}
+
+	/**
+	 * Thread that handles the updates held by the conflation windows of all the clients, started on first use.
+	 * The timer only hands the flushes off to it, because they call the update handlers
+	 */
+	synchronized Executor getWindowFlusher() {
+		if (windowFlusher == null) {
+			windowFlusher = newDaemonExecutor("TDLib conflation window");
+		}
+		return windowFlusher;
+	}
+
+	/**
+	 * Thread that calls the result handlers of the requests that timed out, for all the clients, started on first use.
+	 * The timer only hands the timeouts off to it, because the result handlers are user code
+	 */
+	synchronized Executor getTimeoutsHandler() {
+		if (timeoutsHandler == null) {
+			timeoutsHandler = newDaemonExecutor("TDLib request timeouts");
+		}
+		return timeoutsHandler;
+	}
+
+	private static ExecutorService newDaemonExecutor(String threadName) {
+		return Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, threadName);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
 	@Override
 	public void close() throws InterruptedException {
 		responseReceiver.close();
+		timer.close();
+		synchronized (this) {
+			if (windowFlusher != null) {
+				windowFlusher.shutdown();
+			}
+			if (timeoutsHandler != null) {
+				timeoutsHandler.shutdown();
+			}
+		}
 	}
 
 	private static final class DroppedEvent {
@@ -4,21 +4,20 @@ import it.tdlight.common.ClientEventsHandler;
 import it.tdlight.common.ExceptionHandler;
 import it.tdlight.common.ReactiveItem;
 import it.tdlight.common.ReactiveTelegramClient;
+import it.tdlight.common.SubscriptionSettings;
+import it.tdlight.common.utils.HashedWheelTimer.Timeout;
 import org.drinkless.td.libcore.telegram.TdApi;
 import org.drinkless.td.libcore.telegram.TdApi.Error;
 import org.drinkless.td.libcore.telegram.TdApi.Function;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
@@ -34,9 +33,8 @@ public final class InternalReactiveClient implements ClientEventsHandler, Reacti
 
     private static final Marker TG_MARKER = MarkerFactory.getMarker("TG");
     private static final Logger logger = LoggerFactory.getLogger(InternalReactiveClient.class);
-    private final ConcurrentHashMap<Long, Handler> handlers = new ConcurrentHashMap<>();
-    private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor();
-    private final ConcurrentLinkedQueue<ReactiveItem> backpressureQueue = new ConcurrentLinkedQueue<>();
+    private final PendingRequests handlers = new PendingRequests();
+    private final UpdatesBroadcaster broadcaster;
     private final ExceptionHandler defaultExceptionHandler;
     private final Handler updateHandler;
 
@@ -44,31 +42,20 @@ public final class InternalReactiveClient implements ClientEventsHandler, Reacti
     private final InternalClientManager clientManager;
 
     private final AtomicBoolean isClosed = new AtomicBoolean();
-    private final AtomicBoolean updatesAlreadySubscribed = new AtomicBoolean(false);
-    private final AtomicLong requested = new AtomicLong(0);
-    private volatile Subscriber<? super ReactiveItem> subscriber;
 
     public InternalReactiveClient(InternalClientManager clientManager) {
         this.clientManager = clientManager;
+        // The client is closed when its last subscriber cancels, like when it had only one subscriber
+        this.broadcaster = new UpdatesBroadcaster(SubscriptionSettings.create().getBufferSize(), this::closeOnCancel);
         this.updateHandler = new Handler(
                 updateItem -> {
-                    ReactiveItem item = ReactiveItem.ofUpdate(updateItem);
-                    if (subscriber != null && requested.getAndUpdate(n -> n == 0 ? 0 : (n - 1)) > 0) {
-                        subscriber.onNext(item);
-                    } else {
-                        backpressureQueue.add(item);
+                    if (broadcaster.hasItemSubscribers()) {
+                        broadcaster.onNext(ReactiveItem.ofUpdate(updateItem));
                     }
                 },
-                updateEx -> {
-                    ReactiveItem item = ReactiveItem.ofUpdateException(updateEx);
-                    if (subscriber != null && requested.getAndUpdate(n -> n == 0 ? 0 : (n - 1)) > 0) {
-                        subscriber.onNext(item);
-                    } else {
-                        backpressureQueue.add(item);
-                    }
-                }
+                updateEx -> broadcaster.onNext(ReactiveItem.ofUpdateException(updateEx))
         );
-        this.defaultExceptionHandler = ex -> backpressureQueue.add(ReactiveItem.ofHandleException(ex));
+        this.defaultExceptionHandler = ex -> broadcaster.onNext(ReactiveItem.ofHandleException(ex));
     }
 
     @Override
@@ -77,10 +64,18 @@ public final class InternalReactiveClient implements ClientEventsHandler, Reacti
     }
 
     @Override
-    public void handleEvents(boolean isClosed, long[] eventIds, TdApi.Object[] events) {
-        for (int i = 0; i < eventIds.length; i++) {
+    public void handleEvents(boolean isClosed, long[] eventIds, TdApi.Object[] events, int arrayOffset, int arrayLength) {
+        // The batch subscribers receive the updates of this client in the same batches received from TDLib
+        List<TdApi.Object> updates = broadcaster.hasBatchSubscribers() ? new ArrayList<>(arrayLength) : null;
+        for (int i = arrayOffset; i < arrayOffset + arrayLength; i++) {
+            if (updates != null && eventIds[i] == 0) {
+                updates.add(events[i]);
+            }
             handleEvent(eventIds[i], events[i]);
         }
+        if (updates != null && !updates.isEmpty()) {
+            broadcaster.onBatch(Collections.unmodifiableList(updates));
+        }
 
         if (isClosed) {
             if (this.isClosed.compareAndSet(false, true)) {
@@ -90,8 +85,9 @@ public final class InternalReactiveClient implements ClientEventsHandler, Reacti
     }
 
     private void handleClose() {
-        handlers.forEach((eventId, handler) -> handleResponse(eventId, new Error(500, "Instance closed"), handler));
-        handlers.clear();
+        handlers.drain((eventId, handler) -> handleResponse(eventId, new Error(500, "Instance closed"), handler));
+        broadcaster.complete();
+        logger.info(TG_MARKER, "Client closed {}", clientId);
     }
 
     /**
@@ -140,63 +136,50 @@ public final class InternalReactiveClient implements ClientEventsHandler, Reacti
         }
     }
 
+    /**
+     * Subscribe to the updates with the default {@link SubscriptionSettings}
+     */
     @Override
     public void subscribe(Subscriber<? super ReactiveItem> subscriber) {
-        AtomicBoolean alreadyCompleted = new AtomicBoolean();
-        if (updatesAlreadySubscribed.compareAndSet(false, true)) {
-            Subscription subscription = new Subscription() {
+        broadcaster.subscribe(subscriber, SubscriptionSettings.create());
+    }
+
+    @Override
+    public Publisher<ReactiveItem> updates(SubscriptionSettings settings) {
+        Objects.requireNonNull(settings);
+        return subscriber -> broadcaster.subscribe(subscriber, settings);
+    }
 
+    @Override
+    public Publisher<List<TdApi.Object>> updateBatches(SubscriptionSettings settings) {
+        Objects.requireNonNull(settings);
+        return subscriber -> broadcaster.subscribeBatches(subscriber, settings);
+    }
+
+    @SuppressWarnings("ReactiveStreamsSubscriberImplementation")
+    private void closeOnCancel() {
+        if (!isClosed.get()) {
+            send(new TdApi.Close(), Duration.ofDays(1)).subscribe(new Subscriber<TdApi.Object>() {
                 @Override
-                public void request(long n) {
-                    ReactiveItem item;
-                    while (n > 0 && (item = backpressureQueue.poll()) != null) {
-                        subscriber.onNext(item);
-                        n--;
-                    }
-                    if (n > 0) {
-                        requested.addAndGet(n);
-                    }
-                    if (isClosed.get()) {
-                        if (alreadyCompleted.compareAndSet(false, true)) {
-                            subscriber.onComplete();
-                            logger.info(TG_MARKER, "Client closed {}", clientId);
-                        }
-                    }
+                public void onSubscribe(Subscription subscription) {
+                    subscription.request(1);
                 }
 
-                @SuppressWarnings("ReactiveStreamsSubscriberImplementation")
                 @Override
-                public void cancel() {
-                    if (!isClosed.get()) {
-                        send(new TdApi.Close(), Duration.ofDays(1)).subscribe(new Subscriber<TdApi.Object>() {
-                            @Override
-                            public void onSubscribe(Subscription subscription) {
-                                subscription.request(1);
-                            }
+                public void onNext(TdApi.Object o) {
 
-                            @Override
-                            public void onNext(TdApi.Object o) {
-
-                            }
+                }
 
-                            @Override
-                            public void onError(Throwable throwable) {
+                @Override
+                public void onError(Throwable throwable) {
 
-                            }
+                }
 
-                            @Override
-                            public void onComplete() {
+                @Override
+                public void onComplete() {
 
-                            }
-                        });
-                    }
                 }
-            };
-            this.subscriber = subscriber;
-
-            subscriber.onSubscribe(subscription);
-        } else {
-            throw new IllegalStateException("Already subscribed");
+            });
         }
     }
 
@@ -205,7 +188,7 @@ public final class InternalReactiveClient implements ClientEventsHandler, Reacti
         if (clientId != null)
             throw new UnsupportedOperationException("Can't initialize the same client twice!");
         logger.debug(TG_MARKER, "Creating new client");
-        clientId = NativeClientAccess.create();
+        clientId = clientManager.getBackend().createClient();
         logger.debug(TG_MARKER, "Registering new client {}", clientId);
         clientManager.registerClient(clientId, this);
 
@@ -266,7 +249,7 @@ public final class InternalReactiveClient implements ClientEventsHandler, Reacti
                             long queryId = clientManager.getNextQueryId();
 
                             // Handle timeout
-                            ScheduledFuture<?> timeoutFuture = timers.schedule(() -> {
+                            Timeout timeout = clientManager.getTimer().schedule(() -> {
                                 if (handlers.remove(queryId) != null) {
                                     if (!cancelled) {
                                         subscriber.onNext(new Error(408, "Request Timeout"));
@@ -278,7 +261,7 @@ public final class InternalReactiveClient implements ClientEventsHandler, Reacti
                             }, responseTimeout.toMillis(), TimeUnit.MILLISECONDS);
 
                             handlers.put(queryId, new Handler(result -> {
-                                boolean timeoutCancelled = timeoutFuture.cancel(false);
+                                boolean timeoutCancelled = timeout.cancel();
                                 if (!cancelled && timeoutCancelled) {
                                     subscriber.onNext(result);
                                 }
@@ -286,13 +269,13 @@ public final class InternalReactiveClient implements ClientEventsHandler, Reacti
                                     subscriber.onComplete();
                                 }
                             }, t -> {
-                                boolean timeoutCancelled = timeoutFuture.cancel(false);
+                                boolean timeoutCancelled = timeout.cancel();
                                 if (!cancelled && timeoutCancelled) {
                                     subscriber.onError(t);
                                 }
                             }));
                             logger.trace(TG_MARKER, "Client {} is requesting with query id {}: {}", clientId, queryId, query);
-                            NativeClientAccess.send(clientId, queryId, query);
+                            clientManager.getBackend().send(clientId, queryId, query);
                             logger.trace(TG_MARKER, "Client {} requested with query id {}: {}", clientId, queryId, query);
                         }
                     } else {
@@ -314,7 +297,7 @@ public final class InternalReactiveClient implements ClientEventsHandler, Reacti
         if (isClosedAndMaybeThrow(query)) {
             return new TdApi.Ok();
         }
-        return NativeClientAccess.execute(query);
+        return clientManager.getBackend().execute(query);
     }
 
     /**
@@ -1,24 +1,39 @@
 package it.tdlight.common.internal;
 
+import it.tdlight.common.ClientBackend;
+import it.tdlight.common.Init;
+import it.tdlight.common.utils.CantLoadLibrary;
 import it.tdlight.tdnative.NativeClient;
 import org.drinkless.td.libcore.telegram.TdApi;
 import org.drinkless.td.libcore.telegram.TdApi.Function;
 
-final class NativeClientAccess extends NativeClient {
+/**
+ * The default backend, which runs the clients in the native TDLib library
+ */
+final class NativeClientAccess extends NativeClient implements ClientBackend {
 
-	public static int create() {
+	@Override
+	public void start() throws CantLoadLibrary {
+		Init.start();
+	}
+
+	@Override
+	public int createClient() {
 		return NativeClientAccess.createNativeClient();
 	}
 
-	public static TdApi.Object execute(Function function) {
+	@Override
+	public TdApi.Object execute(Function function) {
 		return NativeClientAccess.nativeClientExecute(function);
 	}
 
-	public static void send(int nativeClientId, long eventId, TdApi.Function function) {
+	@Override
+	public void send(int nativeClientId, long eventId, TdApi.Function function) {
 		NativeClientAccess.nativeClientSend(nativeClientId, eventId, function);
 	}
 
-	public static int receive(int[] clientIds, long[] eventIds, TdApi.Object[] events, double timeout) {
-		return NativeClientAccess.nativeClientReceive(clientIds, eventIds, events, timeout);
+	@Override
+	public int receive(int[] clientIds, long[] eventIds, TdApi.Object[] events, double timeout) {
+		return org.drinkless.td.libcore.telegram.NativeClient.clientReceive(clientIds[0], eventIds, events, timeout);
 	}
 }
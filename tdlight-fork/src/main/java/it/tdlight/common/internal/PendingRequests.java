@@ -0,0 +1,161 @@
+package it.tdlight.common.internal;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+/**
+ * Handlers of the requests that are waiting for a response, keyed by query id.
+ * <p>
+ * This is an open-addressing table with linear probing over primitive keys: adding or removing a request doesn't
+ * box the query id and doesn't allocate any node. The table only grows, so a client with a steady number of in-flight
+ * requests stops allocating once the table has reached its working size.
+ * <p>
+ * Query ids are always greater than 0, the key 0 marks an empty slot.
+ */
+final class PendingRequests {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private long[] keys;
+	private Handler[] handlers;
+	private int mask;
+	private int size;
+	private int maxFill;
+
+	PendingRequests() {
+		reset();
+	}
+
+	public synchronized void put(long queryId, Handler handler) {
+		if (queryId == 0) {
+			throw new IllegalArgumentException("Query id 0 is reserved for updates");
+		}
+		int pos = (int) HashCommon.mix(queryId) & mask;
+		long current;
+		while ((current = keys[pos]) != 0) {
+			if (current == queryId) {
+				handlers[pos] = handler;
+				return;
+			}
+			pos = (pos + 1) & mask;
+		}
+		keys[pos] = queryId;
+		handlers[pos] = handler;
+		if (++size >= maxFill) {
+			rehash(keys.length * 2);
+		}
+	}
+
+	/**
+	 * @return the handler of the request, or null if the request is unknown
+	 */
+	public synchronized Handler remove(long queryId) {
+		if (queryId == 0) {
+			return null;
+		}
+		int pos = (int) HashCommon.mix(queryId) & mask;
+		long current;
+		while ((current = keys[pos]) != 0) {
+			if (current == queryId) {
+				Handler handler = handlers[pos];
+				size--;
+				shiftKeys(pos);
+				return handler;
+			}
+			pos = (pos + 1) & mask;
+		}
+		return null;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Remove all the pending requests and pass them to the consumer.
+	 * The consumer is called outside the lock, so it can safely send new requests.
+	 */
+	public void drain(PendingRequestConsumer consumer) {
+		long[] drainedKeys;
+		Handler[] drainedHandlers;
+		synchronized (this) {
+			if (size == 0) {
+				return;
+			}
+			drainedKeys = keys;
+			drainedHandlers = handlers;
+			reset();
+		}
+		for (int i = 0; i < drainedKeys.length; i++) {
+			if (drainedKeys[i] != 0) {
+				consumer.accept(drainedKeys[i], drainedHandlers[i]);
+			}
+		}
+	}
+
+	private void reset() {
+		this.keys = new long[INITIAL_CAPACITY];
+		this.handlers = new Handler[INITIAL_CAPACITY];
+		this.mask = INITIAL_CAPACITY - 1;
+		this.size = 0;
+		this.maxFill = maxFill(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Close the gap left by a removed entry, moving back the entries of the same probe sequence
+	 */
+	private void shiftKeys(int pos) {
+		int last;
+		int slot;
+		long current;
+		for (;;) {
+			pos = ((last = pos) + 1) & mask;
+			for (;;) {
+				if ((current = keys[pos]) == 0) {
+					keys[last] = 0;
+					handlers[last] = null;
+					return;
+				}
+				slot = (int) HashCommon.mix(current) & mask;
+				if (last <= pos ? last >= slot || slot > pos : last >= slot && slot > pos) {
+					break;
+				}
+				pos = (pos + 1) & mask;
+			}
+			keys[last] = current;
+			handlers[last] = handlers[pos];
+		}
+	}
+
+	private void rehash(int newCapacity) {
+		long[] oldKeys = keys;
+		Handler[] oldHandlers = handlers;
+		long[] newKeys = new long[newCapacity];
+		Handler[] newHandlers = new Handler[newCapacity];
+		int newMask = newCapacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != 0) {
+				int pos = (int) HashCommon.mix(key) & newMask;
+				while (newKeys[pos] != 0) {
+					pos = (pos + 1) & newMask;
+				}
+				newKeys[pos] = key;
+				newHandlers[pos] = oldHandlers[i];
+			}
+		}
+		this.keys = newKeys;
+		this.handlers = newHandlers;
+		this.mask = newMask;
+		this.maxFill = maxFill(newCapacity);
+	}
+
+	private static int maxFill(int capacity) {
+		return capacity - (capacity >>> 2);
+	}
+
+	@FunctionalInterface
+	interface PendingRequestConsumer {
+
+		void accept(long queryId, Handler handler);
+	}
+}
@@ -0,0 +1,128 @@
+package it.tdlight.common.internal;
+
+import it.tdlight.common.ExceptionHandler;
+import it.tdlight.common.RequestsCoalescing;
+import it.tdlight.common.ResultHandler;
+import it.tdlight.common.TdApiEquality;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Requests in flight of a client, see {@link RequestsCoalescing}.
+ * <p>
+ * The first request of a function is sent, and the identical requests sent before its response is received wait for
+ * it. The response is passed to every waiting handler, in the order the requests were sent, on the thread that
+ * receives it. An exception thrown by a handler doesn't prevent the other handlers from receiving the response.
+ */
+public final class RequestsCoalescer {
+
+	private final RequestsCoalescing coalescing;
+	private final ExceptionHandler defaultExceptionHandler;
+
+	// Guarded by itself
+	private final HashMap<FunctionKey, List<Handler>> inFlight = new HashMap<>();
+
+	/**
+	 * @param defaultExceptionHandler receives the exceptions thrown by the result handlers, when the request has no
+	 *                                exception handler. Can be null
+	 */
+	public RequestsCoalescer(RequestsCoalescing coalescing, ExceptionHandler defaultExceptionHandler) {
+		this.coalescing = coalescing;
+		this.defaultExceptionHandler = defaultExceptionHandler;
+	}
+
+	/**
+	 * @return true if the request can be coalesced with the identical requests
+	 */
+	public boolean isCoalesced(TdApi.Function query, ResultHandler resultHandler, Duration timeout) {
+		return resultHandler != null && timeout == null && coalescing.isCoalesced(query.getConstructor());
+	}
+
+	/**
+	 * Wait for the response of an identical request, or start a new one.
+	 * The function must not be modified until the response is received.
+	 *
+	 * @return the result handler of the request that must be sent, or null if an identical request is in flight
+	 */
+	public ResultHandler join(TdApi.Function query, ResultHandler resultHandler, ExceptionHandler exceptionHandler) {
+		FunctionKey key = new FunctionKey(query);
+		Handler handler = new Handler(resultHandler, exceptionHandler);
+		synchronized (inFlight) {
+			List<Handler> waiting = inFlight.get(key);
+			if (waiting != null) {
+				waiting.add(handler);
+				coalescing.addCoalescedRequests(1);
+				return null;
+			}
+			waiting = new ArrayList<>(2);
+			waiting.add(handler);
+			inFlight.put(key, waiting);
+		}
+		return response -> complete(key, response);
+	}
+
+	public int getInFlightRequests() {
+		synchronized (inFlight) {
+			return inFlight.size();
+		}
+	}
+
+	private void complete(FunctionKey key, TdApi.Object response) {
+		List<Handler> waiting;
+		synchronized (inFlight) {
+			waiting = inFlight.remove(key);
+		}
+		for (Handler handler : waiting) {
+			try {
+				handler.getResultHandler().onResult(response);
+			} catch (Throwable cause) {
+				handleException(handler.getExceptionHandler(), cause);
+			}
+		}
+	}
+
+	private void handleException(ExceptionHandler exceptionHandler, Throwable cause) {
+		if (exceptionHandler == null) {
+			exceptionHandler = defaultExceptionHandler;
+		}
+		if (exceptionHandler != null) {
+			try {
+				exceptionHandler.onException(cause);
+			} catch (Throwable ignored) {}
+		}
+	}
+
+	/**
+	 * Function compared by its fields, its hash code is computed once
+	 */
+	private static final class FunctionKey {
+
+		private final TdApi.Function function;
+		private final int hashCode;
+
+		private FunctionKey(TdApi.Function function) {
+			this.function = function;
+			this.hashCode = TdApiEquality.hashCode(function);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (o == null || getClass() != o.getClass()) {
+				return false;
+			}
+			FunctionKey that = (FunctionKey) o;
+			return hashCode == that.hashCode && TdApiEquality.equals(function, that.function);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+}
@@ -1,18 +1,17 @@
 package it.tdlight.common.internal;
 
+import it.tdlight.common.ClientBackend;
 import it.tdlight.common.EventsHandler;
-import it.tdlight.common.utils.IntSwapper;
-import it.tdlight.common.utils.SpinWaitSupport;
+import it.tdlight.common.ReceiveSettings;
+import it.tdlight.common.capture.EventsRecorder;
+import it.tdlight.common.utils.AdaptiveBatchSize;
+import it.tdlight.common.utils.WaitStrategy;
 import org.drinkless.td.libcore.telegram.TdApi;
 import org.drinkless.td.libcore.telegram.TdApi.Object;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.stream.Collectors;
 
 public final class ResponseReceiver extends Thread implements AutoCloseable {
 
@@ -20,18 +19,19 @@ public final class ResponseReceiver extends Thread implements AutoCloseable {
 			"tdlight.dispatcher.use_optimized_dispatcher",
 			"true"
 	));
-	private static final int MAX_EVENTS = 1000;
-	private static final int[] originalSortingSource = new int[MAX_EVENTS];
-	static {
-		for (int i = 0; i < originalSortingSource.length; i++) {
-			originalSortingSource[i] = i;
-		}
-	}
 
 	private final EventsHandler eventsHandler;
-	private final int[] clientIds = new int[MAX_EVENTS];
-	private final long[] eventIds = new long[MAX_EVENTS];
-	private final TdApi.Object[] events = new TdApi.Object[MAX_EVENTS];
+	private final ClientBackend backend;
+	private final ReceiveSettings receiveSettings;
+	private final WaitStrategy waitStrategy;
+	private final AdaptiveBatchSize batchSize;
+	private final EventsRecorder eventsRecorder;
+
+	private final ClientEventsDispatcher dispatcher;
+
+	private int[] clientIds;
+	private long[] eventIds;
+	private TdApi.Object[] events;
 
 	private final CountDownLatch closeWait = new CountDownLatch(1);
 	private final Set<Integer> registeredClients = new ConcurrentHashMap<Integer, Object>().keySet(new Object() {
@@ -43,118 +43,51 @@ public final class ResponseReceiver extends Thread implements AutoCloseable {
 	private volatile boolean closeRequested = false;
 
 
-	public ResponseReceiver(EventsHandler eventsHandler) {
+	public ResponseReceiver(EventsHandler eventsHandler, ReceiveSettings receiveSettings, ClientBackend backend) {
 		super("TDLib thread");
 		this.eventsHandler = eventsHandler;
+		this.backend = backend;
+		this.receiveSettings = receiveSettings;
+		this.waitStrategy = receiveSettings.getWaitStrategy();
+		this.batchSize = new AdaptiveBatchSize(receiveSettings.getMinBatchSize(), receiveSettings.getMaxBatchSize());
+		this.eventsRecorder = receiveSettings.getEventsRecorder();
+		this.dispatcher = new ClientEventsDispatcher(this::handleClientEvents,
+				batchSize.get(),
+				receiveSettings.isPriorityLanes()
+		);
+		allocateBuffers(batchSize.get());
 
 		this.setDaemon(true);
 
 		this.start();
 	}
 
-	@SuppressWarnings({"UnnecessaryLocalVariable"})
 	@Override
 	public void run() {
-		int[] sortIndex;
 		try {
 			while (!closeRequested || !registeredClients.isEmpty()) {
-				int resultsCount = org.drinkless.td.libcore.telegram.NativeClient.clientReceive(clientIds[0], eventIds, events, 2.0 /*seconds*/);
+				int resultsCount = backend.receive(clientIds, eventIds, events, waitStrategy.getReceiveTimeout());
+				waitStrategy.onReceived(Math.max(resultsCount, 0));
 
 				if (resultsCount <= 0) {
-					SpinWaitSupport.onSpinWait();
 					continue;
 				}
 
-				Set<Integer> closedClients = new HashSet<>();
+				if (eventsRecorder != null) {
+					eventsRecorder.record(clientIds, eventIds, events, resultsCount);
+				}
 
 				if (USE_OPTIMIZED_DISPATCHER) {
-					// Generate a list of indices sorted by client id, from 0 to resultsCount
-					sortIndex = generateSortIndex(0, resultsCount, clientIds);
-
-					int lastClientId = clientIds[sortIndex[0]];
-					int lastClientIdEventsCount = 0;
-					boolean lastClientClosed = false;
-
-					for (int i = 0; i <= resultsCount; i++) {
-						if (i == resultsCount || (i != 0 && clientIds[sortIndex[i]] != lastClientId)) {
-							if (lastClientIdEventsCount > 0) {
-								int clientId = lastClientId;
-								long[] clientEventIds = new long[lastClientIdEventsCount];
-								TdApi.Object[] clientEvents = new TdApi.Object[lastClientIdEventsCount];
-								for (int j = 0; j < lastClientIdEventsCount; j++) {
-									clientEventIds[j] = eventIds[sortIndex[i - lastClientIdEventsCount + j]];
-									clientEvents[j] = events[sortIndex[i - lastClientIdEventsCount + j]];
-
-									if (clientEventIds[j] == 0 && clientEvents[j] instanceof TdApi.UpdateAuthorizationState) {
-										TdApi.AuthorizationState authorizationState = ((TdApi.UpdateAuthorizationState) clientEvents[j]).authorizationState;
-										if (authorizationState instanceof TdApi.AuthorizationStateClosed) {
-											lastClientClosed = true;
-											closedClients.add(clientId);
-										}
-									}
-								}
-
-								eventsHandler.handleClientEvents(clientId, lastClientClosed, clientEventIds, clientEvents);
-							}
-
-							if (i < resultsCount) {
-								lastClientId = clientIds[sortIndex[i]];
-								lastClientIdEventsCount = 0;
-								lastClientClosed = false;
-							}
-						}
-
-						if (i < resultsCount) {
-							lastClientIdEventsCount++;
-						}
-					}
+					dispatcher.dispatch(clientIds, eventIds, events, resultsCount);
 				} else {
-					class Event {
-
-						public final int clientId;
-						public final long eventId;
-						public final Object event;
-
-						public Event(int clientId, long eventId, Object event) {
-							this.clientId = clientId;
-							this.eventId = eventId;
-							this.event = event;
-						}
-					}
-
-					List<Event> eventsList = new ArrayList<>(resultsCount);
-					for (int i = 0; i < resultsCount; i++) {
-						eventsList.add(new Event(clientIds[i], eventIds[i], events[i]));
-					}
-					Set<Integer> clientIds = eventsList.stream().map(e -> e.clientId).collect(Collectors.toSet());
-					for (int clientId : clientIds) {
-						List<Event> clientEventsList = eventsList.stream().filter(e -> e.clientId == clientId).collect(Collectors.toList());
-						long[] clientEventIds = new long[clientEventsList.size()];
-						Object[] clientEvents = new Object[clientEventsList.size()];
-						boolean closed = false;
-						for (int i = 0; i < clientEventsList.size(); i++) {
-							Event e = clientEventsList.get(i);
-							clientEventIds[i] = e.eventId;
-							clientEvents[i] = e.event;
-
-							if (e.eventId == 0 && e.event instanceof TdApi.UpdateAuthorizationState) {
-								TdApi.AuthorizationState authorizationState = ((TdApi.UpdateAuthorizationState) e.event).authorizationState;
-								if (authorizationState instanceof TdApi.AuthorizationStateClosed) {
-									closed = true;
-									closedClients.add(clientId);
-								}
-							}
-						}
-						eventsHandler.handleClientEvents(clientId, closed, clientEventIds, clientEvents);
-					}
+					dispatcher.dispatchUnoptimized(clientIds, eventIds, events, resultsCount);
 				}
 
-				Arrays.fill(clientIds, 0);
-				Arrays.fill(eventIds, 0);
-				Arrays.fill(events, null);
+				Arrays.fill(events, 0, resultsCount, null);
 
-				if (!closedClients.isEmpty()) {
-					this.registeredClients.addAll(closedClients);
+				if (batchSize.onBatch(resultsCount)) {
+					allocateBuffers(batchSize.get());
+					dispatcher.resize(batchSize.get());
 				}
 			}
 		} finally {
@@ -162,13 +95,29 @@ public final class ResponseReceiver extends Thread implements AutoCloseable {
 		}
 	}
 
-	@SuppressWarnings("SameParameterValue")
-	private int[] generateSortIndex(int from, int to, int[] data) {
-		int[] sortedIndices = Arrays.copyOfRange(originalSortingSource, from, to);
-		it.unimi.dsi.fastutil.Arrays.mergeSort(from, to, (o1, o2) -> {
-			return Integer.compare(data[sortedIndices[o1]], data[sortedIndices[o2]]);
-		}, new IntSwapper(sortedIndices));
-		return sortedIndices;
+	/**
+	 * Replace the receive buffers, this is done only when the batch size changes
+	 */
+	private void allocateBuffers(int capacity) {
+		this.clientIds = new int[capacity];
+		this.eventIds = new long[capacity];
+		this.events = new TdApi.Object[capacity];
+	}
+
+	private void handleClientEvents(int clientId,
+			boolean isClosed,
+			long[] clientEventIds,
+			TdApi.Object[] clientEvents,
+			int arrayOffset,
+			int arrayLength) {
+		eventsHandler.handleClientEvents(clientId, isClosed, clientEventIds, clientEvents, arrayOffset, arrayLength);
+		if (isClosed) {
+			registeredClients.remove(clientId);
+		}
+	}
+
+	public ReceiveSettings getReceiveSettings() {
+		return receiveSettings;
 	}
 
 	public void registerClient(int clientId) {
@@ -0,0 +1,522 @@
+package it.tdlight.common.internal;
+
+import it.tdlight.common.ReactiveItem;
+import it.tdlight.common.SubscriptionSettings;
+import it.tdlight.common.SubscriptionSettings.OverflowPolicy;
+import it.tdlight.common.UpdatesConflation;
+import it.tdlight.common.UpdatesConflation.ConflationKey;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passes the updates of a client to many subscribers, each one with its own demand and its own bounded buffer.
+ * <p>
+ * The items subscribers receive one {@link ReactiveItem} at a time, the batch subscribers receive the updates of each
+ * batch received from TDLib as a single list.
+ * <p>
+ * The items received before the first subscriber are buffered and passed to it, the items received later when there
+ * are no subscribers are dropped.
+ */
+final class UpdatesBroadcaster {
+
+	private static final Logger logger = LoggerFactory.getLogger(UpdatesBroadcaster.class);
+
+	private final CopyOnWriteArrayList<ItemSubscription> itemSubscriptions = new CopyOnWriteArrayList<>();
+	private final CopyOnWriteArrayList<BatchSubscription> batchSubscriptions = new CopyOnWriteArrayList<>();
+	private final int initialBufferSize;
+	private final Runnable lastSubscriberCancelHandler;
+	private final LongAdder droppedItems = new LongAdder();
+	private volatile boolean subscribed;
+
+	// Guarded by this
+	private ArrayDeque<ReactiveItem> initialItems = new ArrayDeque<>();
+	private boolean completed;
+
+	/**
+	 * @param initialBufferSize maximum number of items buffered before the first subscriber, the oldest are dropped
+	 * @param lastSubscriberCancelHandler called when the last subscriber cancels its subscription
+	 */
+	UpdatesBroadcaster(int initialBufferSize, Runnable lastSubscriberCancelHandler) {
+		this.initialBufferSize = initialBufferSize;
+		this.lastSubscriberCancelHandler = lastSubscriberCancelHandler;
+	}
+
+	public void subscribe(Subscriber<? super ReactiveItem> subscriber, SubscriptionSettings settings) {
+		Objects.requireNonNull(subscriber);
+		ItemSubscription subscription = new ItemSubscription(subscriber, settings);
+		synchronized (this) {
+			ArrayDeque<ReactiveItem> initialItems = takeInitialItems();
+			if (initialItems != null) {
+				for (ReactiveItem item : initialItems) {
+					subscription.enqueue(item);
+				}
+			}
+			if (completed) {
+				subscription.done = true;
+			} else {
+				itemSubscriptions.add(subscription);
+			}
+		}
+		subscription.start();
+	}
+
+	public void subscribeBatches(Subscriber<? super List<TdApi.Object>> subscriber, SubscriptionSettings settings) {
+		Objects.requireNonNull(subscriber);
+		BatchSubscription subscription = new BatchSubscription(subscriber, settings);
+		synchronized (this) {
+			ArrayDeque<ReactiveItem> initialItems = takeInitialItems();
+			if (initialItems != null) {
+				// The exceptions can't be passed to a batch subscriber
+				List<TdApi.Object> initialUpdates = new ArrayList<>(initialItems.size());
+				for (ReactiveItem item : initialItems) {
+					if (item.isUpdate()) {
+						initialUpdates.add(item.getUpdate());
+					}
+				}
+				if (!initialUpdates.isEmpty()) {
+					subscription.enqueue(Collections.unmodifiableList(initialUpdates));
+				}
+			}
+			if (completed) {
+				subscription.done = true;
+			} else {
+				batchSubscriptions.add(subscription);
+			}
+		}
+		subscription.start();
+	}
+
+	// Called with the lock held
+	private ArrayDeque<ReactiveItem> takeInitialItems() {
+		ArrayDeque<ReactiveItem> initialItems = this.initialItems;
+		this.initialItems = null;
+		this.subscribed = true;
+		return initialItems;
+	}
+
+	/**
+	 * @return true if {@link #onNext(ReactiveItem)} would pass the item to someone
+	 */
+	public boolean hasItemSubscribers() {
+		return !subscribed || !itemSubscriptions.isEmpty();
+	}
+
+	/**
+	 * @return true if {@link #onBatch(List)} would pass the batch to someone
+	 */
+	public boolean hasBatchSubscribers() {
+		return !batchSubscriptions.isEmpty();
+	}
+
+	/**
+	 * Pass the item to all the items subscribers
+	 */
+	public void onNext(ReactiveItem item) {
+		synchronized (this) {
+			if (completed) {
+				return;
+			}
+			if (initialItems != null) {
+				if (initialItems.size() >= initialBufferSize) {
+					initialItems.poll();
+					droppedItems.increment();
+				}
+				initialItems.add(item);
+				return;
+			}
+			for (ItemSubscription subscription : itemSubscriptions) {
+				subscription.enqueue(item);
+			}
+		}
+		for (ItemSubscription subscription : itemSubscriptions) {
+			subscription.drain();
+		}
+	}
+
+	/**
+	 * Pass the updates of a batch received from TDLib to all the batch subscribers
+	 *
+	 * @param updates read-only list of updates, never empty
+	 */
+	public void onBatch(List<TdApi.Object> updates) {
+		synchronized (this) {
+			if (completed) {
+				return;
+			}
+			for (BatchSubscription subscription : batchSubscriptions) {
+				subscription.enqueue(updates);
+			}
+		}
+		for (BatchSubscription subscription : batchSubscriptions) {
+			subscription.drain();
+		}
+	}
+
+	/**
+	 * Complete all the subscribers after their buffered items
+	 */
+	public void complete() {
+		synchronized (this) {
+			if (completed) {
+				return;
+			}
+			completed = true;
+		}
+		for (ItemSubscription subscription : itemSubscriptions) {
+			subscription.done = true;
+			subscription.drain();
+		}
+		for (BatchSubscription subscription : batchSubscriptions) {
+			subscription.done = true;
+			subscription.drain();
+		}
+		itemSubscriptions.clear();
+		batchSubscriptions.clear();
+	}
+
+	/**
+	 * @return number of items and batches dropped because a buffer was full
+	 */
+	public long getDroppedItems() {
+		return droppedItems.sum();
+	}
+
+	private void remove(BroadcastSubscription<?> subscription, boolean cancelled) {
+		boolean removed = itemSubscriptions.remove(subscription) || batchSubscriptions.remove(subscription);
+		if (removed && cancelled && itemSubscriptions.isEmpty() && batchSubscriptions.isEmpty()) {
+			lastSubscriberCancelHandler.run();
+		}
+	}
+
+	private final class ItemSubscription extends BroadcastSubscription<ReactiveItem> {
+
+		private final UpdatesConflation conflation;
+		// Index in the buffer of the latest buffered update of each conflation key, guarded by the subscription
+		private final Long2IntOpenHashMap keyIndexes;
+
+		private ItemSubscription(Subscriber<? super ReactiveItem> subscriber, SubscriptionSettings settings) {
+			super(subscriber, settings);
+			this.conflation = settings.getConflation();
+			if (conflation != null && overflowPolicy == OverflowPolicy.CONFLATE) {
+				this.keyIndexes = new Long2IntOpenHashMap();
+				keyIndexes.defaultReturnValue(-1);
+			} else {
+				this.keyIndexes = null;
+			}
+		}
+
+		@Override
+		protected ReactiveItem filter(ReactiveItem item) {
+			if (constructors != null && item.isUpdate() && !constructors.contains(item.getUpdate().getConstructor())) {
+				return null;
+			}
+			return item;
+		}
+
+		@Override
+		protected int indexOfSameKey(Object[] buffer, ReactiveItem item) {
+			ConflationKey<TdApi.Object> conflationKey = getConflationKey(item);
+			if (conflationKey == null) {
+				return -1;
+			}
+			TdApi.Object update = item.getUpdate();
+			int index = keyIndexes.get(indexKey(conflationKey, update));
+			if (index == -1) {
+				return -1;
+			}
+			// Different keys may have the same index key, and the keys of the conflation may have changed
+			ReactiveItem bufferedItem = (ReactiveItem) buffer[index];
+			if (bufferedItem == null || !bufferedItem.isUpdate()) {
+				return -1;
+			}
+			TdApi.Object bufferedUpdate = bufferedItem.getUpdate();
+			if (bufferedUpdate.getConstructor() == update.getConstructor()
+					&& conflationKey.key(bufferedUpdate) == conflationKey.key(update)
+					&& conflationKey.subKey(bufferedUpdate) == conflationKey.subKey(update)) {
+				return index;
+			}
+			return -1;
+		}
+
+		@Override
+		protected void onBuffered(ReactiveItem item, int index) {
+			ConflationKey<TdApi.Object> conflationKey = getConflationKey(item);
+			if (conflationKey != null) {
+				keyIndexes.put(indexKey(conflationKey, item.getUpdate()), index);
+			}
+		}
+
+		@Override
+		protected void onRemoved(ReactiveItem item, int index) {
+			ConflationKey<TdApi.Object> conflationKey = getConflationKey(item);
+			if (conflationKey != null) {
+				// A newer update with the same key may have replaced the index
+				keyIndexes.remove(indexKey(conflationKey, item.getUpdate()), index);
+			}
+		}
+
+		private ConflationKey<TdApi.Object> getConflationKey(ReactiveItem item) {
+			if (keyIndexes == null || !item.isUpdate()) {
+				return null;
+			}
+			return conflation.getKey(item.getUpdate().getConstructor());
+		}
+
+		private long indexKey(ConflationKey<TdApi.Object> conflationKey, TdApi.Object update) {
+			long key = conflationKey.key(update) * 0x9E3779B97F4A7C15L;
+			return key ^ ((long) update.getConstructor() << 32 | (conflationKey.subKey(update) & 0xFFFFFFFFL));
+		}
+	}
+
+	private final class BatchSubscription extends BroadcastSubscription<List<TdApi.Object>> {
+
+		private BatchSubscription(Subscriber<? super List<TdApi.Object>> subscriber, SubscriptionSettings settings) {
+			super(subscriber, settings);
+		}
+
+		@Override
+		protected List<TdApi.Object> filter(List<TdApi.Object> updates) {
+			if (constructors == null) {
+				return updates;
+			}
+			List<TdApi.Object> filteredUpdates = null;
+			for (int i = 0; i < updates.size(); i++) {
+				TdApi.Object update = updates.get(i);
+				if (constructors.contains(update.getConstructor())) {
+					if (filteredUpdates == null) {
+						filteredUpdates = new ArrayList<>(updates.size() - i);
+					}
+					filteredUpdates.add(update);
+				}
+			}
+			return filteredUpdates == null ? null : Collections.unmodifiableList(filteredUpdates);
+		}
+
+		@Override
+		protected int indexOfSameKey(Object[] buffer, List<TdApi.Object> updates) {
+			// The batches are never conflated, the oldest one is dropped
+			return -1;
+		}
+	}
+
+	private abstract class BroadcastSubscription<T> implements Subscription {
+
+		private final Subscriber<? super T> subscriber;
+		private final int bufferSize;
+		protected final OverflowPolicy overflowPolicy;
+		protected final IntSet constructors;
+		private final AtomicLong requested = new AtomicLong();
+		// Taken by the creator until onSubscribe returns, so no item is passed before it
+		private final AtomicInteger wip = new AtomicInteger(1);
+
+		// Ring buffer guarded by this
+		private final Object[] buffer;
+		private int head;
+		private int size;
+
+		protected volatile boolean done;
+		private volatile Throwable error;
+		private volatile boolean cancelled;
+
+		private BroadcastSubscription(Subscriber<? super T> subscriber, SubscriptionSettings settings) {
+			this.subscriber = subscriber;
+			this.bufferSize = settings.getBufferSize();
+			this.overflowPolicy = settings.getOverflowPolicy();
+			this.constructors = settings.getConstructors();
+			this.buffer = new Object[bufferSize];
+		}
+
+		/**
+		 * @return the item to buffer, or null to skip it
+		 */
+		protected abstract T filter(T item);
+
+		/**
+		 * Called with the lock held, when the buffer is full and the policy is {@link OverflowPolicy#CONFLATE}
+		 *
+		 * @return the index in the buffer of the item replaced by this item, or -1
+		 */
+		protected abstract int indexOfSameKey(Object[] buffer, T item);
+
+		/**
+		 * Called with the lock held, after the item is put in the buffer
+		 */
+		protected void onBuffered(T item, int index) {
+		}
+
+		/**
+		 * Called with the lock held, after the item is removed from the buffer
+		 */
+		protected void onRemoved(T item, int index) {
+		}
+
+		protected void start() {
+			subscriber.onSubscribe(this);
+			drainLoop();
+		}
+
+		protected void enqueue(T item) {
+			if (cancelled || error != null) {
+				return;
+			}
+			item = filter(item);
+			if (item == null) {
+				return;
+			}
+			synchronized (this) {
+				if (size < bufferSize) {
+					int index = (head + size++) % bufferSize;
+					buffer[index] = item;
+					onBuffered(item, index);
+					return;
+				}
+				switch (overflowPolicy) {
+					case DROP_OLDEST:
+						droppedItems.increment();
+						dropOldest(item);
+						return;
+					case CONFLATE:
+						droppedItems.increment();
+						int index = indexOfSameKey(buffer, item);
+						if (index != -1) {
+							replace(index, item);
+						} else {
+							dropOldest(item);
+						}
+						return;
+					case ERROR:
+						clear();
+						logger.warn("Terminating a subscriber of the updates, its buffer of {} items is full", bufferSize);
+						error = new IllegalStateException("The subscriber is too slow, its buffer of " + bufferSize
+								+ " items is full");
+						return;
+					default:
+						throw new IllegalStateException();
+				}
+			}
+		}
+
+		// Called with the lock held, when the buffer is full
+		private void dropOldest(T item) {
+			replace(head, item);
+			head = (head + 1) % bufferSize;
+		}
+
+		// Called with the lock held
+		@SuppressWarnings("unchecked")
+		private void replace(int index, T item) {
+			onRemoved((T) buffer[index], index);
+			buffer[index] = item;
+			onBuffered(item, index);
+		}
+
+		@SuppressWarnings("unchecked")
+		private synchronized T poll() {
+			if (size == 0) {
+				return null;
+			}
+			T item = (T) buffer[head];
+			buffer[head] = null;
+			onRemoved(item, head);
+			head = (head + 1) % bufferSize;
+			size--;
+			return item;
+		}
+
+		private synchronized boolean isEmpty() {
+			return size == 0;
+		}
+
+		@SuppressWarnings("unchecked")
+		private synchronized void clear() {
+			for (int i = 0; i < size; i++) {
+				int index = (head + i) % bufferSize;
+				T item = (T) buffer[index];
+				buffer[index] = null;
+				onRemoved(item, index);
+			}
+			head = 0;
+			size = 0;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				error = new IllegalArgumentException("Rule 3.9: request must be positive, but it was " + n);
+			} else {
+				requested.accumulateAndGet(n, (current, added) -> {
+					long sum = current + added;
+					return sum < 0 ? Long.MAX_VALUE : sum;
+				});
+			}
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			if (!cancelled) {
+				cancelled = true;
+				remove(this, true);
+				clear();
+			}
+		}
+
+		protected void drain() {
+			if (wip.getAndIncrement() == 0) {
+				drainLoop();
+			}
+		}
+
+		private void drainLoop() {
+			int missed = 1;
+			do {
+				long requested = this.requested.get();
+				long emitted = 0;
+				while (emitted != requested) {
+					if (cancelled || error != null) {
+						break;
+					}
+					T item = poll();
+					if (item == null) {
+						break;
+					}
+					subscriber.onNext(item);
+					emitted++;
+				}
+				if (emitted != 0 && requested != Long.MAX_VALUE) {
+					this.requested.addAndGet(-emitted);
+				}
+				if (cancelled) {
+					return;
+				}
+				Throwable error = this.error;
+				if (error != null) {
+					cancelled = true;
+					remove(this, false);
+					subscriber.onError(error);
+					return;
+				}
+				if (done && isEmpty()) {
+					cancelled = true;
+					subscriber.onComplete();
+					return;
+				}
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+	}
+}
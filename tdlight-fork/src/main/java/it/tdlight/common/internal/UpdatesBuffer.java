@@ -0,0 +1,53 @@
+package it.tdlight.common.internal;
+
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Reusable buffer of updates, exposed to the {@link it.tdlight.common.UpdatesHandler} as a read-only list.
+ * <p>
+ * The same instance is filled again for every batch, so the list is valid only while the handler is running.
+ */
+final class UpdatesBuffer extends AbstractList<TdApi.Object> implements RandomAccess {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private TdApi.Object[] updates = new TdApi.Object[INITIAL_CAPACITY];
+	private int size;
+
+	void ensureCapacity(int capacity) {
+		if (capacity > updates.length) {
+			updates = Arrays.copyOf(updates, Math.max(capacity, updates.length * 2));
+		}
+	}
+
+	/**
+	 * Append an update, {@link #ensureCapacity(int)} must have been called before
+	 */
+	void append(TdApi.Object update) {
+		updates[size++] = update;
+	}
+
+	/**
+	 * Clear only the used slots, keeping the capacity
+	 */
+	void reset() {
+		Arrays.fill(updates, 0, size, null);
+		size = 0;
+	}
+
+	@Override
+	public TdApi.Object get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return updates[index];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,143 @@
+package it.tdlight.common.internal;
+
+import it.tdlight.common.UpdatesConflation;
+import it.tdlight.common.UpdatesConflation.ConflationKey;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * Conflation state of a client, see {@link UpdatesConflation}.
+ * <p>
+ * The updates are indexed by a hash of their constructor, key and sub key. The key of the indexed update is always
+ * compared again, so two different updates with the same hash are never merged.
+ */
+final class UpdatesConflator {
+
+	private final UpdatesConflation conflation;
+	private final Runnable flushScheduler;
+
+	// Position of the latest update of each key in the current batch, reused by every batch
+	private final Long2IntOpenHashMap latestPositions = new Long2IntOpenHashMap();
+	// Updates held until the end of the window, in order of arrival of their latest version
+	private final Long2ObjectLinkedOpenHashMap<TdApi.Object> heldUpdates = new Long2ObjectLinkedOpenHashMap<>();
+	private boolean flushScheduled;
+
+	/**
+	 * @param flushScheduler schedules a call to {@link #drainHeldUpdates(Consumer, boolean)} after the window
+	 */
+	UpdatesConflator(UpdatesConflation conflation, Runnable flushScheduler) {
+		this.conflation = conflation;
+		this.flushScheduler = flushScheduler;
+		this.latestPositions.defaultReturnValue(-1);
+	}
+
+	public Duration getWindow() {
+		return conflation.getWindow();
+	}
+
+	/**
+	 * Replace with null the updates of the batch that are followed by a later update with the same key
+	 */
+	public void conflate(long[] eventIds, TdApi.Object[] events, int arrayOffset, int arrayLength) {
+		if (arrayLength < 2) {
+			return;
+		}
+		int conflated = 0;
+		for (int i = arrayOffset + arrayLength - 1; i >= arrayOffset; i--) {
+			if (eventIds[i] != 0) {
+				continue;
+			}
+			TdApi.Object update = events[i];
+			int constructor = update.getConstructor();
+			ConflationKey<TdApi.Object> conflationKey = conflation.getKey(constructor);
+			if (conflationKey == null) {
+				if (UpdatesConflation.isLifecycleUpdate(constructor)) {
+					// The updates before a lifecycle update are never merged with the ones after it
+					latestPositions.clear();
+				}
+				continue;
+			}
+			long key = conflationKey.key(update);
+			int subKey = conflationKey.subKey(update);
+			int latestPosition = latestPositions.putIfAbsent(hash(constructor, key, subKey), i);
+			if (latestPosition != -1 && isSameKey(events[latestPosition], constructor, conflationKey, key, subKey)) {
+				events[i] = null;
+				conflated++;
+			}
+		}
+		latestPositions.clear();
+		if (conflated > 0) {
+			conflation.addConflatedUpdates(conflated);
+		}
+	}
+
+	/**
+	 * Hold the update until the end of the window, replacing the held update with the same key
+	 *
+	 * @return false if the update must be handled now
+	 */
+	public boolean hold(TdApi.Object update) {
+		int constructor = update.getConstructor();
+		ConflationKey<TdApi.Object> conflationKey = conflation.getKey(constructor);
+		if (conflationKey == null) {
+			return false;
+		}
+		long key = conflationKey.key(update);
+		int subKey = conflationKey.subKey(update);
+		long hash = hash(constructor, key, subKey);
+		TdApi.Object heldUpdate = heldUpdates.get(hash);
+		if (heldUpdate != null) {
+			if (!isSameKey(heldUpdate, constructor, conflationKey, key, subKey)) {
+				return false;
+			}
+			conflation.addConflatedUpdates(1);
+		}
+		heldUpdates.putAndMoveToLast(hash, update);
+		if (!flushScheduled) {
+			flushScheduled = true;
+			flushScheduler.run();
+		}
+		return true;
+	}
+
+	/**
+	 * Pass the held updates to the consumer, in order, and forget them
+	 *
+	 * @param fromScheduler true if called by the flush scheduled after the window
+	 */
+	public void drainHeldUpdates(Consumer<TdApi.Object> consumer, boolean fromScheduler) {
+		if (fromScheduler) {
+			flushScheduled = false;
+		}
+		if (heldUpdates.isEmpty()) {
+			return;
+		}
+		TdApi.Object[] updates = heldUpdates.values().toArray(new TdApi.Object[0]);
+		heldUpdates.clear();
+		for (TdApi.Object update : updates) {
+			consumer.accept(update);
+		}
+	}
+
+	public int getHeldUpdatesCount() {
+		return heldUpdates.size();
+	}
+
+	private static long hash(int constructor, long key, int subKey) {
+		return HashCommon.mix(key ^ ((long) constructor << 32) ^ ((long) subKey * 0x9E3779B97F4A7C15L));
+	}
+
+	private static boolean isSameKey(TdApi.Object other,
+			int constructor,
+			ConflationKey<TdApi.Object> conflationKey,
+			long key,
+			int subKey) {
+		return other.getConstructor() == constructor
+				&& conflationKey.key(other) == key
+				&& conflationKey.subKey(other) == subKey;
+	}
+}
@@ -0,0 +1,358 @@
+package it.tdlight.common.state;
+
+import it.tdlight.common.ExceptionHandler;
+import it.tdlight.common.ResultHandler;
+import it.tdlight.common.TelegramClient;
+import it.tdlight.common.UpdateKeys;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client that caches the responses of the getters of chats, users, groups and secret chats: {@link TdApi.GetChat},
+ * {@link TdApi.GetUser}, {@link TdApi.GetMe}, {@link TdApi.GetUserFullInfo}, {@link TdApi.GetBasicGroup},
+ * {@link TdApi.GetBasicGroupFullInfo}, {@link TdApi.GetSupergroup}, {@link TdApi.GetSupergroupFullInfo} and
+ * {@link TdApi.GetSecretChat}. All the other requests are sent to the wrapped client.
+ * <p>
+ * The cached responses are kept up to date by the updates, which must be passed to {@link #onUpdate(TdApi.Object)} on
+ * the thread that receives the responses, in the order they are received: the updates that carry the full object,
+ * like {@link TdApi.UpdateUser}, replace it, and the updates of a chat or of a user status modify a copy of it. When
+ * the client is not ready anymore all the responses are forgotten. Only the objects already in the cache are updated,
+ * and when the cache is full the least recently used one is evicted.
+ * <p>
+ * A cached response is passed to the result handler on the thread that sends the request, and it's shared by all the
+ * requests, so it must not be modified.
+ */
+public final class CachingTelegramClient implements TelegramClient {
+
+	private static final Logger logger = LoggerFactory.getLogger(CachingTelegramClient.class);
+
+	private final TelegramClient client;
+	private final int maximumSize;
+	private final ExceptionHandler defaultExceptionHandler;
+
+	// Guarded by itself, in access order
+	private final Object2ObjectLinkedOpenHashMap<CacheKey, TdApi.Object> entries = new Object2ObjectLinkedOpenHashMap<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder updatedEntries = new LongAdder();
+	private final LongAdder invalidatedEntries = new LongAdder();
+
+	/**
+	 * @param maximumSize             maximum number of cached responses
+	 * @param defaultExceptionHandler receives the exceptions thrown by the result handlers of the cached responses,
+	 *                                when the request has no exception handler. Can be null
+	 */
+	public CachingTelegramClient(TelegramClient client, int maximumSize, ExceptionHandler defaultExceptionHandler) {
+		if (maximumSize <= 0) {
+			throw new IllegalArgumentException("Maximum size must be greater than 0");
+		}
+		this.client = client;
+		this.maximumSize = maximumSize;
+		this.defaultExceptionHandler = defaultExceptionHandler;
+	}
+
+	@Override
+	public void send(TdApi.Function query, ResultHandler resultHandler, ExceptionHandler exceptionHandler) {
+		send(query, resultHandler, exceptionHandler, null);
+	}
+
+	@Override
+	public void send(TdApi.Function query,
+			ResultHandler resultHandler,
+			ExceptionHandler exceptionHandler,
+			Duration timeout) {
+		CacheKey key = cacheKey(query);
+		if (key == null) {
+			sendToClient(query, resultHandler, exceptionHandler, timeout);
+			return;
+		}
+		TdApi.Object cachedResponse;
+		synchronized (entries) {
+			cachedResponse = entries.getAndMoveToLast(key);
+		}
+		if (cachedResponse != null) {
+			hits.increment();
+			if (resultHandler != null) {
+				try {
+					resultHandler.onResult(cachedResponse);
+				} catch (Throwable cause) {
+					handleException(exceptionHandler, cause);
+				}
+			}
+			return;
+		}
+		misses.increment();
+		sendToClient(query, response -> {
+			if (response.getConstructor() != TdApi.Error.CONSTRUCTOR) {
+				put(key, response);
+			}
+			if (resultHandler != null) {
+				resultHandler.onResult(response);
+			}
+		}, exceptionHandler, timeout);
+	}
+
+	/**
+	 * Update the cached responses, the updates of the objects that are not cached are ignored
+	 */
+	public void onUpdate(TdApi.Object update) {
+		int constructor = update.getConstructor();
+		switch (constructor) {
+			case TdApi.UpdateNewChat.CONSTRUCTOR: {
+				TdApi.Chat chat = ((TdApi.UpdateNewChat) update).chat;
+				replace(new CacheKey(TdApi.GetChat.CONSTRUCTOR, chat.id), StateUpdates.copy(chat));
+				break;
+			}
+			case TdApi.UpdateUser.CONSTRUCTOR: {
+				TdApi.User user = StateUpdates.copy(((TdApi.UpdateUser) update).user);
+				replace(new CacheKey(TdApi.GetUser.CONSTRUCTOR, user.id), user);
+				replaceMe(user.id, me -> user);
+				break;
+			}
+			case TdApi.UpdateUserFullInfo.CONSTRUCTOR: {
+				TdApi.UpdateUserFullInfo updateUser = (TdApi.UpdateUserFullInfo) update;
+				replace(new CacheKey(TdApi.GetUserFullInfo.CONSTRUCTOR, updateUser.userId), updateUser.userFullInfo);
+				break;
+			}
+			case TdApi.UpdateBasicGroup.CONSTRUCTOR: {
+				TdApi.BasicGroup basicGroup = ((TdApi.UpdateBasicGroup) update).basicGroup;
+				replace(new CacheKey(TdApi.GetBasicGroup.CONSTRUCTOR, basicGroup.id), basicGroup);
+				break;
+			}
+			case TdApi.UpdateBasicGroupFullInfo.CONSTRUCTOR: {
+				TdApi.UpdateBasicGroupFullInfo updateGroup = (TdApi.UpdateBasicGroupFullInfo) update;
+				replace(new CacheKey(TdApi.GetBasicGroupFullInfo.CONSTRUCTOR, updateGroup.basicGroupId),
+						updateGroup.basicGroupFullInfo
+				);
+				break;
+			}
+			case TdApi.UpdateSupergroup.CONSTRUCTOR: {
+				TdApi.Supergroup supergroup = ((TdApi.UpdateSupergroup) update).supergroup;
+				replace(new CacheKey(TdApi.GetSupergroup.CONSTRUCTOR, supergroup.id), supergroup);
+				break;
+			}
+			case TdApi.UpdateSupergroupFullInfo.CONSTRUCTOR: {
+				TdApi.UpdateSupergroupFullInfo updateGroup = (TdApi.UpdateSupergroupFullInfo) update;
+				replace(new CacheKey(TdApi.GetSupergroupFullInfo.CONSTRUCTOR, updateGroup.supergroupId),
+						updateGroup.supergroupFullInfo
+				);
+				break;
+			}
+			case TdApi.UpdateSecretChat.CONSTRUCTOR: {
+				TdApi.SecretChat secretChat = ((TdApi.UpdateSecretChat) update).secretChat;
+				replace(new CacheKey(TdApi.GetSecretChat.CONSTRUCTOR, secretChat.id), secretChat);
+				break;
+			}
+			case TdApi.UpdateAuthorizationState.CONSTRUCTOR: {
+				TdApi.AuthorizationState state = ((TdApi.UpdateAuthorizationState) update).authorizationState;
+				if (state.getConstructor() != TdApi.AuthorizationStateReady.CONSTRUCTOR) {
+					clear();
+				}
+				break;
+			}
+			default:
+				if (StateUpdates.isChatUpdate(constructor)) {
+					CacheKey key = new CacheKey(TdApi.GetChat.CONSTRUCTOR, UpdateKeys.getChatId(update));
+					synchronized (entries) {
+						TdApi.Chat chat = (TdApi.Chat) entries.get(key);
+						if (chat != null) {
+							entries.put(key, StateUpdates.applyToChat(chat, update));
+							updatedEntries.increment();
+						}
+					}
+				} else if (StateUpdates.isUserUpdate(constructor)) {
+					long userId = UpdateKeys.getUserId(update);
+					CacheKey key = new CacheKey(TdApi.GetUser.CONSTRUCTOR, userId);
+					synchronized (entries) {
+						TdApi.User user = (TdApi.User) entries.get(key);
+						if (user != null) {
+							entries.put(key, StateUpdates.applyToUser(user, update));
+							updatedEntries.increment();
+						}
+					}
+					replaceMe(userId, me -> StateUpdates.applyToUser(me, update));
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Forget all the cached responses
+	 */
+	public void clear() {
+		synchronized (entries) {
+			invalidatedEntries.add(entries.size());
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return number of requests answered with a cached response
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return number of cacheable requests sent to TDLib
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return number of cached responses evicted because the cache was full
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return number of cached responses replaced or modified by an update
+	 */
+	public long getUpdatedEntries() {
+		return updatedEntries.sum();
+	}
+
+	/**
+	 * @return number of cached responses forgotten because the client was not ready anymore
+	 */
+	public long getInvalidatedEntries() {
+		return invalidatedEntries.sum();
+	}
+
+	private void sendToClient(TdApi.Function query,
+			ResultHandler resultHandler,
+			ExceptionHandler exceptionHandler,
+			Duration timeout) {
+		if (timeout == null) {
+			client.send(query, resultHandler, exceptionHandler);
+		} else {
+			client.send(query, resultHandler, exceptionHandler, timeout);
+		}
+	}
+
+	private void put(CacheKey key, TdApi.Object response) {
+		synchronized (entries) {
+			entries.putAndMoveToLast(key, response);
+			if (entries.size() > maximumSize) {
+				entries.removeFirst();
+				evictions.increment();
+			}
+		}
+	}
+
+	/**
+	 * Replace the cached response, if present, without changing the order of the entries
+	 */
+	private void replace(CacheKey key, TdApi.Object response) {
+		synchronized (entries) {
+			if (entries.containsKey(key)) {
+				entries.put(key, response);
+				updatedEntries.increment();
+			}
+		}
+	}
+
+	private void replaceMe(long userId, UserUpdater updater) {
+		CacheKey key = new CacheKey(TdApi.GetMe.CONSTRUCTOR, 0);
+		synchronized (entries) {
+			TdApi.User me = (TdApi.User) entries.get(key);
+			if (me != null && me.id == userId) {
+				entries.put(key, updater.update(me));
+				updatedEntries.increment();
+			}
+		}
+	}
+
+	private void handleException(ExceptionHandler exceptionHandler, Throwable cause) {
+		if (exceptionHandler == null) {
+			exceptionHandler = defaultExceptionHandler;
+		}
+		if (exceptionHandler != null) {
+			try {
+				exceptionHandler.onException(cause);
+			} catch (Throwable ignored) {
+			}
+		} else {
+			logger.warn("Unhandled exception in the handler of a cached response", cause);
+		}
+	}
+
+	/**
+	 * @return the key of the response of the function, or null if it's not cacheable
+	 */
+	private static CacheKey cacheKey(TdApi.Function query) {
+		switch (query.getConstructor()) {
+			case TdApi.GetChat.CONSTRUCTOR:
+				return new CacheKey(TdApi.GetChat.CONSTRUCTOR, ((TdApi.GetChat) query).chatId);
+			case TdApi.GetUser.CONSTRUCTOR:
+				return new CacheKey(TdApi.GetUser.CONSTRUCTOR, ((TdApi.GetUser) query).userId);
+			case TdApi.GetMe.CONSTRUCTOR:
+				return new CacheKey(TdApi.GetMe.CONSTRUCTOR, 0);
+			case TdApi.GetUserFullInfo.CONSTRUCTOR:
+				return new CacheKey(TdApi.GetUserFullInfo.CONSTRUCTOR, ((TdApi.GetUserFullInfo) query).userId);
+			case TdApi.GetBasicGroup.CONSTRUCTOR:
+				return new CacheKey(TdApi.GetBasicGroup.CONSTRUCTOR, ((TdApi.GetBasicGroup) query).basicGroupId);
+			case TdApi.GetBasicGroupFullInfo.CONSTRUCTOR:
+				return new CacheKey(TdApi.GetBasicGroupFullInfo.CONSTRUCTOR,
+						((TdApi.GetBasicGroupFullInfo) query).basicGroupId
+				);
+			case TdApi.GetSupergroup.CONSTRUCTOR:
+				return new CacheKey(TdApi.GetSupergroup.CONSTRUCTOR, ((TdApi.GetSupergroup) query).supergroupId);
+			case TdApi.GetSupergroupFullInfo.CONSTRUCTOR:
+				return new CacheKey(TdApi.GetSupergroupFullInfo.CONSTRUCTOR,
+						((TdApi.GetSupergroupFullInfo) query).supergroupId
+				);
+			case TdApi.GetSecretChat.CONSTRUCTOR:
+				return new CacheKey(TdApi.GetSecretChat.CONSTRUCTOR, ((TdApi.GetSecretChat) query).secretChatId);
+			default:
+				return null;
+		}
+	}
+
+	@FunctionalInterface
+	private interface UserUpdater {
+
+		TdApi.User update(TdApi.User user);
+	}
+
+	private static final class CacheKey {
+
+		private final int function;
+		private final long id;
+
+		private CacheKey(int function, long id) {
+			this.function = function;
+			this.id = id;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (o == null || getClass() != o.getClass()) {
+				return false;
+			}
+			CacheKey cacheKey = (CacheKey) o;
+			return function == cacheKey.function && id == cacheKey.id;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * function + Long.hashCode(id);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package it.tdlight.common.state;
+
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * Chats of a chat list, sorted like TDLib sorts them: by descending order, then by descending chat id.
+ * <p>
+ * The sorted chat ids are cached in an array that is rebuilt on the first read after a change.
+ */
+final class ChatListIndex {
+
+	private static final long[] NO_CHATS = new long[0];
+	private static final Comparator<Position> POSITIONS_COMPARATOR = (a, b) -> {
+		if (a.order != b.order) {
+			return a.order > b.order ? -1 : 1;
+		}
+		return Long.compare(b.chatId, a.chatId);
+	};
+
+	// Guarded by this
+	private final TreeSet<Position> positions = new TreeSet<>(POSITIONS_COMPARATOR);
+	private volatile long[] snapshot = NO_CHATS;
+
+	public synchronized void add(long chatId, long order) {
+		if (positions.add(new Position(chatId, order))) {
+			snapshot = null;
+		}
+	}
+
+	public synchronized void remove(long chatId, long order) {
+		if (positions.remove(new Position(chatId, order))) {
+			snapshot = null;
+		}
+	}
+
+	/**
+	 * @return the sorted chat ids, don't modify the returned array
+	 */
+	public long[] getChatIds() {
+		long[] snapshot = this.snapshot;
+		if (snapshot != null) {
+			return snapshot;
+		}
+		synchronized (this) {
+			snapshot = this.snapshot;
+			if (snapshot == null) {
+				snapshot = new long[positions.size()];
+				int i = 0;
+				for (Position position : positions) {
+					snapshot[i++] = position.chatId;
+				}
+				this.snapshot = snapshot;
+			}
+			return snapshot;
+		}
+	}
+
+	private static final class Position {
+
+		private final long chatId;
+		private final long order;
+
+		private Position(long chatId, long order) {
+			this.chatId = chatId;
+			this.order = order;
+		}
+	}
+}
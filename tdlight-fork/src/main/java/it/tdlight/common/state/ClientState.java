@@ -0,0 +1,156 @@
+package it.tdlight.common.state;
+
+import it.tdlight.common.ResultHandler;
+import it.tdlight.common.UpdateKeys;
+import it.tdlight.common.UpdatesConflation;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chats, users and chat lists of a client, kept in sync with its updates.
+ * <p>
+ * Pass every update of the client to {@link #onResult(TdApi.Object)}, for example by adding it as an updates handler.
+ * It's thread-safe, and the updates of different chats can be applied concurrently: the chats and the users are kept
+ * in maps with primitive keys split in independently locked stripes, and the chat lists are sorted by TDLib order.
+ * <p>
+ * The returned chats and users are snapshots: every update replaces them with a modified copy, so they must not be
+ * modified. The copies are shallow, the nested objects are shared with the updates.
+ */
+public final class ClientState implements ResultHandler {
+
+	private static final int STRIPES = 16;
+
+	private final StripedLong2ObjectMap<TdApi.Chat> chats = new StripedLong2ObjectMap<>(STRIPES);
+	private final StripedLong2ObjectMap<TdApi.User> users = new StripedLong2ObjectMap<>(STRIPES);
+	// Guarded by itself
+	private final Int2ObjectOpenHashMap<ChatListIndex> chatLists = new Int2ObjectOpenHashMap<>();
+
+	private ClientState() {
+	}
+
+	public static ClientState create() {
+		return new ClientState();
+	}
+
+	/**
+	 * Apply an update, the other objects are ignored
+	 */
+	@Override
+	public void onResult(TdApi.Object object) {
+		int constructor = object.getConstructor();
+		switch (constructor) {
+			case TdApi.UpdateNewChat.CONSTRUCTOR: {
+				TdApi.Chat newChat = StateUpdates.copy(((TdApi.UpdateNewChat) object).chat);
+				chats.compute(newChat.id, chat -> {
+					setPositions(newChat.id, chat != null ? chat.positions : null, newChat.positions);
+					return newChat;
+				});
+				break;
+			}
+			case TdApi.UpdateUser.CONSTRUCTOR: {
+				TdApi.User user = StateUpdates.copy(((TdApi.UpdateUser) object).user);
+				users.put(user.id, user);
+				break;
+			}
+			default:
+				if (StateUpdates.isChatUpdate(constructor)) {
+					// TDLib always sends UpdateNewChat before the other updates of a chat
+					chats.compute(UpdateKeys.getChatId(object), chat -> {
+						if (chat == null) {
+							return null;
+						}
+						TdApi.Chat newChat = StateUpdates.applyToChat(chat, object);
+						if (newChat.positions != chat.positions) {
+							setPositions(chat.id, chat.positions, newChat.positions);
+						}
+						return newChat;
+					});
+				} else if (StateUpdates.isUserUpdate(constructor)) {
+					users.compute(UpdateKeys.getUserId(object),
+							user -> user == null ? null : StateUpdates.applyToUser(user, object)
+					);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * @return the chat, or null if it's unknown
+	 */
+	public TdApi.Chat getChat(long chatId) {
+		return chats.get(chatId);
+	}
+
+	/**
+	 * @return the user, or null if it's unknown
+	 */
+	public TdApi.User getUser(long userId) {
+		return users.get(userId);
+	}
+
+	public int getChatsCount() {
+		return chats.size();
+	}
+
+	public int getUsersCount() {
+		return users.size();
+	}
+
+	/**
+	 * @return the ids of the chats of the chat list, in the order of the list. Don't modify the returned array
+	 */
+	public long[] getChatIds(TdApi.ChatList chatList) {
+		ChatListIndex index;
+		synchronized (chatLists) {
+			index = chatLists.get(UpdatesConflation.chatListKey(chatList));
+		}
+		return index != null ? index.getChatIds() : new long[0];
+	}
+
+	/**
+	 * @return the first chats of the chat list, in the order of the list
+	 */
+	public List<TdApi.Chat> getChats(TdApi.ChatList chatList, int limit) {
+		long[] chatIds = getChatIds(chatList);
+		List<TdApi.Chat> result = new ArrayList<>(Math.min(limit, chatIds.length));
+		for (int i = 0; i < chatIds.length && result.size() < limit; i++) {
+			TdApi.Chat chat = chats.get(chatIds[i]);
+			if (chat != null) {
+				result.add(chat);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Move the chat from the old positions to the new positions, called with the lock of the chat held
+	 */
+	private void setPositions(long chatId, TdApi.ChatPosition[] oldPositions, TdApi.ChatPosition[] newPositions) {
+		if (oldPositions != null) {
+			for (TdApi.ChatPosition position : oldPositions) {
+				getChatListIndex(position.list).remove(chatId, position.order);
+			}
+		}
+		if (newPositions != null) {
+			for (TdApi.ChatPosition position : newPositions) {
+				if (position.order != 0) {
+					getChatListIndex(position.list).add(chatId, position.order);
+				}
+			}
+		}
+	}
+
+	private ChatListIndex getChatListIndex(TdApi.ChatList chatList) {
+		int key = UpdatesConflation.chatListKey(chatList);
+		synchronized (chatLists) {
+			ChatListIndex index = chatLists.get(key);
+			if (index == null) {
+				index = new ChatListIndex();
+				chatLists.put(key, index);
+			}
+			return index;
+		}
+	}
+}
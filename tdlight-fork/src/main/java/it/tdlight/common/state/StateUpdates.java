@@ -0,0 +1,205 @@
+package it.tdlight.common.state;
+
+import it.tdlight.common.UpdatesConflation;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies the updates of a chat or of a user to a copy of it, leaving the original unmodified.
+ * The copies are shallow, the nested objects are shared with the original and with the update.
+ */
+public final class StateUpdates {
+
+	private StateUpdates() {
+	}
+
+	/**
+	 * @return true if the update modifies a chat received before, see {@link #applyToChat(TdApi.Chat, TdApi.Object)}
+	 */
+	public static boolean isChatUpdate(int constructor) {
+		switch (constructor) {
+			case TdApi.UpdateChatTitle.CONSTRUCTOR:
+			case TdApi.UpdateChatPhoto.CONSTRUCTOR:
+			case TdApi.UpdateChatPermissions.CONSTRUCTOR:
+			case TdApi.UpdateChatLastMessage.CONSTRUCTOR:
+			case TdApi.UpdateChatDraftMessage.CONSTRUCTOR:
+			case TdApi.UpdateChatPosition.CONSTRUCTOR:
+			case TdApi.UpdateChatIsMarkedAsUnread.CONSTRUCTOR:
+			case TdApi.UpdateChatIsBlocked.CONSTRUCTOR:
+			case TdApi.UpdateChatHasScheduledMessages.CONSTRUCTOR:
+			case TdApi.UpdateChatDefaultDisableNotification.CONSTRUCTOR:
+			case TdApi.UpdateChatReadInbox.CONSTRUCTOR:
+			case TdApi.UpdateChatReadOutbox.CONSTRUCTOR:
+			case TdApi.UpdateChatUnreadMentionCount.CONSTRUCTOR:
+			case TdApi.UpdateMessageMentionRead.CONSTRUCTOR:
+			case TdApi.UpdateChatNotificationSettings.CONSTRUCTOR:
+			case TdApi.UpdateChatActionBar.CONSTRUCTOR:
+			case TdApi.UpdateChatReplyMarkup.CONSTRUCTOR:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @return true if the update modifies a user received before, see {@link #applyToUser(TdApi.User, TdApi.Object)}
+	 */
+	public static boolean isUserUpdate(int constructor) {
+		return constructor == TdApi.UpdateUserStatus.CONSTRUCTOR;
+	}
+
+	/**
+	 * @param chat the chat of the update, see {@link it.tdlight.common.UpdateKeys#getChatId(TdApi.Object)}
+	 * @return a modified copy of the chat, or null if {@link #isChatUpdate(int)} is false
+	 */
+	public static TdApi.Chat applyToChat(TdApi.Chat chat, TdApi.Object update) {
+		if (!isChatUpdate(update.getConstructor())) {
+			return null;
+		}
+		TdApi.Chat newChat = copy(chat);
+		switch (update.getConstructor()) {
+			case TdApi.UpdateChatTitle.CONSTRUCTOR:
+				newChat.title = ((TdApi.UpdateChatTitle) update).title;
+				break;
+			case TdApi.UpdateChatPhoto.CONSTRUCTOR:
+				newChat.photo = ((TdApi.UpdateChatPhoto) update).photo;
+				break;
+			case TdApi.UpdateChatPermissions.CONSTRUCTOR:
+				newChat.permissions = ((TdApi.UpdateChatPermissions) update).permissions;
+				break;
+			case TdApi.UpdateChatLastMessage.CONSTRUCTOR: {
+				TdApi.UpdateChatLastMessage updateChat = (TdApi.UpdateChatLastMessage) update;
+				newChat.lastMessage = updateChat.lastMessage;
+				newChat.positions = updateChat.positions;
+				break;
+			}
+			case TdApi.UpdateChatDraftMessage.CONSTRUCTOR: {
+				TdApi.UpdateChatDraftMessage updateChat = (TdApi.UpdateChatDraftMessage) update;
+				newChat.draftMessage = updateChat.draftMessage;
+				newChat.positions = updateChat.positions;
+				break;
+			}
+			case TdApi.UpdateChatPosition.CONSTRUCTOR:
+				newChat.positions = replacePosition(chat.positions, ((TdApi.UpdateChatPosition) update).position);
+				break;
+			case TdApi.UpdateChatIsMarkedAsUnread.CONSTRUCTOR:
+				newChat.isMarkedAsUnread = ((TdApi.UpdateChatIsMarkedAsUnread) update).isMarkedAsUnread;
+				break;
+			case TdApi.UpdateChatIsBlocked.CONSTRUCTOR:
+				newChat.isBlocked = ((TdApi.UpdateChatIsBlocked) update).isBlocked;
+				break;
+			case TdApi.UpdateChatHasScheduledMessages.CONSTRUCTOR:
+				newChat.hasScheduledMessages = ((TdApi.UpdateChatHasScheduledMessages) update).hasScheduledMessages;
+				break;
+			case TdApi.UpdateChatDefaultDisableNotification.CONSTRUCTOR:
+				newChat.defaultDisableNotification
+						= ((TdApi.UpdateChatDefaultDisableNotification) update).defaultDisableNotification;
+				break;
+			case TdApi.UpdateChatReadInbox.CONSTRUCTOR: {
+				TdApi.UpdateChatReadInbox updateChat = (TdApi.UpdateChatReadInbox) update;
+				newChat.lastReadInboxMessageId = updateChat.lastReadInboxMessageId;
+				newChat.unreadCount = updateChat.unreadCount;
+				break;
+			}
+			case TdApi.UpdateChatReadOutbox.CONSTRUCTOR:
+				newChat.lastReadOutboxMessageId = ((TdApi.UpdateChatReadOutbox) update).lastReadOutboxMessageId;
+				break;
+			case TdApi.UpdateChatUnreadMentionCount.CONSTRUCTOR:
+				newChat.unreadMentionCount = ((TdApi.UpdateChatUnreadMentionCount) update).unreadMentionCount;
+				break;
+			case TdApi.UpdateMessageMentionRead.CONSTRUCTOR:
+				newChat.unreadMentionCount = ((TdApi.UpdateMessageMentionRead) update).unreadMentionCount;
+				break;
+			case TdApi.UpdateChatNotificationSettings.CONSTRUCTOR:
+				newChat.notificationSettings = ((TdApi.UpdateChatNotificationSettings) update).notificationSettings;
+				break;
+			case TdApi.UpdateChatActionBar.CONSTRUCTOR:
+				newChat.actionBar = ((TdApi.UpdateChatActionBar) update).actionBar;
+				break;
+			case TdApi.UpdateChatReplyMarkup.CONSTRUCTOR:
+				newChat.replyMarkupMessageId = ((TdApi.UpdateChatReplyMarkup) update).replyMarkupMessageId;
+				break;
+			default:
+				throw new IllegalStateException();
+		}
+		return newChat;
+	}
+
+	/**
+	 * @param user the user of the update, see {@link it.tdlight.common.UpdateKeys#getUserId(TdApi.Object)}
+	 * @return a modified copy of the user, or null if {@link #isUserUpdate(int)} is false
+	 */
+	public static TdApi.User applyToUser(TdApi.User user, TdApi.Object update) {
+		if (!isUserUpdate(update.getConstructor())) {
+			return null;
+		}
+		TdApi.User newUser = copy(user);
+		newUser.status = ((TdApi.UpdateUserStatus) update).status;
+		return newUser;
+	}
+
+	static TdApi.Chat copy(TdApi.Chat chat) {
+		return new TdApi.Chat(chat.id,
+				chat.type,
+				chat.title,
+				chat.photo,
+				chat.permissions,
+				chat.lastMessage,
+				chat.positions,
+				chat.isMarkedAsUnread,
+				chat.isBlocked,
+				chat.hasScheduledMessages,
+				chat.canBeDeletedOnlyForSelf,
+				chat.canBeDeletedForAllUsers,
+				chat.canBeReported,
+				chat.defaultDisableNotification,
+				chat.unreadCount,
+				chat.lastReadInboxMessageId,
+				chat.lastReadOutboxMessageId,
+				chat.unreadMentionCount,
+				chat.notificationSettings,
+				chat.actionBar,
+				chat.replyMarkupMessageId,
+				chat.draftMessage,
+				chat.clientData
+		);
+	}
+
+	static TdApi.User copy(TdApi.User user) {
+		return new TdApi.User(user.id,
+				user.firstName,
+				user.lastName,
+				user.username,
+				user.phoneNumber,
+				user.status,
+				user.profilePhoto,
+				user.isContact,
+				user.isMutualContact,
+				user.isVerified,
+				user.isSupport,
+				user.restrictionReason,
+				user.isScam,
+				user.haveAccess,
+				user.type,
+				user.languageCode
+		);
+	}
+
+	/**
+	 * @return the positions with the position of the same chat list replaced, or removed if its order is 0
+	 */
+	private static TdApi.ChatPosition[] replacePosition(TdApi.ChatPosition[] positions, TdApi.ChatPosition position) {
+		int key = UpdatesConflation.chatListKey(position.list);
+		List<TdApi.ChatPosition> newPositions = new ArrayList<>(positions.length + 1);
+		if (position.order != 0) {
+			newPositions.add(position);
+		}
+		for (TdApi.ChatPosition oldPosition : positions) {
+			if (UpdatesConflation.chatListKey(oldPosition.list) != key) {
+				newPositions.add(oldPosition);
+			}
+		}
+		return newPositions.toArray(new TdApi.ChatPosition[0]);
+	}
+}
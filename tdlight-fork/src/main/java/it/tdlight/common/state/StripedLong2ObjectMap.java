@@ -0,0 +1,80 @@
+package it.tdlight.common.state;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Map with primitive long keys, split in stripes that are locked independently.
+ * <p>
+ * The values are never modified after they are put: a change replaces the value with a modified copy, so the value
+ * returned by {@link #get(long)} can be read without locks.
+ */
+final class StripedLong2ObjectMap<V> {
+
+	private final Long2ObjectOpenHashMap<V>[] stripes;
+	private final int mask;
+
+	/**
+	 * @param stripes number of stripes, a power of 2
+	 */
+	StripedLong2ObjectMap(int stripes) {
+		if (Integer.bitCount(stripes) != 1) {
+			throw new IllegalArgumentException("The number of stripes must be a power of 2");
+		}
+		@SuppressWarnings("unchecked")
+		Long2ObjectOpenHashMap<V>[] stripesArray = (Long2ObjectOpenHashMap<V>[]) new Long2ObjectOpenHashMap<?>[stripes];
+		this.stripes = stripesArray;
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Long2ObjectOpenHashMap<>();
+		}
+		this.mask = stripes - 1;
+	}
+
+	public V get(long key) {
+		Long2ObjectOpenHashMap<V> stripe = stripe(key);
+		synchronized (stripe) {
+			return stripe.get(key);
+		}
+	}
+
+	public void put(long key, V value) {
+		Long2ObjectOpenHashMap<V> stripe = stripe(key);
+		synchronized (stripe) {
+			stripe.put(key, value);
+		}
+	}
+
+	/**
+	 * Replace the value with the result of the function, called with the lock of the stripe held.
+	 * The function receives null if the key is not present, and returns null to remove the key.
+	 *
+	 * @return the new value
+	 */
+	public V compute(long key, UnaryOperator<V> function) {
+		Long2ObjectOpenHashMap<V> stripe = stripe(key);
+		synchronized (stripe) {
+			V newValue = function.apply(stripe.get(key));
+			if (newValue == null) {
+				stripe.remove(key);
+			} else {
+				stripe.put(key, newValue);
+			}
+			return newValue;
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Long2ObjectOpenHashMap<V> stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	private Long2ObjectOpenHashMap<V> stripe(long key) {
+		return stripes[(int) HashCommon.mix(key) & mask];
+	}
+}
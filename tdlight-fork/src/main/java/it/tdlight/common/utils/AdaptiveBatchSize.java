@@ -0,0 +1,51 @@
+package it.tdlight.common.utils;
+
+/**
+ * Size of the receive buffer, adapted to the observed event rate.
+ * <p>
+ * The size doubles when a batch fills the whole buffer, because more events are probably waiting, and halves after
+ * a long run of batches that use less than a quarter of it.
+ */
+public final class AdaptiveBatchSize {
+
+	private static final int SHRINK_AFTER_BATCHES = 1024;
+
+	private final int minSize;
+	private final int maxSize;
+	private int size;
+	private int smallBatches;
+
+	public AdaptiveBatchSize(int minSize, int maxSize) {
+		if (minSize <= 0 || maxSize < minSize) {
+			throw new IllegalArgumentException("Invalid batch sizes: " + minSize + ", " + maxSize);
+		}
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.size = minSize;
+	}
+
+	public int get() {
+		return size;
+	}
+
+	/**
+	 * @param eventsCount number of events received in the last batch
+	 * @return true if the size changed
+	 */
+	public boolean onBatch(int eventsCount) {
+		if (eventsCount >= size && size < maxSize) {
+			size = (int) Math.min((long) size * 2, maxSize);
+			smallBatches = 0;
+			return true;
+		} else if (eventsCount <= size / 4 && size > minSize) {
+			if (++smallBatches >= SHRINK_AFTER_BATCHES) {
+				size = Math.max(size / 2, minSize);
+				smallBatches = 0;
+				return true;
+			}
+		} else {
+			smallBatches = 0;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,34 @@
+package it.tdlight.common.utils;
+
+/**
+ * @see WaitStrategy#blocking(double, double)
+ */
+public final class BlockingWaitStrategy implements WaitStrategy {
+
+	private final double minTimeout;
+	private final double maxTimeout;
+	private double timeout;
+
+	public BlockingWaitStrategy(double minTimeoutSeconds, double maxTimeoutSeconds) {
+		if (minTimeoutSeconds <= 0 || maxTimeoutSeconds < minTimeoutSeconds) {
+			throw new IllegalArgumentException("Invalid timeouts: " + minTimeoutSeconds + ", " + maxTimeoutSeconds);
+		}
+		this.minTimeout = minTimeoutSeconds;
+		this.maxTimeout = maxTimeoutSeconds;
+		this.timeout = minTimeoutSeconds;
+	}
+
+	@Override
+	public double getReceiveTimeout() {
+		return timeout;
+	}
+
+	@Override
+	public void onReceived(int eventsCount) {
+		if (eventsCount > 0) {
+			timeout = minTimeout;
+		} else {
+			timeout = Math.min(timeout * 2, maxTimeout);
+		}
+	}
+}
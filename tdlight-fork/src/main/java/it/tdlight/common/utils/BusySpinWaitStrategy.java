@@ -0,0 +1,19 @@
+package it.tdlight.common.utils;
+
+/**
+ * @see WaitStrategy#busySpin()
+ */
+public final class BusySpinWaitStrategy implements WaitStrategy {
+
+	@Override
+	public double getReceiveTimeout() {
+		return 0;
+	}
+
+	@Override
+	public void onReceived(int eventsCount) {
+		if (eventsCount <= 0) {
+			SpinWaitSupport.onSpinWait();
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package it.tdlight.common.utils;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Timer for many short tasks, like request timeouts, which are usually cancelled before they expire.
+ * <p>
+ * The timeouts are kept in a wheel of buckets, one bucket for each tick. A single thread advances the wheel every tick
+ * and runs the expired timeouts of the current bucket. Scheduling and cancelling a timeout are O(1) and don't take any
+ * lock, but a timeout expires up to one tick late. Cancelled timeouts are unlinked from their bucket when the wheel
+ * passes over it, so they are released within one rotation of the wheel.
+ * <p>
+ * The tasks run on the timer thread, so they must be short and must not block.
+ */
+public final class HashedWheelTimer implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+	private final long tickNanos;
+	private final Timeout[] wheel;
+	private final int mask;
+	private final long startTime;
+	private final AtomicReference<Timeout> pendingTimeouts = new AtomicReference<>();
+	private final Thread worker;
+	private volatile boolean closed;
+
+	/**
+	 * @param threadName name of the timer thread
+	 * @param tickDuration precision of the timer
+	 * @param ticksPerWheel number of buckets, rounded up to a power of two
+	 */
+	public HashedWheelTimer(String threadName, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("Tick duration must be greater than 0");
+		}
+		if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid ticks per wheel: " + ticksPerWheel);
+		}
+		this.tickNanos = unit.toNanos(tickDuration);
+		int wheelSize = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+		this.wheel = new Timeout[Math.max(wheelSize, 1)];
+		this.mask = wheel.length - 1;
+		this.startTime = System.nanoTime();
+		this.worker = new Thread(this::run, threadName);
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	/**
+	 * Run the task after the delay, on the timer thread
+	 *
+	 * @throws RejectedExecutionException if the timer is closed
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if (closed) {
+			throw new RejectedExecutionException("The timer is closed");
+		}
+		Timeout timeout = new Timeout(task, System.nanoTime() - startTime + Math.max(unit.toNanos(delay), 0));
+		Timeout head;
+		do {
+			head = pendingTimeouts.get();
+			timeout.next = head;
+		} while (!pendingTimeouts.compareAndSet(head, timeout));
+		return timeout;
+	}
+
+	private void run() {
+		long tick = 0;
+		while (!closed) {
+			long tickDeadline = tickNanos * (tick + 1);
+			long sleepNanos;
+			while ((sleepNanos = tickDeadline - (System.nanoTime() - startTime)) > 0 && !closed) {
+				LockSupport.parkNanos(this, sleepNanos);
+			}
+			if (closed) {
+				break;
+			}
+			transferPendingTimeouts(tick);
+			expireTimeouts(tick, tickDeadline);
+			tick++;
+		}
+	}
+
+	/**
+	 * Move the timeouts scheduled since the last tick into their buckets
+	 */
+	private void transferPendingTimeouts(long currentTick) {
+		Timeout timeout = pendingTimeouts.getAndSet(null);
+		while (timeout != null) {
+			Timeout nextPending = timeout.next;
+			if (timeout.state == Timeout.PENDING) {
+				long expirationTick = Math.max(timeout.deadline / tickNanos, currentTick);
+				timeout.remainingRounds = (expirationTick - currentTick) / wheel.length;
+				int bucket = (int) (expirationTick & mask);
+				timeout.prev = null;
+				timeout.next = wheel[bucket];
+				if (wheel[bucket] != null) {
+					wheel[bucket].prev = timeout;
+				}
+				wheel[bucket] = timeout;
+			} else {
+				timeout.next = null;
+			}
+			timeout = nextPending;
+		}
+	}
+
+	private void expireTimeouts(long currentTick, long tickDeadline) {
+		int bucket = (int) (currentTick & mask);
+		Timeout timeout = wheel[bucket];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.state != Timeout.PENDING) {
+				unlink(bucket, timeout);
+			} else if (timeout.remainingRounds <= 0 && timeout.deadline <= tickDeadline) {
+				unlink(bucket, timeout);
+				timeout.expire();
+			} else {
+				timeout.remainingRounds--;
+			}
+			timeout = next;
+		}
+	}
+
+	private void unlink(int bucket, Timeout timeout) {
+		if (timeout.prev != null) {
+			timeout.prev.next = timeout.next;
+		} else {
+			wheel[bucket] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev = null;
+		timeout.next = null;
+	}
+
+	/**
+	 * Stop the timer thread. The timeouts that are still pending will never run.
+	 */
+	@Override
+	public void close() throws InterruptedException {
+		closed = true;
+		LockSupport.unpark(worker);
+		if (Thread.currentThread() != worker) {
+			worker.join();
+		}
+	}
+
+	public static final class Timeout {
+
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE
+				= AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+		private final Runnable task;
+		private final long deadline;
+		private volatile int state = PENDING;
+		// Accessed only by the timer thread, after the timeout has been transferred into its bucket
+		private long remainingRounds;
+		private Timeout prev;
+		// Next pending timeout before the transfer, next timeout of the bucket after the transfer
+		private Timeout next;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * @return true if the timeout has been cancelled, false if it had already expired or had already been cancelled
+		 */
+		public boolean cancel() {
+			return STATE.compareAndSet(this, PENDING, CANCELLED);
+		}
+
+		public boolean isCancelled() {
+			return state == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state == EXPIRED;
+		}
+
+		private void expire() {
+			if (STATE.compareAndSet(this, PENDING, EXPIRED)) {
+				try {
+					task.run();
+				} catch (Throwable ex) {
+					logger.warn("A timer task threw an exception", ex);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package it.tdlight.common.utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @see WaitStrategy#parking(long, long)
+ */
+public final class ParkingWaitStrategy implements WaitStrategy {
+
+	private final long minParkNanos;
+	private final long maxParkNanos;
+	private long parkNanos;
+
+	public ParkingWaitStrategy(long minParkNanos, long maxParkNanos) {
+		if (minParkNanos <= 0 || maxParkNanos < minParkNanos) {
+			throw new IllegalArgumentException("Invalid park times: " + minParkNanos + ", " + maxParkNanos);
+		}
+		this.minParkNanos = minParkNanos;
+		this.maxParkNanos = maxParkNanos;
+		this.parkNanos = minParkNanos;
+	}
+
+	@Override
+	public double getReceiveTimeout() {
+		return 0;
+	}
+
+	@Override
+	public void onReceived(int eventsCount) {
+		if (eventsCount > 0) {
+			parkNanos = minParkNanos;
+		} else {
+			LockSupport.parkNanos(parkNanos);
+			parkNanos = Math.min(parkNanos * 2, maxParkNanos);
+		}
+	}
+}
@@ -4,11 +4,32 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 
+/**
+ * Calls {@code Thread.onSpinWait()} when the runtime provides it (Java 9+), otherwise does nothing.
+ */
 public class SpinWaitSupport {
 
+	private static final MethodHandle ON_SPIN_WAIT_METHOD_HANDLE;
+
+	static {
+		MethodHandle onSpinWait;
+		try {
+			onSpinWait = MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			onSpinWait = null;
+		}
+		ON_SPIN_WAIT_METHOD_HANDLE = onSpinWait;
+	}
+
 	private SpinWaitSupport() {
 	}
 
 	public static void onSpinWait() {
+		if (ON_SPIN_WAIT_METHOD_HANDLE != null) {
+			try {
+				ON_SPIN_WAIT_METHOD_HANDLE.invokeExact();
+			} catch (Throwable ignored) {
+			}
+		}
 	}
 }
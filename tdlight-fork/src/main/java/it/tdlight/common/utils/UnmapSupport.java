@@ -0,0 +1,69 @@
+package it.tdlight.common.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Releases the mapping of a {@link MappedByteBuffer} without waiting for the garbage collection of the buffer, with
+ * {@code Unsafe.invokeCleaner} (Java 9+) or with the cleaner of the buffer (Java 8).
+ */
+public class UnmapSupport {
+
+	private static final MethodHandle UNMAP_METHOD_HANDLE;
+
+	static {
+		MethodHandle unmap;
+		try {
+			unmap = findUnmap();
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			unmap = null;
+		}
+		UNMAP_METHOD_HANDLE = unmap;
+	}
+
+	private UnmapSupport() {
+	}
+
+	private static MethodHandle findUnmap() throws ReflectiveOperationException {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+		try {
+			MethodHandle invokeCleaner = lookup.findVirtual(unsafeClass,
+					"invokeCleaner",
+					MethodType.methodType(void.class, ByteBuffer.class)
+			);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			return invokeCleaner.bindTo(theUnsafe.get(null));
+		} catch (NoSuchMethodException e) {
+			Class<?> directBufferClass = Class.forName("sun.nio.ch.DirectBuffer");
+			Class<?> cleanerClass = Class.forName("sun.misc.Cleaner");
+			MethodHandle cleaner = lookup.findVirtual(directBufferClass, "cleaner", MethodType.methodType(cleanerClass));
+			MethodHandle clean = lookup.findVirtual(cleanerClass, "clean", MethodType.methodType(void.class));
+			return MethodHandles
+					.filterReturnValue(cleaner, clean)
+					.asType(MethodType.methodType(void.class, ByteBuffer.class));
+		}
+	}
+
+	/**
+	 * Release the mapping of the buffer. The buffer and its views must not be accessed anymore, an access after the
+	 * release crashes the JVM.
+	 *
+	 * @return false if the runtime doesn't allow it, the mapping is then released when the buffer is garbage collected
+	 */
+	public static boolean unmap(MappedByteBuffer buffer) {
+		if (UNMAP_METHOD_HANDLE != null) {
+			try {
+				UNMAP_METHOD_HANDLE.invokeExact((ByteBuffer) buffer);
+				return true;
+			} catch (Throwable ignored) {
+			}
+		}
+		return false;
+	}
+}
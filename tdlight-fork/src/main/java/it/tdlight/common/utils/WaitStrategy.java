@@ -0,0 +1,53 @@
+package it.tdlight.common.utils;
+
+/**
+ * Defines how a receive loop waits for new events from TDLib.
+ * <p>
+ * A strategy can keep state between the calls, so an instance must be used by a single receive loop.
+ */
+public interface WaitStrategy {
+
+	/**
+	 * @return the timeout, in seconds, of the next native receive call. 0 means that the call returns immediately
+	 */
+	double getReceiveTimeout();
+
+	/**
+	 * Called after every native receive call.
+	 *
+	 * @param eventsCount number of received events, 0 if the call timed out
+	 */
+	void onReceived(int eventsCount);
+
+	/**
+	 * Wait inside the native receive call, waking up at least every {@code maxTimeoutSeconds}.
+	 * The timeout starts from {@code minTimeoutSeconds} and doubles while no event is received.
+	 * This strategy doesn't use any CPU while idle.
+	 */
+	static WaitStrategy blocking(double minTimeoutSeconds, double maxTimeoutSeconds) {
+		return new BlockingWaitStrategy(minTimeoutSeconds, maxTimeoutSeconds);
+	}
+
+	/**
+	 * Poll continuously, calling {@code Thread.onSpinWait()} between the calls.
+	 * This strategy has the lowest latency, but it keeps a CPU core busy.
+	 */
+	static WaitStrategy busySpin() {
+		return new BusySpinWaitStrategy();
+	}
+
+	/**
+	 * Poll continuously, yielding the CPU to the other threads between the calls.
+	 */
+	static WaitStrategy yielding() {
+		return new YieldingWaitStrategy();
+	}
+
+	/**
+	 * Poll and park between the calls. The park time starts from {@code minParkNanos} and doubles while no event is
+	 * received, up to {@code maxParkNanos}.
+	 */
+	static WaitStrategy parking(long minParkNanos, long maxParkNanos) {
+		return new ParkingWaitStrategy(minParkNanos, maxParkNanos);
+	}
+}
@@ -0,0 +1,19 @@
+package it.tdlight.common.utils;
+
+/**
+ * @see WaitStrategy#yielding()
+ */
+public final class YieldingWaitStrategy implements WaitStrategy {
+
+	@Override
+	public double getReceiveTimeout() {
+		return 0;
+	}
+
+	@Override
+	public void onReceived(int eventsCount) {
+		if (eventsCount <= 0) {
+			Thread.yield();
+		}
+	}
+}
@@ -8,7 +8,12 @@ package org.drinkless.td.libcore.telegram;
 
 import it.wear.libsgram.TelegramConfiguration;
 
+import java.time.Duration;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -17,6 +22,9 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import it.tdlight.common.ExceptionHandler;
 import it.tdlight.common.ResultHandler;
 import it.tdlight.common.TelegramClient;
+import it.tdlight.common.capture.EventsRecorder;
+import it.tdlight.common.utils.HashedWheelTimer;
+import it.tdlight.common.utils.WaitStrategy;
 
 /**
  * Main class for interaction with the TDLib.
@@ -36,6 +44,26 @@ public final class Client implements Runnable, TelegramClient {
      * @throws NullPointerException if query is null.
      */
     public void send(TdApi.Function query, ResultHandler resultHandler, ExceptionHandler exceptionHandler) {
+        send(query, resultHandler, exceptionHandler, null);
+    }
+
+    /**
+     * Sends a request to the TDLib, giving up if the response doesn't arrive in time.
+     * When the timeout expires the request is forgotten and the result handler is called with
+     * TdApi.Error(408, "Request Timeout"), from the thread that handles the timeouts of all the clients.
+     * A response received later is ignored.
+     *
+     * @param query            Object representing a query to the TDLib.
+     * @param resultHandler    Result handler with onResult method which will be called with result
+     *                         of the query or with TdApi.Error as parameter. If it is null, nothing
+     *                         will be called.
+     * @param exceptionHandler Exception handler with onException method which will be called on
+     *                         exception thrown from resultHandler. If it is null, then
+     *                         defaultExceptionHandler will be called.
+     * @param timeout          Maximum time to wait for the response. If it is null, waits forever.
+     * @throws NullPointerException if query is null.
+     */
+    public void send(TdApi.Function query, ResultHandler resultHandler, ExceptionHandler exceptionHandler, Duration timeout) {
         if (query == null) {
             throw new NullPointerException("query is null");
         }
@@ -50,7 +78,17 @@ public final class Client implements Runnable, TelegramClient {
             }
 
             long queryId = currentQueryId.incrementAndGet();
-            handlers.put(queryId, new Handler(resultHandler, exceptionHandler));
+            if (timeout != null && resultHandler != null) {
+                HashedWheelTimer.Timeout requestTimeout = TimerHolder.TIMER.schedule(() -> processTimeout(queryId),
+                        timeout.toNanos(), TimeUnit.NANOSECONDS);
+                handlers.put(queryId, new Handler(resultHandler, exceptionHandler, requestTimeout));
+                // The timeout may have expired before the handler was added
+                if (requestTimeout.isExpired()) {
+                    processTimeout(queryId);
+                }
+            } else {
+                handlers.put(queryId, new Handler(resultHandler, exceptionHandler));
+            }
             NativeClient.clientSend(nativeClientId, queryId, query);
         } finally {
             readLock.unlock();
@@ -70,6 +108,16 @@ public final class Client implements Runnable, TelegramClient {
         send(query, resultHandler, null);
     }
 
+    /**
+     * Records every event received by this client, before it's handled.
+     *
+     * @param eventsRecorder Recorder of the events, it can be shared with other clients. If it is null, the
+     *                       recording is stopped.
+     */
+    public void setEventsRecorder(EventsRecorder eventsRecorder) {
+        this.eventsRecorder = eventsRecorder;
+    }
+
 
 
     /**
@@ -97,7 +145,8 @@ public final class Client implements Runnable, TelegramClient {
             e.printStackTrace();
         }
         while (!stopFlag) {
-            receiveQueries(300.0 /*seconds*/);
+            int resultN = receiveQueries(waitStrategy.getReceiveTimeout());
+            waitStrategy.onReceived(Math.max(resultN, 0));
         }
     }
 
@@ -110,7 +159,20 @@ public final class Client implements Runnable, TelegramClient {
      * @return created Client
      */
     public static Client create(ResultHandler updateHandler, ExceptionHandler updateExceptionHandler, ExceptionHandler defaultExceptionHandler) {
-        Client client = new Client(updateHandler, updateExceptionHandler, defaultExceptionHandler);
+        return create(updateHandler, updateExceptionHandler, defaultExceptionHandler, WaitStrategy.blocking(300.0, 300.0));
+    }
+
+    /**
+     * Creates new Client.
+     *
+     * @param updateHandler           Handler for incoming updates.
+     * @param updateExceptionHandler  Handler for exceptions thrown from updateHandler. If it is null, exceptions will be iggnored.
+     * @param defaultExceptionHandler Default handler for exceptions thrown from all ResultHandler. If it is null, exceptions will be iggnored.
+     * @param waitStrategy            How {@link #run()} waits for new events. The instance can't be shared with other clients.
+     * @return created Client
+     */
+    public static Client create(ResultHandler updateHandler, ExceptionHandler updateExceptionHandler, ExceptionHandler defaultExceptionHandler, WaitStrategy waitStrategy) {
+        Client client = new Client(updateHandler, updateExceptionHandler, defaultExceptionHandler, waitStrategy);
 //        new Thread(client, "TDLib thread").start();
         return client;
     }
@@ -272,15 +334,20 @@ public final class Client implements Runnable, TelegramClient {
     private final Lock writeLock = readWriteLock.writeLock();
 
     private static AtomicLong clientCount = new AtomicLong();
+    private static final AtomicInteger nextRecordedClientId = new AtomicInteger(1);
 
     private volatile boolean stopFlag = false;
     private volatile boolean isClientDestroyed = false;
     private final long nativeClientId;
+    // Id of the client in the recorded events
+    private final int recordedClientId = nextRecordedClientId.getAndIncrement();
+    private volatile EventsRecorder eventsRecorder;
 
     private final ConcurrentHashMap<Long, Handler> handlers = new ConcurrentHashMap<Long, Handler>();
     private final AtomicLong currentQueryId = new AtomicLong();
 
     private volatile ExceptionHandler defaultExceptionHandler = null;
+    private final WaitStrategy waitStrategy;
 
     private static final int MAX_EVENTS = 1000;
     private final long[] eventIds = new long[MAX_EVENTS];
@@ -289,14 +356,34 @@ public final class Client implements Runnable, TelegramClient {
     private static class Handler {
         final ResultHandler resultHandler;
         final ExceptionHandler exceptionHandler;
+        final HashedWheelTimer.Timeout timeout;
 
         Handler(ResultHandler resultHandler, ExceptionHandler exceptionHandler) {
+            this(resultHandler, exceptionHandler, null);
+        }
+
+        Handler(ResultHandler resultHandler, ExceptionHandler exceptionHandler, HashedWheelTimer.Timeout timeout) {
             this.resultHandler = resultHandler;
             this.exceptionHandler = exceptionHandler;
+            this.timeout = timeout;
         }
     }
 
-    private Client(ResultHandler updateHandler, ExceptionHandler updateExceptionHandler, ExceptionHandler defaultExceptionHandler) {
+    /**
+     * Timer of the request timeouts, shared by all the clients and started on first use.
+     * The timer only hands the expired requests off to the timeouts thread, that calls their result handlers.
+     */
+    private static final class TimerHolder {
+        private static final HashedWheelTimer TIMER = new HashedWheelTimer("TDLib timer", 10, TimeUnit.MILLISECONDS, 512);
+        private static final Executor TIMEOUTS_HANDLER = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TDLib request timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private Client(ResultHandler updateHandler, ExceptionHandler updateExceptionHandler, ExceptionHandler defaultExceptionHandler, WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
         clientCount.incrementAndGet();
         nativeClientId = NativeClient.createClient();
         handlers.put(0L, new Handler(updateHandler, updateExceptionHandler));
@@ -329,10 +416,21 @@ public final class Client implements Runnable, TelegramClient {
         if (handler == null) {
             return;
         }
+        if (handler.timeout != null) {
+            handler.timeout.cancel();
+        }
 
         handleResult(object, handler.resultHandler, handler.exceptionHandler);
     }
 
+    private void processTimeout(long id) {
+        Handler handler = handlers.remove(id);
+        if (handler != null) {
+            TimerHolder.TIMEOUTS_HANDLER.execute(() -> handleResult(new TdApi.Error(408, "Request Timeout"),
+                    handler.resultHandler, handler.exceptionHandler));
+        }
+    }
+
     private void handleResult(TdApi.Object object, ResultHandler resultHandler, ExceptionHandler exceptionHandler) {
         if (resultHandler == null) {
             return;
@@ -353,11 +451,16 @@ public final class Client implements Runnable, TelegramClient {
         }
     }
 
-    private void receiveQueries(double timeout) {
+    private int receiveQueries(double timeout) {
         int resultN = NativeClient.clientReceive(nativeClientId, eventIds, events, timeout);
+        EventsRecorder eventsRecorder = this.eventsRecorder;
+        if (eventsRecorder != null && resultN > 0) {
+            eventsRecorder.record(recordedClientId, eventIds, events, resultN);
+        }
         for (int i = 0; i < resultN; i++) {
             processResult(eventIds[i], events[i]);
             events[i] = null;
         }
+        return resultN;
     }
 }
@@ -0,0 +1,184 @@
+package it.tdlight.common;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class TdApiCodecTest {
+
+	private static final List<Class<?>> CLASSES = Arrays.asList(TdApi.class.getClasses());
+	private static final String[] STRINGS = {"", "s", "héllo", "日本語", "emoji 😀", "unpaired \uD800 surrogate",
+			"s"};
+	private static final int MAX_DEPTH = 4;
+	private static final int ROUNDS = 3;
+
+	private final TdApiCodec codec = new TdApiCodec();
+	private final Random random = new Random(42);
+
+	@ParameterizedTest
+	@ValueSource(booleans = {false, true})
+	void roundTripsEveryClass(boolean nulls) throws ReflectiveOperationException {
+		int classes = 0;
+		for (Class<?> type : CLASSES) {
+			if (Modifier.isAbstract(type.getModifiers())) {
+				continue;
+			}
+			for (int round = 0; round < ROUNDS; round++) {
+				TdApi.Object object = (TdApi.Object) newObject(type, 0, nulls);
+				for (ByteBuffer buffer : newBuffers()) {
+					assertRoundTrip(buffer, object);
+					assertTruncatedRejected(buffer, object);
+				}
+			}
+			classes++;
+		}
+		assertTrue(classes > 0);
+	}
+
+	@Test
+	void roundTripsNull() {
+		for (ByteBuffer buffer : newBuffers()) {
+			codec.write(buffer, null);
+			buffer.flip();
+			assertNull(codec.read(buffer));
+			assertFalse(buffer.hasRemaining());
+		}
+	}
+
+	@Test
+	void roundTripsNegativeNumbers() {
+		long[] longs = {0, -1, 1, -64, 64, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MIN_VALUE - 1L};
+		int[] ints = {0, -1, 1, -64, 64, Integer.MIN_VALUE, Integer.MAX_VALUE};
+		for (ByteBuffer buffer : newBuffers()) {
+			for (long value : longs) {
+				assertRoundTrip(buffer, new TdApi.UpdateChatReadInbox(value, -value, 0));
+			}
+			for (int value : ints) {
+				assertRoundTrip(buffer, new TdApi.UpdateChatReadInbox(0, 0, value));
+				assertRoundTrip(buffer, new TdApi.Error(value, "error"));
+			}
+		}
+	}
+
+	@Test
+	void roundTripsSurrogates() {
+		String[] strings = {"😀", "a😀b😀", "\uD83D", "\uDE00", "a\uD800b", "\uDBFF\uDFFF",
+				"\uDE00\uD83D"};
+		for (ByteBuffer buffer : newBuffers()) {
+			for (String string : strings) {
+				assertRoundTrip(buffer, new TdApi.Error(0, string));
+				assertRoundTrip(buffer, new TdApi.FormattedText(string, new TdApi.TextEntity[0]));
+			}
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = {0xC3, 0xE2, 0xF0, 0x80, 0xFF})
+	void rejectsMalformedUtf8AtTheEndOfAString(int lastByte) {
+		// As long as the initial chars array of the codec, a sequence decoded past the string would overflow it
+		char[] message = new char[64];
+		Arrays.fill(message, 'a');
+		for (ByteBuffer buffer : newBuffers()) {
+			codec.write(buffer, new TdApi.Error(0, new String(message)));
+			buffer.put(buffer.position() - 1, (byte) lastByte);
+			buffer.put(new byte[3]);
+			buffer.flip();
+			assertThrows(IllegalArgumentException.class, () -> codec.read(buffer));
+		}
+	}
+
+	private void assertRoundTrip(ByteBuffer buffer, TdApi.Object object) {
+		buffer.clear();
+		codec.write(buffer, object);
+		buffer.flip();
+		TdApi.Object result = codec.read(buffer);
+		assertFalse(buffer.hasRemaining(), object.getClass().getSimpleName());
+		assertTrue(TdApiEquality.equals(object, result), object.getClass().getSimpleName());
+	}
+
+	private void assertTruncatedRejected(ByteBuffer buffer, TdApi.Object object) {
+		buffer.clear();
+		codec.write(buffer, object);
+		int length = buffer.position();
+		buffer.flip();
+		buffer.limit(length - 1);
+		RuntimeException ex = assertThrows(RuntimeException.class, () -> codec.read(buffer));
+		assertTrue(ex instanceof BufferUnderflowException || ex instanceof IllegalArgumentException,
+				object.getClass().getSimpleName() + " threw " + ex);
+	}
+
+	private static ByteBuffer[] newBuffers() {
+		return new ByteBuffer[] {ByteBuffer.allocate(1 << 20).order(ByteOrder.BIG_ENDIAN),
+				ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN)};
+	}
+
+	private Object newObject(Class<?> type, int depth, boolean nulls) throws ReflectiveOperationException {
+		Object object = type.getConstructor().newInstance();
+		for (Field field : type.getFields()) {
+			if (!Modifier.isStatic(field.getModifiers())) {
+				field.set(object, newValue(field.getType(), depth + 1, nulls));
+			}
+		}
+		return object;
+	}
+
+	private Object newValue(Class<?> type, int depth, boolean nulls) throws ReflectiveOperationException {
+		if (type == byte.class) {
+			return (byte) random.nextInt();
+		} else if (type == int.class) {
+			return random.nextBoolean() ? random.nextInt() : random.nextInt(11) - 5;
+		} else if (type == long.class) {
+			return random.nextBoolean() ? random.nextLong() : (long) (random.nextInt(11) - 5);
+		} else if (type == boolean.class) {
+			return random.nextBoolean();
+		} else if (type == double.class) {
+			return random.nextDouble() - 0.5;
+		}
+		if (nulls && random.nextInt(4) == 0) {
+			return null;
+		}
+		if (type == String.class) {
+			return STRINGS[random.nextInt(STRINGS.length)];
+		} else if (type.isArray()) {
+			Class<?> componentType = type.getComponentType();
+			int length = random.nextInt(3);
+			Object array = Array.newInstance(componentType, length);
+			for (int i = 0; i < length; i++) {
+				Object element = newValue(componentType, depth + 1, nulls);
+				if (element != null) {
+					Array.set(array, i, element);
+				}
+			}
+			return array;
+		}
+		if (depth > MAX_DEPTH) {
+			return null;
+		}
+		List<Class<?>> implementations = new ArrayList<>();
+		for (Class<?> implementation : CLASSES) {
+			if (type.isAssignableFrom(implementation) && !Modifier.isAbstract(implementation.getModifiers())) {
+				implementations.add(implementation);
+			}
+		}
+		if (implementations.isEmpty()) {
+			return null;
+		}
+		return newObject(implementations.get(random.nextInt(implementations.size())), depth, nulls);
+	}
+}
@@ -0,0 +1,94 @@
+package it.tdlight.common.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import it.tdlight.common.EventsHandler;
+import org.drinkless.td.libcore.telegram.TdApi;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ClientEventsDispatcherTest {
+
+	private static final int BATCH_SIZE = 1000;
+	private static final int CLIENTS = 50;
+	private static final int WARMUP_BATCHES = 20_000;
+	private static final int MEASURED_BATCHES = 1_000;
+
+	@ParameterizedTest
+	@ValueSource(booleans = {false, true})
+	void dispatchDoesNotAllocate(boolean priorityLanes) {
+		com.sun.management.ThreadMXBean threadMXBean = getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		int[] clientIds = new int[BATCH_SIZE];
+		long[] eventIds = new long[BATCH_SIZE];
+		TdApi.Object[] events = new TdApi.Object[BATCH_SIZE];
+		TdApi.Object[] batch = new TdApi.Object[BATCH_SIZE];
+		Random random = new Random(42);
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			clientIds[i] = 1 + random.nextInt(CLIENTS);
+			switch (random.nextInt(4)) {
+				case 0:
+					eventIds[i] = 1 + i;
+					batch[i] = new TdApi.Ok();
+					break;
+				case 1:
+					batch[i] = new TdApi.UpdateConnectionState(new TdApi.ConnectionStateReady());
+					break;
+				default:
+					batch[i] = new TdApi.UpdateChatReadInbox(clientIds[i], i, i);
+					break;
+			}
+		}
+		CountingEventsHandler eventsHandler = new CountingEventsHandler();
+		ClientEventsDispatcher dispatcher = new ClientEventsDispatcher(eventsHandler, BATCH_SIZE, priorityLanes);
+
+		for (int i = 0; i < WARMUP_BATCHES; i++) {
+			System.arraycopy(batch, 0, events, 0, BATCH_SIZE);
+			dispatcher.dispatch(clientIds, eventIds, events, BATCH_SIZE);
+		}
+		eventsHandler.events = 0;
+
+		// The measurement itself may allocate on its first calls
+		threadMXBean.getThreadAllocatedBytes(threadId);
+		long baselineStart = threadMXBean.getThreadAllocatedBytes(threadId);
+		long baseline = threadMXBean.getThreadAllocatedBytes(threadId) - baselineStart;
+
+		long start = threadMXBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < MEASURED_BATCHES; i++) {
+			System.arraycopy(batch, 0, events, 0, BATCH_SIZE);
+			dispatcher.dispatch(clientIds, eventIds, events, BATCH_SIZE);
+		}
+		long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - start - baseline;
+
+		assertEquals((long) BATCH_SIZE * MEASURED_BATCHES, eventsHandler.events);
+		assertEquals(0, allocated, "Bytes allocated by " + MEASURED_BATCHES + " batches");
+	}
+
+	private static com.sun.management.ThreadMXBean getThreadMXBean() {
+		java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean, "Allocation counters are not supported");
+		com.sun.management.ThreadMXBean allocationsMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+		assumeTrue(allocationsMXBean.isThreadAllocatedMemorySupported(), "Allocation counters are not supported");
+		allocationsMXBean.setThreadAllocatedMemoryEnabled(true);
+		return allocationsMXBean;
+	}
+
+	private static final class CountingEventsHandler implements EventsHandler {
+
+		private long events;
+
+		@Override
+		public void handleClientEvents(int clientId,
+				boolean isClosed,
+				long[] clientEventIds,
+				TdApi.Object[] clientEvents,
+				int arrayOffset,
+				int arrayLength) {
+			events += arrayLength;
+		}
+	}
+}